@@ -0,0 +1,67 @@
+package com.kyrioslab.dsvc.bench;
+
+import akka.actor.ActorSystem;
+import com.kyrioslab.jffmpegw.attributes.parser.StreamInfo;
+import com.kyrioslab.jffmpegw.command.BuilderException;
+import com.kyrioslab.jffmpegw.command.EncodeCommand;
+import com.kyrioslab.jffmpegw.command.EncodeCommandBuilder;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixtures of benchmarks: local actor system with node configuration
+ * and encode commands, as client builds them.
+ */
+public final class BenchSystems {
+
+    private BenchSystems() {
+    }
+
+    /**
+     * Actor system with node configuration, but without cluster,
+     * logging and metrics endpoints.
+     */
+    public static ActorSystem create(String name) {
+        Config config = ConfigFactory.parseString(
+                "akka.actor.provider = \"akka.actor.LocalActorRefProvider\"\n"
+                        + "akka.loglevel = OFF\n"
+                        + "akka.stdout-loglevel = OFF\n"
+                        + "akka.log-dead-letters = off\n"
+                        + "dsvc.metrics.jmx = off\n"
+                        + "dsvc.metrics.http-port = 0")
+                .withFallback(ConfigFactory.load("encode_system"));
+        return ActorSystem.create(name, config);
+    }
+
+    /**
+     * @return commands of renditions with different bitrates
+     */
+    public static List<EncodeCommand> commands(int renditions) throws BuilderException {
+        List<EncodeCommand> commands = new ArrayList<>();
+        for (int i = 0; i < renditions; i++) {
+            StreamInfo vs = new StreamInfo();
+            vs.setIndex(0);
+            vs.setCodecName("mpeg4");
+            vs.setCodecType("video");
+            vs.setWidth("1280");
+            vs.setHeight("720");
+            vs.setAvgFrameRate("25");
+            vs.setBitRate(String.valueOf(4000000 >> i));
+
+            StreamInfo as = new StreamInfo();
+            as.setIndex(1);
+            as.setCodecName("copy");
+            as.setCodecType("audio");
+
+            EncodeCommand command = new EncodeCommandBuilder("ffmpeg",
+                    Arrays.asList(vs, as)).build();
+            command.setFormats("mp4", "mp4");
+            commands.add(command);
+        }
+        return commands;
+    }
+}
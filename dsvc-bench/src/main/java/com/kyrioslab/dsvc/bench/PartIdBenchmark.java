@@ -0,0 +1,62 @@
+package com.kyrioslab.dsvc.bench;
+
+import com.kyrioslab.dsvc.node.util.FFMPEGService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Part id handling of {@link FFMPEGService}, done for every
+ * message about the part on client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PartIdBenchmark {
+
+    private FFMPEGService ffmpegService;
+    private File part;
+    private String partId;
+
+    @Setup
+    public void setup() {
+        String tmpDir = System.getProperty("java.io.tmpdir");
+        ffmpegService = new FFMPEGService("ffmpeg", 30, tmpDir, null);
+        part = new File(new File(tmpDir, UUID.randomUUID().toString()), "42.mp4");
+        partId = ffmpegService.getPartId(part);
+    }
+
+    @Benchmark
+    public String getPartId() {
+        return ffmpegService.getPartId(part);
+    }
+
+    @Benchmark
+    public String batchIdFromPartId() {
+        return FFMPEGService.batchIdFromPartId(partId);
+    }
+
+    @Benchmark
+    public String partNameFromPartId() {
+        return ffmpegService.partNameFromPartId(partId, "mkv");
+    }
+
+    @Benchmark
+    public int partIndex() {
+        return FFMPEGService.partIndex(part);
+    }
+}
@@ -0,0 +1,116 @@
+package com.kyrioslab.dsvc.bench;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read and write of part files: whole file in memory by commons-io
+ * and by NIO, against chunks of 1 MB (default transfer chunk size) as
+ * transfer actors do. Files are mostly in page cache, so it is cost of
+ * copies and allocation rather than disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PartIoBenchmark {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    @Param({"1048576", "33554432"})
+    public int size;
+
+    private File source;
+    private File target;
+    private byte[] data;
+
+    @Setup
+    public void setup() throws IOException {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        source = File.createTempFile("bench-part", ".mp4");
+        target = File.createTempFile("bench-result", ".mp4");
+        FileUtils.writeByteArrayToFile(source, data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        source.delete();
+        target.delete();
+    }
+
+    @Benchmark
+    public byte[] readCommonsIo() throws IOException {
+        return FileUtils.readFileToByteArray(source);
+    }
+
+    @Benchmark
+    public byte[] readAllBytes() throws IOException {
+        return Files.readAllBytes(source.toPath());
+    }
+
+    /**
+     * Positional reads of chunk sized buffers, as chunk sender does.
+     */
+    @Benchmark
+    public void readChunks(Blackhole bh) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(source, "r").getChannel()) {
+            long length = channel.size();
+            for (long position = 0; position < length; position += CHUNK_SIZE) {
+                ByteBuffer buffer = ByteBuffer.allocate(
+                        (int) Math.min(CHUNK_SIZE, length - position));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                }
+                bh.consume(buffer.array());
+            }
+        }
+    }
+
+    @Benchmark
+    public void writeCommonsIo() throws IOException {
+        FileUtils.writeByteArrayToFile(target, data);
+    }
+
+    /**
+     * Chunk sized writes to channel, as chunk receiver does.
+     */
+    @Benchmark
+    public void writeChunks() throws IOException {
+        try (FileChannel channel = new FileOutputStream(target).getChannel()) {
+            for (int position = 0; position < size; position += CHUNK_SIZE) {
+                ByteBuffer buffer = ByteBuffer.wrap(data, position,
+                        Math.min(CHUNK_SIZE, size - position));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.kyrioslab.dsvc.bench;
+
+import com.kyrioslab.dsvc.node.util.FFMPEGService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sort of part files by number with comparator, which parses both
+ * names on every comparison, as the old merge did, against sort
+ * of numbers, parsed once per part.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PartSortBenchmark {
+
+    @Param({"100", "10000"})
+    public int parts;
+
+    private List<File> files;
+
+    private final Comparator<File> comparator = new Comparator<File>() {
+        @Override
+        public int compare(File o1, File o2) {
+            return Integer.compare(FFMPEGService.partIndex(o1), FFMPEGService.partIndex(o2));
+        }
+    };
+
+    @Setup
+    public void setup() {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "batch");
+        files = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            files.add(new File(dir, i + ".mp4"));
+        }
+        Collections.shuffle(files, new Random(42));
+    }
+
+    @Benchmark
+    public List<File> sortByComparator() {
+        List<File> sorted = new ArrayList<>(files);
+        Collections.sort(sorted, comparator);
+        return sorted;
+    }
+
+    @Benchmark
+    public File[] sortByParsedIndex() {
+        long[] keys = new long[files.size()];
+        for (int i = 0; i < keys.length; i++) {
+            String name = files.get(i).getName();
+
+            //part number in high bits, position in list in low bits
+            keys[i] = ((long) Integer.parseInt(name.substring(0, name.indexOf('.'))) << 32) | i;
+        }
+        Arrays.sort(keys);
+        File[] sorted = new File[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = files.get((int) keys[i]);
+        }
+        return sorted;
+    }
+}
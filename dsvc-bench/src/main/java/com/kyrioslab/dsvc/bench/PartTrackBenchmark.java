@@ -0,0 +1,101 @@
+package com.kyrioslab.dsvc.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestActorRef;
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.kyrioslab.dsvc.node.util.FFMPEGService;
+import com.kyrioslab.dsvc.node.util.PartTrackService;
+import com.kyrioslab.jffmpegw.command.EncodeCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PartTrackService} with given count of tracked parts. Messages
+ * are processed synchronously by test actor ref, so one operation is
+ * handling of one message. Parts are re-placed after untrack, so
+ * count of tracked parts stays the same. Deadlines are far, nothing
+ * expires during measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PartTrackBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int parts;
+
+    private ActorSystem system;
+    private ActorRef tracker;
+
+    private LocalMessage.PlaceOnTrackMessage[] place;
+    private LocalMessage.UntrackPartMessage[] untrack;
+    private final LocalMessage.TickMessage tick = new LocalMessage.TickMessage();
+
+    /**
+     * Next part to untrack, parts are untracked in placement order.
+     */
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        system = BenchSystems.create("PartTrackBenchmark");
+        tracker = TestActorRef.create(system,
+                Props.create(PartTrackService.class, system.deadLetters()));
+
+        EncodeCommand command = BenchSystems.commands(1).get(0);
+        String batchId = UUID.randomUUID().toString();
+        place = new LocalMessage.PlaceOnTrackMessage[parts];
+        untrack = new LocalMessage.UntrackPartMessage[parts];
+        for (int i = 0; i < parts; i++) {
+            String partId = batchId + FFMPEGService.DELIMETER_ID + i + ".mp4";
+            String transferId = UUID.randomUUID().toString();
+            place[i] = new LocalMessage.PlaceOnTrackMessage(partId, transferId, command,
+                    32L << 20, "mpeg4", null);
+            untrack[i] = new LocalMessage.UntrackPartMessage(partId, transferId, false);
+            tracker.tell(place[i], ActorRef.noSender());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        system.shutdown();
+        system.awaitTermination();
+    }
+
+    /**
+     * Timer tick, when no part is expired.
+     */
+    @Benchmark
+    public void tick() {
+        tracker.tell(tick, ActorRef.noSender());
+    }
+
+    /**
+     * Untrack of the part with the earliest deadline.
+     */
+    @Benchmark
+    public void untrackAndPlace() {
+        int i = next;
+        next = (next + 1) % parts;
+        tracker.tell(untrack[i], ActorRef.noSender());
+        tracker.tell(place[i], ActorRef.noSender());
+    }
+}
@@ -0,0 +1,111 @@
+package com.kyrioslab.dsvc.bench;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import com.kyrioslab.dsvc.node.messages.ClusterMessage;
+import com.kyrioslab.dsvc.node.messages.ClusterMessageSerializer;
+import com.kyrioslab.dsvc.node.util.FFMPEGService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster messages by {@link ClusterMessageSerializer}: part and result
+ * headers with one or several renditions, and part chunks of default
+ * and small chunk size, which carry the part data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"1", "4"})
+    public int renditions;
+
+    @Param({"65536", "1048576"})
+    public int chunkSize;
+
+    private ActorSystem system;
+    private ClusterMessageSerializer serializer;
+
+    private ClusterMessage.EncodeVideoPartMessage part;
+    private ClusterMessage.EncodeResultPartMessage result;
+    private ClusterMessage.PartChunk chunk;
+
+    private byte[] partBytes;
+    private byte[] resultBytes;
+    private byte[] chunkBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        system = BenchSystems.create("SerializerBenchmark");
+        serializer = new ClusterMessageSerializer((ExtendedActorSystem) system);
+
+        String batchId = UUID.randomUUID().toString();
+        String partId = batchId + FFMPEGService.DELIMETER_ID + "42.mp4";
+        part = new ClusterMessage.EncodeVideoPartMessage(UUID.randomUUID().toString(),
+                partId, 32L << 20, BenchSystems.commands(renditions), null);
+        result = new ClusterMessage.EncodeResultPartMessage(UUID.randomUUID().toString(),
+                part.getTransferId(), partId, 12L << 20, "mp4", null, renditions - 1);
+
+        byte[] data = new byte[chunkSize];
+        new Random(42).nextBytes(data);
+        chunk = new ClusterMessage.PartChunk(part.getTransferId(), 7, data, false);
+
+        partBytes = serializer.toBinary(part);
+        resultBytes = serializer.toBinary(result);
+        chunkBytes = serializer.toBinary(chunk);
+    }
+
+    @TearDown
+    public void tearDown() {
+        system.shutdown();
+        system.awaitTermination();
+    }
+
+    @Benchmark
+    public byte[] partToBinary() {
+        return serializer.toBinary(part);
+    }
+
+    @Benchmark
+    public Object partFromBinary() {
+        return serializer.fromBinary(partBytes);
+    }
+
+    @Benchmark
+    public byte[] resultToBinary() {
+        return serializer.toBinary(result);
+    }
+
+    @Benchmark
+    public Object resultFromBinary() {
+        return serializer.fromBinary(resultBytes);
+    }
+
+    @Benchmark
+    public byte[] chunkToBinary() {
+        return serializer.toBinary(chunk);
+    }
+
+    @Benchmark
+    public Object chunkFromBinary() {
+        return serializer.fromBinary(chunkBytes);
+    }
+}
@@ -0,0 +1,159 @@
+package com.kyrioslab.dsvc.bench.load;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.kyrioslab.dsvc.node.metrics.LatencyHistogram;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Submits jobs to client, keeping given count of them running, until
+ * all jobs are finished. Every job is followed by own child actor,
+ * because client replies to sender of the job.
+ */
+public class LoadDriver extends UntypedActor {
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    private final ActorRef client;
+    private final LocalMessage.EncodeVideoMessage job;
+    private final int jobs;
+    private final int concurrency;
+
+    /**
+     * Job latency, filled while running.
+     */
+    private final LatencyHistogram latency;
+
+    private final AtomicInteger failed;
+
+    /**
+     * Released when all jobs are finished.
+     */
+    private final CountDownLatch done;
+
+    private int submitted = 0;
+    private int finished = 0;
+
+    public LoadDriver(ActorRef client, LocalMessage.EncodeVideoMessage job, int jobs,
+                      int concurrency, LatencyHistogram latency, AtomicInteger failed,
+                      CountDownLatch done) {
+        this.client = client;
+        this.job = job;
+        this.jobs = jobs;
+        this.concurrency = concurrency;
+        this.latency = latency;
+        this.failed = failed;
+        this.done = done;
+    }
+
+    @Override
+    public void preStart() {
+        while (submitted < Math.min(jobs, concurrency)) {
+            submit();
+        }
+    }
+
+    @Override
+    public void onReceive(Object message) {
+        if (message instanceof JobFinished) {
+            JobFinished msg = (JobFinished) message;
+            latency.recordNanos(msg.time);
+            if (!msg.success) {
+                failed.incrementAndGet();
+            }
+            finished++;
+            if (finished % Math.max(1, jobs / 10) == 0 || finished == jobs) {
+                log.info("Finished {} of {} jobs", finished, jobs);
+            }
+            if (submitted < jobs) {
+                submit();
+            } else if (finished == jobs) {
+                done.countDown();
+            }
+        } else {
+            unhandled(message);
+        }
+    }
+
+    private void submit() {
+        getContext().actorOf(Props.create(LoadJob.class, client, job), "job-" + submitted);
+        submitted++;
+    }
+
+    /**
+     * Sent to driver by job actor.
+     */
+    private static class JobFinished {
+
+        /**
+         * Job latency, ns.
+         */
+        private final long time;
+        private final boolean success;
+
+        private JobFinished(long time, boolean success) {
+            this.time = time;
+            this.success = success;
+        }
+    }
+
+    /**
+     * Sends one job to client and waits for its result. Results are
+     * removed, so disk use does not grow with count of jobs.
+     */
+    public static class LoadJob extends UntypedActor {
+
+        private final LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+        private final ActorRef client;
+        private final LocalMessage.EncodeVideoMessage job;
+
+        private long start;
+
+        public LoadJob(ActorRef client, LocalMessage.EncodeVideoMessage job) {
+            this.client = client;
+            this.job = job;
+        }
+
+        @Override
+        public void preStart() {
+            start = System.nanoTime();
+            client.tell(job, getSelf());
+        }
+
+        @Override
+        public void onReceive(Object message) {
+            if (message instanceof LocalMessage.ProgressMessage) {
+
+                //progress is not measured
+            } else if (message instanceof LocalMessage.EncodeResult) {
+                finish(true);
+                for (String path : ((LocalMessage.EncodeResult) message).getResultPaths()) {
+                    File result = new File(path);
+                    if (result.exists() && !result.delete()) {
+                        log.warning("Cannot delete result: {}", path);
+                    }
+                }
+            } else if (message instanceof LocalMessage.EncodeJobFailedMessage) {
+                log.warning("Job failed: {}",
+                        ((LocalMessage.EncodeJobFailedMessage) message).getReason());
+                finish(false);
+            } else {
+                unhandled(message);
+            }
+        }
+
+        private void finish(boolean success) {
+            getContext().parent().tell(new JobFinished(System.nanoTime() - start, success),
+                    getSelf());
+            getContext().stop(getSelf());
+        }
+    }
+}
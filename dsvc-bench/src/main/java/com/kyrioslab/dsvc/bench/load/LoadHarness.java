@@ -0,0 +1,348 @@
+package com.kyrioslab.dsvc.bench.load;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.actor.Props;
+import akka.cluster.Cluster;
+import com.kyrioslab.dsvc.bench.BenchSystems;
+import com.kyrioslab.dsvc.node.client.Client;
+import com.kyrioslab.dsvc.node.encoder.Encoder;
+import com.kyrioslab.dsvc.node.encoder.EncoderSettings;
+import com.kyrioslab.dsvc.node.encoder.PartCache;
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.kyrioslab.dsvc.node.metrics.LatencyHistogram;
+import com.kyrioslab.dsvc.node.metrics.StageMetrics;
+import com.kyrioslab.dsvc.node.util.FFMPEGService;
+import com.kyrioslab.dsvc.node.util.ProcessRunner;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * End-to-end load test. Starts client node and encoder nodes in one
+ * JVM on local ports, as {@link com.kyrioslab.dsvc.node.client.ClientMain}
+ * and {@link com.kyrioslab.dsvc.node.encoder.EncoderMain} do, with
+ * {@link StubFfmpeg} in place of ffmpeg, runs jobs of synthetic source
+ * and prints jobs/hour, parts/s, job latency, bytes transferred and
+ * peak heap. Settings are read from <code>load.conf</code>, see
+ * {@link LoadSettings}.
+ * <p/>
+ * Stub is a separate JVM process, so its start time is a part of
+ * every simulated split, encode and merge.
+ */
+public final class LoadHarness {
+
+    private static final String SYSTEM_NAME = "EncodeSystem";
+
+    /**
+     * Time to wait for cluster to form, s.
+     */
+    private static final long STARTUP_TIMEOUT = 60;
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadSettings settings = new LoadSettings(ConfigFactory.load("load"));
+
+        boolean temporary = settings.getWorkDir().isEmpty();
+        File workDir = temporary
+                ? Files.createTempDirectory("dsvc-load").toFile()
+                : new File(settings.getWorkDir()).getAbsoluteFile();
+        if (!workDir.isDirectory() && !workDir.mkdirs()) {
+            throw new IOException("Cannot create work directory: " + workDir);
+        }
+
+        List<ActorSystem> systems = new ArrayList<>();
+        int exitCode;
+        try {
+            exitCode = run(settings, workDir, systems);
+        } finally {
+            for (ActorSystem system : systems) {
+                system.shutdown();
+            }
+            for (ActorSystem system : systems) {
+                system.awaitTermination();
+            }
+            if (temporary) {
+                FileUtils.deleteDirectory(workDir);
+            }
+        }
+        System.exit(exitCode);
+    }
+
+    private static int run(LoadSettings settings, File workDir, List<ActorSystem> systems)
+            throws Exception {
+        File bin = directory(workDir, "bin");
+        String ffmpeg = writeWrapper(bin, "ffmpeg", settings).getAbsolutePath();
+        writeWrapper(bin, "ffprobe", settings);
+        File source = writeSource(new File(workDir, "source.mp4"), settings.getSourceSize());
+
+        //client node, seed of the cluster
+        Config clientConfig = nodeConfig(settings, "client", ffmpeg,
+                directory(workDir, "client"));
+        final ActorSystem clientSystem = ActorSystem.create(SYSTEM_NAME, clientConfig);
+        systems.add(clientSystem);
+        final ProcessRunner clientRunner = shutdownWith(clientSystem,
+                new ProcessRunner(clientConfig));
+        final FFMPEGService ffmpegService = new FFMPEGService(ffmpeg,
+                settings.getSegmentTime() > 0 ? settings.getSegmentTime() : 30,
+                directory(workDir, "client").getAbsolutePath(), clientRunner);
+
+        final AtomicReference<ActorRef> client = new AtomicReference<>();
+        final CountDownLatch up = new CountDownLatch(1);
+        Cluster cluster = Cluster.get(clientSystem);
+        cluster.registerOnMemberUp(new Runnable() {
+            @Override
+            public void run() {
+                client.set(clientSystem.actorOf(Props.create(Client.class, ffmpegService),
+                        "encoderClient"));
+                up.countDown();
+            }
+        });
+        Address seed = cluster.selfAddress();
+        cluster.join(seed);
+
+        //encoder nodes
+        for (int i = 0; i < settings.getEncoders(); i++) {
+            Config config = nodeConfig(settings, "encoder", ffmpeg,
+                    directory(workDir, "encoder-" + i));
+            ActorSystem system = ActorSystem.create(SYSTEM_NAME, config);
+            systems.add(system);
+            startEncoder(system, shutdownWith(system, new ProcessRunner(config)));
+            Cluster.get(system).join(seed);
+        }
+
+        if (!up.await(STARTUP_TIMEOUT, TimeUnit.SECONDS)) {
+            System.err.println("Cluster is not up in " + STARTUP_TIMEOUT + " s");
+            return 1;
+        }
+
+        LocalMessage.EncodeVideoMessage job = new LocalMessage.EncodeVideoMessage(
+                source.getAbsolutePath(), BenchSystems.commands(settings.getRenditions()),
+                String.valueOf(settings.getDuration()),
+                settings.getSegmentTime() > 0 ? settings.getSegmentTime() : null,
+                null, null, null);
+
+        clientSystem.log().info("Running {} jobs on {} encoders, {} at once",
+                settings.getJobs(), settings.getEncoders(), settings.getConcurrency());
+        resetPeakHeap();
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        clientSystem.actorOf(Props.create(LoadDriver.class, client.get(), job,
+                settings.getJobs(), settings.getConcurrency(), latency, failed, done),
+                "loadDriver");
+
+        boolean finished = done.await(settings.getTimeout(), TimeUnit.MILLISECONDS);
+        long elapsed = System.nanoTime() - start;
+        report(settings, systems, latency, failed.get(), elapsed);
+        if (!finished) {
+            System.err.println("Jobs are not finished in " + settings.getTimeout() + " ms");
+            return 1;
+        }
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    /**
+     * Node configuration: local port, role and own temporary directory
+     * over harness node settings and encode_system.conf. Seed nodes are
+     * joined programmatically.
+     */
+    private static Config nodeConfig(LoadSettings settings, String role, String ffmpeg,
+                                     File tmpDir) {
+        return ConfigFactory.parseString(
+                "akka.remote.netty.tcp.hostname = \"127.0.0.1\""
+                        + "\n akka.remote.netty.tcp.port = 0"
+                        + "\n akka.cluster.roles = [" + role + "]"
+                        + "\n akka.cluster.seed-nodes = []"
+                        + "\n dsvc.metrics.jmx = off"
+                        + "\n dsvc.metrics.http-port = 0"
+                        + "\n dsvc.encoder.ffmpeg = \"" + escape(ffmpeg) + "\""
+                        + "\n dsvc.encoder.tmp-dir = \""
+                        + escape(tmpDir.getAbsolutePath()) + "\"")
+                .withFallback(settings.getNode())
+                .withFallback(ConfigFactory.load("encode_system"));
+    }
+
+    private static void startEncoder(ActorSystem system, ProcessRunner processRunner) {
+        EncoderSettings settings = EncoderSettings.get(system);
+        PartCache cache = null;
+        if (settings.isCacheEnabled()) {
+            try {
+                cache = new PartCache(settings.getCacheDir(settings.getTmpDir()),
+                        settings.getCacheMaxSize());
+            } catch (IOException e) {
+                system.log().warning("Encoded parts cache disabled: {}", e.getMessage());
+            }
+        }
+        system.actorOf(cache == null
+                ? Props.create(Encoder.class, processRunner)
+                : Props.create(Encoder.class, processRunner, cache), "videoEncoder");
+    }
+
+    private static ProcessRunner shutdownWith(ActorSystem system,
+                                              final ProcessRunner processRunner) {
+        system.registerOnTermination(new Runnable() {
+            @Override
+            public void run() {
+                processRunner.shutdown();
+            }
+        });
+        return processRunner;
+    }
+
+    /**
+     * Writes shell script, which runs stub with current class path
+     * and stub settings.
+     */
+    private static File writeWrapper(File bin, String tool, LoadSettings settings)
+            throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        command.addAll(settings.getJvmOptions());
+        command.add("-Ddsvc.stub.tool=" + tool);
+        command.add("-Ddsvc.stub.encode-time=" + settings.getEncodeTime());
+        command.add("-Ddsvc.stub.jitter=" + settings.getJitter());
+        command.add("-Ddsvc.stub.cpu=" + settings.getCpu());
+        command.add("-Ddsvc.stub.size-ratio=" + settings.getSizeRatio());
+        command.add("-Ddsvc.stub.size-jitter=" + settings.getSizeJitter());
+        command.add("-Ddsvc.stub.failure-rate=" + settings.getFailureRate());
+        command.add("-Ddsvc.stub.split-time=" + settings.getSplitTime());
+        command.add("-Ddsvc.stub.merge-time=" + settings.getMergeTime());
+        command.add("-Ddsvc.stub.duration=" + settings.getDuration());
+        if (settings.getSegmentTime() > 0) {
+            command.add("-Ddsvc.stub.segment-time=" + settings.getSegmentTime());
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(StubFfmpeg.class.getName());
+
+        StringBuilder sb = new StringBuilder("#!/bin/sh\nexec");
+        for (String arg : command) {
+            sb.append(' ').append(quote(arg));
+        }
+        sb.append(" \"$@\"\n");
+
+        File script = new File(bin, tool);
+        try (Writer w = new FileWriter(script)) {
+            w.write(sb.toString());
+        }
+        if (!script.setExecutable(true)) {
+            throw new IOException("Cannot make script executable: " + script);
+        }
+        return script;
+    }
+
+    private static File writeSource(File source, long size) throws IOException {
+        byte[] buffer = new byte[1 << 20];
+        new Random(42).nextBytes(buffer);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(source))) {
+            for (long left = size; left > 0; left -= buffer.length) {
+                out.write(buffer, 0, (int) Math.min(buffer.length, left));
+            }
+        }
+        return source;
+    }
+
+    private static void report(LoadSettings settings, List<ActorSystem> systems,
+                               LatencyHistogram latency, int failed, long elapsedNanos) {
+        long sent = 0;
+        long received = 0;
+        long retries = 0;
+        long timeouts = 0;
+        for (ActorSystem system : systems) {
+            StageMetrics metrics = StageMetrics.get(system);
+            sent += metrics.getBytesSent();
+            received += metrics.getBytesReceived();
+            retries += metrics.getRetries();
+            timeouts += metrics.getTimeouts();
+        }
+        long parts = StageMetrics.get(systems.get(0))
+                .histogram(StageMetrics.Stage.PART).getCount();
+        double seconds = elapsedNanos / 1e9;
+
+        StringBuilder sb = new StringBuilder("\n=== Load results ===\n");
+        line(sb, "encoders", String.valueOf(settings.getEncoders()));
+        line(sb, "jobs", latency.getCount() + " finished, " + failed + " failed");
+        line(sb, "elapsed, s", format(seconds));
+        line(sb, "jobs/hour", format(latency.getCount() * 3600 / seconds));
+        line(sb, "parts/s", format(parts / seconds));
+        line(sb, "job latency p50, s", format(latency.getP50() / 1000));
+        line(sb, "job latency p99, s", format(latency.getP99() / 1000));
+        line(sb, "job latency max, s", format(latency.getMax() / 1000));
+        line(sb, "bytes sent", String.valueOf(sent));
+        line(sb, "bytes received", String.valueOf(received));
+        line(sb, "retries", String.valueOf(retries));
+        line(sb, "timeouts", String.valueOf(timeouts));
+        line(sb, "peak heap, MB", format(peakHeap() / (1024.0 * 1024.0)));
+        System.out.println(sb);
+    }
+
+    private static void line(StringBuilder sb, String name, String value) {
+        sb.append(String.format(Locale.ROOT, "%-20s %s%n", name, value));
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return sum of peaks of heap pools, upper bound of heap peak, bytes
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static File directory(File parent, String name) throws IOException {
+        File dir = new File(parent, name);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory: " + dir);
+        }
+        return dir;
+    }
+
+    private static String quote(String arg) {
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
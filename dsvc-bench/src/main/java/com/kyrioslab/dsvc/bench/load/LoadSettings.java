@@ -0,0 +1,168 @@
+package com.kyrioslab.dsvc.bench.load;
+
+import com.typesafe.config.Config;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load harness settings, read from <code>dsvc.load</code>
+ * section of the configuration.
+ */
+public class LoadSettings {
+
+    public static final String CONFIG_PATH = "dsvc.load";
+
+    private final int encoders;
+    private final int jobs;
+    private final int concurrency;
+    private final long sourceSize;
+
+    /**
+     * Source duration, seconds.
+     */
+    private final int duration;
+
+    /**
+     * Segment duration, seconds, 0 if client chooses it.
+     */
+    private final int segmentTime;
+
+    private final int renditions;
+    private final String workDir;
+
+    /**
+     * Time limit of the run, ms.
+     */
+    private final long timeout;
+
+    /**
+     * Configuration of nodes.
+     */
+    private final Config node;
+
+    /**
+     * Stub ffmpeg settings, ms where time.
+     */
+    private final long encodeTime;
+    private final double jitter;
+    private final double cpu;
+    private final double sizeRatio;
+    private final double sizeJitter;
+    private final double failureRate;
+    private final long splitTime;
+    private final long mergeTime;
+    private final List<String> jvmOptions;
+
+    public LoadSettings(Config config) {
+        Config c = config.getConfig(CONFIG_PATH);
+        this.encoders = c.getInt("encoders");
+        this.jobs = c.getInt("jobs");
+        this.concurrency = c.getInt("concurrency");
+        this.sourceSize = c.getBytes("source-size");
+        this.duration = c.getInt("duration");
+        this.segmentTime = c.getInt("segment-time");
+        this.renditions = c.getInt("renditions");
+        this.workDir = c.getString("work-dir");
+        this.timeout = c.getDuration("timeout", TimeUnit.MILLISECONDS);
+        this.node = c.getConfig("node");
+
+        Config s = c.getConfig("stub");
+        this.encodeTime = s.getDuration("encode-time", TimeUnit.MILLISECONDS);
+        this.jitter = s.getDouble("jitter");
+        this.cpu = s.getDouble("cpu");
+        this.sizeRatio = s.getDouble("size-ratio");
+        this.sizeJitter = s.getDouble("size-jitter");
+        this.failureRate = s.getDouble("failure-rate");
+        this.splitTime = s.getDuration("split-time", TimeUnit.MILLISECONDS);
+        this.mergeTime = s.getDuration("merge-time", TimeUnit.MILLISECONDS);
+        this.jvmOptions = s.getStringList("jvm-options");
+
+        if (encoders <= 0 || jobs <= 0 || concurrency <= 0 || renditions <= 0) {
+            throw new IllegalArgumentException(
+                    "Encoders, jobs, concurrency and renditions must be positive");
+        }
+        if (sourceSize <= 0 || duration <= 0 || segmentTime < 0) {
+            throw new IllegalArgumentException("Source size and duration must be positive");
+        }
+        if (cpu < 0 || cpu > 1 || failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("CPU share and failure rate must be in 0..1");
+        }
+    }
+
+    public int getEncoders() {
+        return encoders;
+    }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public long getSourceSize() {
+        return sourceSize;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public int getSegmentTime() {
+        return segmentTime;
+    }
+
+    public int getRenditions() {
+        return renditions;
+    }
+
+    public String getWorkDir() {
+        return workDir;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public Config getNode() {
+        return node;
+    }
+
+    public long getEncodeTime() {
+        return encodeTime;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public double getCpu() {
+        return cpu;
+    }
+
+    public double getSizeRatio() {
+        return sizeRatio;
+    }
+
+    public double getSizeJitter() {
+        return sizeJitter;
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public long getSplitTime() {
+        return splitTime;
+    }
+
+    public long getMergeTime() {
+        return mergeTime;
+    }
+
+    public List<String> getJvmOptions() {
+        return jvmOptions;
+    }
+}
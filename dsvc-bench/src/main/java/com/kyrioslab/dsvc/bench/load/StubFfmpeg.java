@@ -0,0 +1,335 @@
+package com.kyrioslab.dsvc.bench.load;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Stand-in for ffmpeg and ffprobe processes of the load harness. Takes
+ * ffmpeg command line, as nodes build it, and simulates the command:
+ * <ul>
+ * <li>split (output name with %d) copies ranges of source file into
+ * parts and writes segment list, if it is requested;</li>
+ * <li>merge (concat input) joins listed files;</li>
+ * <li>encode waits random time, partly burning CPU, writes progress,
+ * if it is requested, fails with given probability and writes outputs
+ * of random size.</li>
+ * </ul>
+ * Behaviour is configured by <code>dsvc.stub.*</code> system properties,
+ * set by wrapper scripts of {@link LoadHarness}.
+ */
+public final class StubFfmpeg {
+
+    private static final String PREFIX = "dsvc.stub.";
+
+    private static final String PIPE_INPUT = "pipe:0";
+    private static final String PIPE_OUTPUT = "pipe:1";
+
+    /**
+     * Frame rate of simulated video.
+     */
+    private static final int FPS = 25;
+
+    /**
+     * Interval of progress blocks, ms.
+     */
+    private static final long PROGRESS_INTERVAL = 500;
+
+    /**
+     * Options without value.
+     */
+    private static final Set<String> FLAGS = new HashSet<>(Arrays.asList(
+            "-y", "-n", "-an", "-vn", "-sn", "-dn", "-nostdin", "-hide_banner",
+            "-shortest", "-re", "-copyts", "-stats", "-nostats"));
+
+    private final Random random = new Random();
+
+    private final List<String> inputs = new ArrayList<>();
+    private final List<String> outputs = new ArrayList<>();
+    private final Map<String, String> options = new HashMap<>();
+
+    private StubFfmpeg(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("-i".equals(arg) && i + 1 < args.length) {
+                inputs.add(args[++i]);
+            } else if (arg.length() > 1 && arg.startsWith("-") && !FLAGS.contains(arg)) {
+
+                //option value may be missing for unknown flag
+                if (i + 1 < args.length && !isOption(args[i + 1])) {
+                    options.put(arg, args[++i]);
+                } else {
+                    options.put(arg, "");
+                }
+            } else if (!FLAGS.contains(arg)) {
+                outputs.add(arg);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        StubFfmpeg stub = new StubFfmpeg(args);
+        try {
+            System.exit(stub.run());
+        } catch (IOException e) {
+            System.err.println("stub ffmpeg: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(255);
+        }
+    }
+
+    private int run() throws IOException, InterruptedException {
+        if ("ffprobe".equals(System.getProperty(PREFIX + "tool"))) {
+            System.out.println(String.format(Locale.ROOT, "%.3f", duration()));
+            return 0;
+        }
+        if (inputs.isEmpty() || outputs.isEmpty()) {
+            System.err.println("stub ffmpeg: input and output are required");
+            return 1;
+        }
+        String output = outputs.get(outputs.size() - 1);
+        if (output.contains("%d")) {
+            return split(new File(inputs.get(0)), output);
+        }
+        if ("concat".equals(options.get("-f")) || inputs.get(0).endsWith(".txt")) {
+            return merge(new File(inputs.get(0)), new File(output));
+        }
+        return encode();
+    }
+
+    /**
+     * Copies source into equal parts by count of segments, as many
+     * as segment muxer would write.
+     */
+    private int split(File input, String pattern) throws IOException, InterruptedException {
+        double segmentTime = parseTime(options.get("-segment_time"),
+                property("segment-time", 10));
+        int count = (int) Math.max(1, Math.ceil(duration() / segmentTime));
+        long length = input.length();
+        long partSize = (length + count - 1) / count;
+        String list = options.get("-segment_list");
+        long splitTime = (long) property("split-time", 0);
+
+        try (RandomAccessFile source = new RandomAccessFile(input, "r")) {
+            for (int i = 0; i < count; i++) {
+                String name = pattern.replace("%d", String.valueOf(i));
+                long start = Math.min(length, i * partSize);
+                long size = Math.min(partSize, length - start);
+                source.seek(start);
+                try (OutputStream out = new FileOutputStream(name)) {
+                    copy(source, out, size);
+                }
+                Thread.sleep(splitTime);
+
+                //segment is listed when it is finished
+                if (list != null) {
+                    try (Writer w = new FileWriter(list, true)) {
+                        w.write(name + "\n");
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Concatenates files of ffmpeg concat list.
+     */
+    private int merge(File list, File output) throws IOException, InterruptedException {
+        Thread.sleep((long) property("merge-time", 0));
+        List<String> lines = Files.readAllLines(list.toPath(), StandardCharsets.UTF_8);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            for (String line : lines) {
+                line = line.trim();
+                if (!line.startsWith("file ")) {
+                    continue;
+                }
+                String path = line.substring("file ".length()).trim();
+                if (path.startsWith("'") && path.endsWith("'")) {
+                    path = path.substring(1, path.length() - 1);
+                }
+                File part = new File(path);
+                if (!part.isAbsolute()) {
+                    part = new File(list.getAbsoluteFile().getParentFile(), path);
+                }
+                Files.copy(part.toPath(), out);
+            }
+        }
+        return 0;
+    }
+
+    private int encode() throws IOException, InterruptedException {
+        String input = inputs.get(0);
+        long inputLength;
+        if (PIPE_INPUT.equals(input) || "-".equals(input)) {
+            inputLength = drain(System.in);
+        } else {
+            inputLength = new File(input).length();
+        }
+
+        //encode time of this part, not less than 10% of mean
+        double mean = property("encode-time", 1000);
+        long time = (long) Math.max(mean * 0.1,
+                mean * (1 + property("jitter", 0) * random.nextGaussian()));
+        double segment = parseTime(options.get("-t"), property("segment-time", 10));
+        String progress = options.get("-progress");
+
+        long start = System.currentTimeMillis();
+        long cpu = (long) (PROGRESS_INTERVAL * property("cpu", 0));
+        long elapsed;
+        while ((elapsed = System.currentTimeMillis() - start) < time) {
+            long step = Math.min(PROGRESS_INTERVAL, time - elapsed);
+            spin(Math.min(cpu, step));
+            Thread.sleep(Math.max(0, step - cpu));
+            if (progress != null) {
+                writeProgress(progress, segment * (System.currentTimeMillis() - start) / time,
+                        segment * 1000 / time, false);
+            }
+        }
+
+        if (random.nextDouble() < property("failure-rate", 0)) {
+            System.err.println("stub ffmpeg: simulated encode failure");
+            return 1;
+        }
+
+        for (String output : outputs) {
+            long size = (long) Math.max(1, inputLength * property("size-ratio", 1)
+                    * (1 + property("size-jitter", 0) * random.nextGaussian()));
+            if (PIPE_OUTPUT.equals(output) || "-".equals(output)) {
+                OutputStream out = new BufferedOutputStream(System.out);
+                write(out, size);
+                out.flush();
+            } else {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                    write(out, size);
+                }
+            }
+        }
+        if (progress != null) {
+            writeProgress(progress, segment, segment * 1000 / time, true);
+        }
+        return 0;
+    }
+
+    /**
+     * Appends progress block, as ffmpeg -progress does.
+     *
+     * @param outTime encoded media time, seconds
+     * @param speed   encoding speed relative to playback
+     */
+    private void writeProgress(String file, double outTime, double speed, boolean end)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("frame=").append((long) (outTime * FPS)).append('\n')
+                .append("fps=").append(String.format(Locale.ROOT, "%.1f", speed * FPS))
+                .append('\n')
+                .append("out_time_us=").append((long) (outTime * 1000000)).append('\n')
+                .append("speed=").append(String.format(Locale.ROOT, "%.3fx", speed))
+                .append('\n')
+                .append("progress=").append(end ? "end" : "continue").append('\n');
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Busy loop for given time, ms.
+     */
+    private static void spin(long millis) {
+        long end = System.nanoTime() + millis * 1000000L;
+        while (System.nanoTime() < end) {
+
+            //clock read keeps the loop busy
+        }
+    }
+
+    private double duration() {
+        return parseTime(options.get("-t"), property("duration", 60));
+    }
+
+    /**
+     * @return seconds or [HH:]MM:SS, default value if not set
+     */
+    private static double parseTime(String value, double defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            double seconds = 0;
+            for (String field : value.split(":")) {
+                seconds = seconds * 60 + Double.parseDouble(field);
+            }
+            return seconds > 0 ? seconds : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static double property(String name, double defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    private static boolean isOption(String arg) {
+        if (arg.length() < 2 || !arg.startsWith("-")) {
+            return false;
+        }
+
+        //negative numbers are values
+        char c = arg.charAt(1);
+        return !(Character.isDigit(c) || c == '.');
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static void copy(RandomAccessFile source, OutputStream out, long size)
+            throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        long left = size;
+        while (left > 0) {
+            int read = source.read(buffer, 0, (int) Math.min(buffer.length, left));
+            if (read < 0) {
+                throw new IOException("Unexpected end of source file");
+            }
+            out.write(buffer, 0, read);
+            left -= read;
+        }
+    }
+
+    private void write(OutputStream out, long size) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        random.nextBytes(buffer);
+        long left = size;
+        while (left > 0) {
+            int n = (int) Math.min(buffer.length, left);
+            out.write(buffer, 0, n);
+            left -= n;
+        }
+    }
+}
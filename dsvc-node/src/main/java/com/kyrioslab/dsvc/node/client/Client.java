@@ -6,44 +6,91 @@ package com.kyrioslab.dsvc.node.client;
  */
 
 import akka.actor.ActorRef;
+import akka.actor.ActorRefProvider;
+import akka.actor.Address;
+import akka.actor.Cancellable;
+import akka.actor.ExtendedActorSystem;
 import akka.actor.Props;
+import akka.actor.Terminated;
 import akka.actor.UntypedActor;
 import akka.cluster.Cluster;
 import akka.cluster.ClusterEvent;
+import akka.cluster.Member;
+import akka.cluster.MemberStatus;
 import akka.dispatch.OnComplete;
-import akka.dispatch.OnFailure;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import akka.routing.FromConfig;
-import com.google.common.collect.Lists;
+import akka.serialization.Serialization;
+import com.kyrioslab.dsvc.node.encoder.EncoderSettings;
+import com.kyrioslab.dsvc.node.encoder.PartCache;
 import com.kyrioslab.dsvc.node.messages.ClusterMessage;
 import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.kyrioslab.dsvc.node.metrics.StageMetrics;
+import com.kyrioslab.dsvc.node.transfer.ChunkReceiver;
+import com.kyrioslab.dsvc.node.transfer.ChunkSender;
+import com.kyrioslab.dsvc.node.transfer.PartRef;
+import com.kyrioslab.dsvc.node.transfer.PartStorage;
+import com.kyrioslab.dsvc.node.transfer.StorageSettings;
+import com.kyrioslab.dsvc.node.transfer.TransferSettings;
 import com.kyrioslab.dsvc.node.util.FFMPEGService;
 import com.kyrioslab.dsvc.node.util.PartTrackService;
-import com.kyrioslab.jffmpegw.command.EncodeCommand;
+import com.kyrioslab.dsvc.node.util.SegmentListener;
 import org.apache.commons.io.FileUtils;
 import scala.concurrent.Future;
+import scala.concurrent.duration.FiniteDuration;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.LinkedList;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-
-import static akka.dispatch.Futures.future;
+import java.util.concurrent.TimeUnit;
 
 public class Client extends UntypedActor {
 
     private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
 
     /**
-     * Count of parts sender threads.
+     * Role of encoder nodes.
+     */
+    public static final String ENCODER_ROLE = "encoder";
+
+    /**
+     * Path of encoder actor on encoder node.
+     */
+    public static final String ENCODER_PATH = "/user/videoEncoder";
+
+    /**
+     * Role of client nodes.
      */
-    private static final int SENDER_COUNT = 4;
+    public static final String CLIENT_ROLE = "client";
+
+    /**
+     * Path of client actor on client node.
+     */
+    public static final String CLIENT_PATH = "/user/encoderClient";
+
+    private final Random random = new Random();
 
     /**
      * Encoder router.
@@ -52,25 +99,89 @@ public class Client extends UntypedActor {
             "videoEncoderRouter");
 
     /**
-     * Used for tracking parts.
+     * Encoding jobs by batch id.
+     */
+    private Map<String, EncodeJob> jobs = new HashMap<>();
+
+    /**
+     * Parts being sent, by transfer id.
      */
-    private Map<String, List<String>> partsTrackMap = new ConcurrentHashMap<>();
+    private Map<String, ClusterMessage.EncodeVideoPartMessage> outgoingParts = new HashMap<>();
 
     /**
-     * Tracks client for sending result back.
+     * Encoded parts being received, by transfer id.
      */
-    private Map<String, ActorRef> clientTrackMap = new ConcurrentHashMap<>();
+    private Map<String, ClusterMessage.EncodeResultPartMessage> incomingParts = new HashMap<>();
+
+    /**
+     * Client settings.
+     */
+    private final ClientSettings settings = ClientSettings.get(getContext().system());
+
+    /**
+     * Chunked transfer settings.
+     */
+    private final TransferSettings transferSettings =
+            TransferSettings.get(getContext().system());
+
+    /**
+     * Latency of stages, run by client.
+     */
+    private final StageMetrics metrics = StageMetrics.get(getContext().system());
+
+    /**
+     * Free slots of encoders, which pull parts.
+     */
+    private final EncoderPool pool = new EncoderPool();
+
+    /**
+     * Learned speed of encoder nodes.
+     */
+    private final NodeThroughput throughput = new NodeThroughput(
+            settings.getThroughputEwmaAlpha(), settings.getThroughputMinSamples());
+
+    /**
+     * Limits parts being sent at once.
+     */
+    private final DispatchBudget budget = new DispatchBudget(
+            settings.getInFlightMaxBytes(), settings.getInFlightMaxParts());
+
+    /**
+     * Parts waiting for dispatch: for in-flight budget or,
+     * in pull mode, for free encoder slot.
+     */
+    private final JobScheduler scheduler = new JobScheduler(settings.isLargestFirst());
 
     /**
      * Service provides core methods.
      */
     private final FFMPEGService ffmpegService;
 
+    /**
+     * Storage of parts and encoded results.
+     */
+    private final PartStorage storage;
+
     /**
      * Service for handling parts timeouts
      */
     private final ActorRef partTrackService;
 
+    /**
+     * Encoder of client node itself, null if local slots are disabled.
+     */
+    private final ActorRef localEncoder;
+
+    /**
+     * Journal of jobs, null if disabled.
+     */
+    private JobJournal journal;
+
+    /**
+     * Generates tick messages for straggler check.
+     */
+    private Cancellable clock;
+
     /**
      * Last received cluster metrics. Webgui gets it with
      * cluster status.
@@ -79,7 +190,20 @@ public class Client extends UntypedActor {
 
     public Client(FFMPEGService ffmpegService) {
         this.ffmpegService = ffmpegService;
+        this.storage = StorageSettings.get(getContext().system())
+                .createStorage(ffmpegService.getTmpDir());
         partTrackService = getContext().system().actorOf(Props.create(PartTrackService.class, getSelf()));
+        localEncoder = settings.getLocalSlots() > 0
+                ? getContext().actorOf(localEncoderProps(), "localEncoder")
+                : null;
+        if (settings.isJournalEnabled()) {
+            try {
+                journal = new JobJournal(settings.getJournalDir(ffmpegService.getTmpDir()),
+                        settings.getJournalSnapshotEvery(), settings.isJournalFsync());
+            } catch (IOException e) {
+                log.error("Job journal disabled: {}", e.getMessage());
+            }
+        }
     }
 
     //subscribe to ClusterMetricsChanged
@@ -87,6 +211,17 @@ public class Client extends UntypedActor {
     public void preStart() {
         Cluster.get(getContext().system())
                 .subscribe(getSelf(), ClusterEvent.ClusterMetricsChanged.class);
+
+        registerBudget();
+
+        //check for stragglers
+        clock = getContext().system().scheduler().schedule(
+                settings.getSpeculationInterval(),
+                settings.getSpeculationInterval(),
+                getSelf(), new LocalMessage.TickMessage(),
+                getContext().dispatcher(), getSelf());
+
+        resumeJobs();
     }
 
     //re-subscribe when restart
@@ -94,6 +229,42 @@ public class Client extends UntypedActor {
     public void postStop() {
         Cluster.get(getContext().system())
                 .unsubscribe(getSelf());
+        clock.cancel();
+        unregisterBudget();
+        closeJournal();
+    }
+
+    private ObjectName budgetName() throws MalformedObjectNameException {
+        return new ObjectName("com.kyrioslab.dsvc:type=DispatchBudget,system="
+                + getContext().system().name());
+    }
+
+    /**
+     * Exposes in-flight budget metrics over JMX.
+     */
+    private void registerBudget() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = budgetName();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(budget, name);
+        } catch (JMException e) {
+            log.warning("Cannot register dispatch budget MBean: {}", e.getMessage());
+        }
+    }
+
+    private void unregisterBudget() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = budgetName();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.warning("Cannot unregister dispatch budget MBean: {}", e.getMessage());
+        }
     }
 
     @Override
@@ -104,158 +275,221 @@ public class Client extends UntypedActor {
 
             final LocalMessage.EncodeVideoMessage encodeMessage = (LocalMessage.EncodeVideoMessage) message;
 
-            log.info("Received file for encoding: {}, command: {}", encodeMessage.getPathToVideo(),
+            log.info("Received file for encoding: {}, renditions: {}, command: {}",
+                    encodeMessage.getPathToVideo(), encodeMessage.getCommands().size(),
                     encodeMessage.getCommand().getCommand());
 
-            final String vFormat = encodeMessage.getCommand().getInputFormat();
-            final String vPath = encodeMessage.getPathToVideo();
             final String batchUUID = UUID.randomUUID().toString();
 
-            //track client
-            clientTrackMap.put(batchUUID, getSender());
+            //track job
+            createJob(batchUUID, getSender(), encodeMessage);
+            journal(JobJournal.jobStarted(batchUUID,
+                    Serialization.serializedActorPath(getSender()), encodeMessage));
 
-            //start splitting asynchronously
-            Future<List<File>> splitFuture = future(new Callable<List<File>>() {
-                public List<File> call() throws Exception {
-                    return ffmpegService.splitVideo(vFormat, vPath, batchUUID,
-                            encodeMessage.getDuration());
-                }
-            }, getContext().dispatcher());
-
-            //send parts when split finished
-            splitFuture.onComplete(new OnComplete<List<File>>() {
-                @Override
-                public void onComplete(Throwable failure, List<File> partList) throws Throwable {
-                    if (failure != null) {
-                        log.error("Split failed: ", failure.toString());
-                        return;
-                    } else if (partList == null) {
-                        log.error("Split failed: no parts");
-                        return;
-                    }
-                    sendParts(partList, encodeMessage.getCommand());
+            startSplit(batchUUID, encodeMessage, 0);
+
+        } else if (message instanceof LocalMessage.SplitStartedMessage) {
+            LocalMessage.SplitStartedMessage started = (LocalMessage.SplitStartedMessage) message;
+            EncodeJob job = jobs.get(started.getBatchId());
+            if (job != null) {
+                job.setDuration(started.getDuration() > 0
+                                ? (long) (started.getDuration() * 1000) : -1,
+                        started.getSegmentTime() * 1000L);
+                journal(JobJournal.splitStarted(job.getBatchId(), started.getSegmentTime(),
+                        started.getDuration()));
+            }
+
+            //segment is ready while split is in progress
+        } else if (message instanceof LocalMessage.SegmentReadyMessage) {
+            LocalMessage.SegmentReadyMessage segment = (LocalMessage.SegmentReadyMessage) message;
+            EncodeJob job = jobs.get(segment.getBatchId());
+            if (job != null) {
+                sendPart(job, segment.getPart());
+            }
+        } else if (message instanceof LocalMessage.SplitCompleteMessage) {
+            LocalMessage.SplitCompleteMessage split = (LocalMessage.SplitCompleteMessage) message;
+            EncodeJob job = jobs.get(split.getBatchId());
+            if (job == null) {
+                return;
+            }
+
+            //send parts, which are not sent yet
+            for (File part : split.getParts()) {
+                sendPart(job, part);
+            }
+            job.setSplitComplete();
+            log.info("Split complete, batchId: {}, parts: {}", job.getBatchId(), job.getPartCount());
+            journal(JobJournal.splitComplete(job.getBatchId(), job.getPartCount()));
+            predictMakespan(job);
+
+            if (job.getPartCount() == 0) {
+                failJob(job, "Split failed: no parts");
+            } else if (job.isComplete()) {
+                mergeJob(job);
+            }
+        } else if (message instanceof LocalMessage.SplitFailedMessage) {
+            LocalMessage.SplitFailedMessage failed = (LocalMessage.SplitFailedMessage) message;
+            EncodeJob job = jobs.get(failed.getBatchId());
+            if (job != null) {
+                failJob(job, failed.getReason());
+            }
+
+            //encoder is ready to receive part chunks
+        } else if (message instanceof ClusterMessage.TransferReady) {
+            ClusterMessage.TransferReady ready = (ClusterMessage.TransferReady) message;
+            ActorRef partSender = getContext().getChild(ready.getTransferId());
+            if (partSender != null) {
+                EncodePart part = findPart(outgoingParts.get(ready.getTransferId()));
+                if (part != null) {
+                    part.setNode(ready.getTransferId(), getSender().path().address());
                 }
-            }, getContext().dispatcher());
+                partSender.forward(ready, getContext());
+            } else {
+                log.warning("Transfer ready for unknown transfer: {}", ready.getTransferId());
+            }
 
-            //received encoded part
+            //received encoded part header, start receiving chunks
         } else if (message instanceof ClusterMessage.EncodeResultPartMessage) {
             final ClusterMessage.EncodeResultPartMessage encoded =
                     (ClusterMessage.EncodeResultPartMessage) message;
 
             //if part message valid
             if (encoded.getPartId() != null
-                    && encoded.getPayload() != null
+                    && encoded.getTransferId() != null
                     && encoded.getFormat() != null) {
 
-                log.info("Received encode part result message: {}", encoded.getPartId());
-                final String batchId = FFMPEGService.batchIdFromPartId(encoded.getPartId());
-
-                //untrack part from tracker
-                partTrackService.tell(new LocalMessage.UntrackPartMessage(encoded.getPartId())
-                        , getSelf());
-
-                List<String> partList = partsTrackMap.get(batchId);
-
-                //untrack and save part
-                if (partList.remove(encoded.getPartId())) {
-                    partsTrackMap.put(batchId, partList);
-                    File resDir = ffmpegService.getReceiveDir(batchId);
-                    String partId = encoded.getPartId();
-                    String partName = ffmpegService.partNameFromPartId(partId, encoded.getFormat());
-                    try {
-                        File resPart = Paths.get(resDir.getAbsolutePath(), partName).toFile();
-                        FileUtils.writeByteArrayToFile(resPart, encoded.getPayload());
-                    } catch (IOException e) {
-                        log.error("IOException occurred while saving encoded part: {}", partId);
+                log.info("Received encode part result message: {}, {} bytes",
+                        encoded.getPartId(), encoded.getLength());
+                String batchId = FFMPEGService.batchIdFromPartId(encoded.getPartId());
+                EncodeJob job = jobs.get(batchId);
+                if (job == null || !job.isPending(encoded.getPartId())) {
+                    log.warning("Result of not pending part ignored: {}", encoded.getPartId());
+                    if (encoded.getRef() != null) {
+                        storage.discard(encoded.getRef());
+                    } else {
+                        getSender().tell(new ClusterMessage.CancelPartMessage(
+                                encoded.getPartTransferId()), getSelf());
                     }
+                    return;
+                }
 
-                    //send progress message
-                    clientTrackMap.get(batchId)
-                            .tell(new LocalMessage.ProgressMessage(), getSelf());
-
-                    //merge results if no parts pending
-                    if (partList.isEmpty()) {
-                        partsTrackMap.remove(batchId);
-                        Future<File> mergeFuture = future(new Callable<File>() {
-                            @Override
-                            public File call() throws Exception {
-                                return ffmpegService.merge(batchId, "result." + encoded.getFormat());
-                            }
-                        }, getContext().dispatcher());
-
-                        mergeFuture.onComplete(new OnComplete<File>() {
-                            @Override
-                            public void onComplete(Throwable failure, File success) throws Throwable {
-                                if (failure != null) {
-                                    log.error("Merge failure, batchId {}, error msg: {}", batchId,
-                                            failure.getMessage());
-                                } else {
-                                    log.info("Video successfully encoded, sending result video: {}",
-                                            success.getAbsoluteFile());
-                                    clientTrackMap.get(batchId).tell(
-                                            new LocalMessage.EncodeResult(success.getAbsolutePath()),
-                                            getSelf());
-                                }
-                            }
-                        }, getContext().dispatcher());
-                    }
-                } else {
-                    log.error("Received unknown part: {}", encoded.getPartId());
+                //result on shared storage, no transfer needed
+                if (encoded.getRef() != null) {
+                    onSharedPartReceived(encoded);
+                    return;
                 }
+
+                //several attempts may finish together, receive to own file
+                File resPart = Paths.get(ffmpegService.getReceiveDir(batchId).getAbsolutePath(),
+                        encoded.getTransferId()).toFile();
+
+                incomingParts.put(encoded.getTransferId(), encoded);
+                getContext().actorOf(ChunkReceiver.props(encoded.getTransferId(), resPart,
+                        encoded.getLength(), getSender(), transferSettings), encoded.getTransferId());
             } else {
                 log.error("Receive invalid result message from encoder: {} ", getSender());
             }
-        } else if (message instanceof ClusterMessage.EncodePartFailed) {
-            final ClusterMessage.EncodePartFailed failedMsg = (ClusterMessage.EncodePartFailed) message;
+        } else if (message instanceof LocalMessage.LocalPartEncodedMessage) {
+            onLocalPartEncoded((LocalMessage.LocalPartEncodedMessage) message);
+        } else if (message instanceof LocalMessage.TransferCompleteMessage) {
+            LocalMessage.TransferCompleteMessage complete =
+                    (LocalMessage.TransferCompleteMessage) message;
+            String transferId = complete.getTransferId();
 
-            //FAILFAST FOR NOW
-            final String partId = failedMsg.getPartId();
-            final String batchId = FFMPEGService.batchIdFromPartId(partId);
+            ClusterMessage.EncodeVideoPartMessage sent = removeOutgoing(transferId);
+            if (sent != null) {
+                log.info("Part sent: {}", sent.getPartId());
+                metrics.recordNanos(StageMetrics.Stage.TRANSFER_OUT, complete.getTime());
+                return;
+            }
 
-            log.info("Removing all parts from track (as failfast) with batch id: "
-                    + batchId);
+            ClusterMessage.EncodeResultPartMessage encoded = incomingParts.remove(transferId);
+            if (encoded != null) {
+                metrics.recordNanos(StageMetrics.Stage.TRANSFER_BACK, complete.getTime());
+                onPartReceived(encoded, complete.getFile());
+            }
+        } else if (message instanceof LocalMessage.TransferFailedMessage) {
+            LocalMessage.TransferFailedMessage failed = (LocalMessage.TransferFailedMessage) message;
 
-            partTrackService.tell(new LocalMessage.UntrackPartMessage(partId), getSelf());
-            partsTrackMap.remove(batchId);
-            ActorRef client = clientTrackMap.remove(batchId);
+            ClusterMessage.EncodeVideoPartMessage sent = removeOutgoing(failed.getTransferId());
+            if (sent != null) {
+                getSelf().tell(new ClusterMessage.EncodePartFailed(failed.getReason(),
+                        sent.getPartId(), sent.getCommand(), sent.getTransferId()), getSelf());
+                return;
+            }
+
+            ClusterMessage.EncodeResultPartMessage encoded = incomingParts.remove(failed.getTransferId());
+            if (encoded != null) {
+                EncodeJob job = jobs.get(FFMPEGService.batchIdFromPartId(encoded.getPartId()));
+                getSelf().tell(new ClusterMessage.EncodePartFailed(failed.getReason(),
+                        encoded.getPartId(), job == null ? null : job.getCommand(),
+                        encoded.getPartTransferId()), getSelf());
+            }
+        } else if (message instanceof ClusterMessage.EncodePartFailed) {
+            onPartFailed((ClusterMessage.EncodePartFailed) message);
+        } else if (message instanceof LocalMessage.RetryPartMessage) {
+            LocalMessage.RetryPartMessage retry = (LocalMessage.RetryPartMessage) message;
+            EncodeJob job = jobs.get(retry.getBatchId());
+            if (job != null && job.isPending(retry.getPartId())) {
+                metrics.retry();
+                submitPart(job, job.getPart(retry.getPartId()));
+            }
 
-            if (client != null) {
-                client.tell(
-                        new LocalMessage.EncodeJobFailedMessage(failedMsg.getReason(),
-                                failedMsg.getCommand()),
+            //encoder reports free slots
+        } else if (message instanceof ClusterMessage.WorkRequest) {
+            ClusterMessage.WorkRequest request = (ClusterMessage.WorkRequest) message;
+            if (pool.update(getSender(), request.getEpoch(), request.getFree(),
+                    request.getReceived())) {
+                log.info("Encoder joined: {}", getSender());
+                getContext().watch(getSender());
+            }
+            drainQueue();
+        } else if (message instanceof Terminated) {
+            log.info("Encoder left: {}", ((Terminated) message).getActor());
+            pool.remove(((Terminated) message).getActor());
+        } else if (message instanceof ClusterMessage.PartProgress) {
+            onPartProgress((ClusterMessage.PartProgress) message);
+        } else if (message instanceof LocalMessage.TickMessage) {
+            speculate();
+        } else if (message instanceof LocalMessage.MergeCompleteMessage) {
+            LocalMessage.MergeCompleteMessage merged = (LocalMessage.MergeCompleteMessage) message;
+            EncodeJob job = jobs.remove(merged.getBatchId());
+            if (job != null) {
+                journal(JobJournal.jobFinished(job.getBatchId()));
+                if (job.getMergeStart() != 0) {
+                    metrics.record(StageMetrics.Stage.MERGE, job.getMergeStart());
+                }
+                List<String> results = new ArrayList<>();
+                for (File result : merged.getResults()) {
+                    results.add(result.getAbsolutePath());
+                }
+                log.info("Video successfully encoded, sending result video: {}", results);
+                log.info("Job {} makespan {}ms, predicted {}ms", job.getBatchId(),
+                        job.getElapsed(), job.getPredictedMakespan());
+                if (job.hasDeadline() && System.currentTimeMillis() > job.getDeadline()) {
+                    log.warning("Job {} missed deadline by {}ms", job.getBatchId(),
+                            System.currentTimeMillis() - job.getDeadline());
+                }
+                job.getRequester().tell(
+                        new LocalMessage.EncodeResult(results,
+                                job.getElapsed(), job.getPredictedMakespan()),
                         getSelf());
-            } else {
-                log.warning("Unable to get registered client gui, mb already removed?");
-            }
-
-//            log.warning("Received failed part message: {}. Sending part to different encoder.", failedMsg);
-//            String partId = failedMsg.getPartId();
-//            File partFile = ffmpegService.getPartFile(partId);
-//            if (partFile.exists()) {
-//                try {
-//                    byte[] payload = FileUtils.readFileToByteArray(partFile);
-//                    ClusterMessage.EncodeVideoPartMessage msg = new ClusterMessage.EncodeVideoPartMessage(partId,
-//                            payload,
-//                            failedMsg.getCommand());
-//                    //reset part
-//                    partTrackService.tell(new LocalMessage.ResetPartTimeMessage(partId),
-//                            getSelf());
-//
-//                    sendPart(msg, FFMPEGService.batchIdFromPartId(partId));
-//                } catch (IOException e) {
-//                    log.error("IOException while reading part: {}", partFile.getAbsolutePath());
-//                    partTrackService.tell(new LocalMessage.UntrackPartMessage(partId), getSelf());
-//                }
-//            } else {
-//                log.error("Resending failed. Part {} does not exists.", partFile.getAbsolutePath());
-//                partTrackService.tell(new LocalMessage.UntrackPartMessage(partId), getSelf());
-//            }
+            }
+        } else if (message instanceof LocalMessage.MergeFailedMessage) {
+            LocalMessage.MergeFailedMessage failed = (LocalMessage.MergeFailedMessage) message;
+            log.error("Merge failure, batchId {}, error msg: {}", failed.getBatchId(),
+                    failed.getReason());
+            EncodeJob job = jobs.get(failed.getBatchId());
+            if (job != null) {
+                failJob(job, "Merge failed: " + failed.getReason());
+            }
         } else if (message instanceof LocalMessage.ClusterStatusRequestMessage) {
             ClusterEvent.CurrentClusterState currentClusterState = getClusterState();
 
             getSender().tell(new LocalMessage.ClusterStatusResponceMessage(
                     currentClusterState,
-                    lastMetrics
+                    lastMetrics,
+                    metrics.summary()
             ), getSelf());
         } else if (message instanceof ClusterEvent.ClusterMetricsChanged) {
             lastMetrics = (ClusterEvent.ClusterMetricsChanged) message;
@@ -265,71 +499,1059 @@ public class Client extends UntypedActor {
     }
 
     /**
-     * Send video parts to encoders actors.
-     * Using SENDER_COUNT concurrent threads.
+     * Registers job and starts its merger.
+     */
+    private EncodeJob createJob(String batchUUID, ActorRef requester,
+                                LocalMessage.EncodeVideoMessage encodeMessage) {
+        EncodeJob job = new EncodeJob(batchUUID, requester, encodeMessage.getCommands(),
+                encodeMessage.getPriority() != null
+                        ? encodeMessage.getPriority() : settings.getDefaultPriority(),
+                encodeMessage.getWeight() != null
+                        ? encodeMessage.getWeight() : settings.getDefaultWeight(),
+                encodeMessage.getDeadline() != null ? encodeMessage.getDeadline() : -1);
+        job.setMerger(getContext().actorOf(PartMerger.props(ffmpegService, batchUUID,
+                job.getOutputFormats(), settings)));
+        jobs.put(batchUUID, job);
+        return job;
+    }
+
+    /**
+     * Starts splitting asynchronously. In streaming mode parts
+     * are reported to client as soon as they are written.
      *
-     * @param partList list of part files
-     * @throws IOException
-     */
-    protected void sendParts(List<File> partList,
-                             final EncodeCommand encodeCommand) throws IOException {
-
-        //batch id - is id for all parts of the video
-        final String batchId = partList.get(0).getParentFile().getName();
-
-        log.info("Start sending parts concurrently, batchId: {}", batchId);
-
-        //sending parts concurrently by butches
-        for (final List<File> batch : Lists.partition(partList, SENDER_COUNT)) {
-            future(new Callable<Object>() {
-                @Override
-                public Object call() {
-                    for (File part : batch) {
-                        String partId = ffmpegService.getPartId(part);
-
-                        //TODO: memory leak here
-                        try {
-                            byte[] payload = FileUtils.readFileToByteArray(part);
-                            ClusterMessage.EncodeVideoPartMessage encodeMsg =
-                                    new ClusterMessage.EncodeVideoPartMessage(partId, payload, encodeCommand);
-                            //add part to tracker
-                            partTrackService.tell(
-                                    new LocalMessage.PlaceOnTrackMessage(partId, encodeCommand),
-                                    getSelf());
-
-                            sendPart(encodeMsg, batchId);
-                        } catch (IOException e) {
-                            log.error("Failed sending part: {}", partId);
-                            //TODO: sen message to part tracker about failed part
-                        }
+     * @param resumedSegmentTime segment duration of the split before
+     *                           restart, seconds, 0 to choose it
+     */
+    private void startSplit(final String batchUUID,
+                            final LocalMessage.EncodeVideoMessage encodeMessage,
+                            final int resumedSegmentTime) {
+        final String vFormat = encodeMessage.getCommand().getInputFormat();
+        final String vPath = encodeMessage.getPathToVideo();
+        final ActorRef self = getSelf();
+
+        final int slots = countSlots();
+
+        final SegmentListener listener = settings.isStreamingSplit() ?
+                new SegmentListener() {
+                    @Override
+                    public void onSegment(File segment) {
+                        self.tell(new LocalMessage.SegmentReadyMessage(batchUUID, segment), self);
                     }
-                    return null;
+                } : null;
+
+        Future<List<File>> splitFuture = ffmpegService.getProcessRunner().submit(
+                new Callable<List<File>>() {
+                    public List<File> call() throws Exception {
+                        double duration = ffmpegService.getDuration(vPath,
+                                encodeMessage.getDuration());
+                        int segmentTime = resumedSegmentTime > 0 ? resumedSegmentTime
+                                : chooseSegmentTime(encodeMessage, duration, slots);
+                        log.info("Splitting {} by {}s segments", vPath, segmentTime);
+                        self.tell(new LocalMessage.SplitStartedMessage(batchUUID, duration,
+                                segmentTime), self);
+                        long start = System.nanoTime();
+                        List<File> parts = ffmpegService.splitVideo(vFormat, vPath, batchUUID,
+                                encodeMessage.getDuration(), segmentTime, listener);
+                        metrics.record(StageMetrics.Stage.SPLIT, start);
+                        return parts;
+                    }
+                });
+
+        //send rest of parts when split finished
+        splitFuture.onComplete(new OnComplete<List<File>>() {
+            @Override
+            public void onComplete(Throwable failure, List<File> partList) throws Throwable {
+                if (failure != null) {
+                    log.error("Split failed: {}", failure.toString());
+                    self.tell(new LocalMessage.SplitFailedMessage(batchUUID,
+                            "Split failed: " + failure.getMessage()), self);
+                } else {
+                    self.tell(new LocalMessage.SplitCompleteMessage(batchUUID, partList), self);
+                }
+            }
+        }, getContext().dispatcher());
+    }
+
+    /**
+     * Segment duration of the job: set by request, chosen by video
+     * duration and cluster slots, or default one.
+     *
+     * @param duration video duration, seconds, -1 if not known
+     */
+    private int chooseSegmentTime(LocalMessage.EncodeVideoMessage msg, double duration,
+                                  int slots) {
+        if (msg.getSegmentTime() != null && msg.getSegmentTime() > 0) {
+            return msg.getSegmentTime();
+        }
+        if (settings.isSegmentAdaptive() && duration > 0) {
+            return settings.getSegmentTime(duration, slots);
+        }
+        return ffmpegService.getSegmentTime();
+    }
+
+    /**
+     * Encoded part is written by encoder to shared storage.
+     * Damaged or missing result fails the attempt.
+     */
+    private void onSharedPartReceived(ClusterMessage.EncodeResultPartMessage encoded) {
+        File resPart;
+        try {
+            resPart = storage.resolve(encoded.getRef());
+        } catch (IOException e) {
+            EncodeJob job = jobs.get(FFMPEGService.batchIdFromPartId(encoded.getPartId()));
+            getSelf().tell(new ClusterMessage.EncodePartFailed(e.getMessage(),
+                    encoded.getPartId(), job == null ? null : job.getCommand(),
+                    encoded.getPartTransferId()), getSelf());
+            return;
+        }
+        onPartReceived(encoded, resPart);
+    }
+
+    /**
+     * Encoded rendition of part is received and saved. The first received
+     * result of every rendition is used. When all renditions are received,
+     * part is complete and other attempts are cancelled.
+     */
+    private void onPartReceived(ClusterMessage.EncodeResultPartMessage encoded, File resPart) {
+        String batchId = FFMPEGService.batchIdFromPartId(encoded.getPartId());
+
+        EncodeJob job = jobs.get(batchId);
+        EncodePart part = job == null ? null : job.getPart(encoded.getPartId());
+        if (part == null || !job.isPending(encoded.getPartId())
+                || encoded.getRendition() >= job.getRenditionCount()) {
+            log.error("Received unknown part: {}", encoded.getPartId());
+            deleteReceived(resPart);
+            return;
+        }
+        if (!part.addRendition(encoded.getRendition())) {
+            log.info("Rendition {} of part {} is already received", encoded.getRendition(),
+                    encoded.getPartId());
+            deleteReceived(resPart);
+            return;
+        }
+
+        File partFile = new File(ffmpegService.getRenditionDir(batchId, encoded.getRendition()),
+                ffmpegService.partNameFromPartId(encoded.getPartId(), encoded.getFormat()));
+        long writeStart = System.nanoTime();
+        try {
+            Files.createDirectories(partFile.getParentFile().toPath());
+            Files.move(resPart.toPath(), partFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            metrics.record(StageMetrics.Stage.RESULT_WRITE, writeStart);
+        } catch (IOException e) {
+            log.error("Cannot move received part {} to {}: {}", resPart.getAbsolutePath(),
+                    partFile.getAbsolutePath(), e.getMessage());
+            failJob(job, "Cannot save encoded part " + encoded.getPartId());
+            return;
+        }
+        job.getMerger().tell(new LocalMessage.MergePartMessage(partFile,
+                encoded.getRendition()), getSelf());
+
+        //other renditions are being received
+        if (part.getRenditionCount() < job.getRenditionCount()) {
+            return;
+        }
+
+        //untrack encoded attempt, its time is sample of winner node
+        EncodePart.Attempt winner = part.getAttempts().get(encoded.getPartTransferId());
+        partTrackService.tell(new LocalMessage.UntrackPartMessage(encoded.getPartId(),
+                encoded.getPartTransferId(), true, winner == null ? null : winner.getNode()),
+                getSelf());
+
+        //untrack part, it is already saved
+        job.completePart(encoded.getPartId());
+        journal(JobJournal.partComplete(batchId, encoded.getPartId()));
+        long mediaTime = part.getOutTime() > 0 ? part.getOutTime()
+                : Math.max(0, job.getSegmentDuration());
+        job.addEncoded(mediaTime, part.getFrames());
+        if (winner != null) {
+            long partTime = System.nanoTime() - winner.getStartTime();
+            metrics.recordNanos(StageMetrics.Stage.PART, partTime);
+            job.addPartTime(TimeUnit.NANOSECONDS.toMillis(partTime), part.getLength());
+            if (winner.getNode() != null) {
+                throughput.addSample(winner.getNode(), job.getProfile(), mediaTime,
+                        TimeUnit.NANOSECONDS.toMillis(partTime));
+            }
+        }
+        predictMakespan(job);
+        cancelAttempts(job, part, encoded.getTransferId());
+
+        //send progress message
+        //completion is always reported and restarts throttling interval
+        job.isProgressDue(0);
+        job.getRequester().tell(progress(job), getSelf());
+
+        //merge results if no parts pending
+        if (job.isComplete()) {
+            mergeJob(job);
+        }
+    }
+
+    /**
+     * Part is encoded by local slot. Results are in receive directory
+     * already and are saved as received ones.
+     */
+    private void onLocalPartEncoded(LocalMessage.LocalPartEncodedMessage encoded) {
+        EncodeJob job = jobs.get(FFMPEGService.batchIdFromPartId(encoded.getPartId()));
+        if (job == null || !job.isPending(encoded.getPartId())) {
+            log.warning("Result of not pending part ignored: {}", encoded.getPartId());
+            for (File result : encoded.getEncoded()) {
+                deleteReceived(result);
+            }
+            return;
+        }
+        for (int i = 0; i < encoded.getEncoded().size(); i++) {
+            File result = encoded.getEncoded().get(i);
+            onPartReceived(new ClusterMessage.EncodeResultPartMessage(
+                    UUID.randomUUID().toString(), encoded.getTransferId(),
+                    encoded.getPartId(), result.length(), encoded.getFormats().get(i),
+                    null, i), result);
+        }
+    }
+
+    private void deleteReceived(File resPart) {
+        if (resPart.exists() && !resPart.delete()) {
+            log.warning("Cannot delete temporary file: {}", resPart.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Encoder reports progress of part attempt. Job progress is
+     * sent to requester not more often than progress interval.
+     */
+    private void onPartProgress(ClusterMessage.PartProgress progress) {
+        EncodeJob job = jobs.get(FFMPEGService.batchIdFromPartId(progress.getPartId()));
+        EncodePart part = job == null ? null : job.getPart(progress.getPartId());
+        EncodePart.Attempt attempt = part == null ? null
+                : part.getAttempts().get(progress.getTransferId());
+        if (attempt == null) {
+            return;
+        }
+        part.setProgress(attempt, progress.getFrame(), progress.getFps(),
+                progress.getSpeed(), progress.getOutTime());
+        if (job.isProgressDue(settings.getProgressInterval())) {
+            job.getRequester().tell(progress(job), getSelf());
+        }
+    }
+
+    /**
+     * Aggregates progress of the job: completed parts and the
+     * most advanced attempts of running parts.
+     */
+    private LocalMessage.ProgressMessage progress(EncodeJob job) {
+        long encoded = job.getEncodedTime();
+        long frames = job.getEncodedFrames();
+        double fps = 0;
+        double speed = 0;
+        Map<Address, Double> nodeSpeed = new HashMap<>();
+        for (EncodePart part : job.getPendingParts()) {
+            encoded += part.getOutTime();
+            frames += part.getFrames();
+            for (EncodePart.Attempt attempt : part.getAttempts().values()) {
+                if (!attempt.hasProgress()) {
+                    continue;
                 }
-            }, getContext().dispatcher()).onFailure(new OnFailure() {
-                @Override
-                public void onFailure(Throwable failure) throws Throwable {
-                    if (failure != null) {
-                        log.error("Failure while sending batch: {}, ", batchId, failure.getMessage());
+                fps += attempt.getFps();
+                speed += attempt.getSpeed();
+                if (attempt.getNode() != null) {
+                    Double s = nodeSpeed.get(attempt.getNode());
+                    nodeSpeed.put(attempt.getNode(),
+                            (s == null ? 0 : s) + attempt.getSpeed());
+                }
+            }
+        }
+
+        double percent = -1;
+        long eta = -1;
+        if (job.isComplete()) {
+            percent = 100;
+            eta = 0;
+        } else if (job.getDuration() > 0) {
+            percent = Math.min(100, encoded * 100.0 / job.getDuration());
+            if (speed > 0) {
+                eta = (long) (Math.max(0, job.getDuration() - encoded) / speed);
+            }
+        }
+        return new LocalMessage.ProgressMessage(job.getBatchId(), percent,
+                job.getCompletedCount(), job.getPartCount(), frames, fps, eta, nodeSpeed);
+    }
+
+    /**
+     * Part attempt failed: encoder error, transfer failure or timeout.
+     * If backup attempt is still running, only failed attempt is dropped.
+     * Otherwise part is sent again after backoff, to other node if possible,
+     * job fails when attempts are exhausted.
+     */
+    private void onPartFailed(ClusterMessage.EncodePartFailed failedMsg) {
+        String partId = failedMsg.getPartId();
+        EncodeJob job = jobs.get(FFMPEGService.batchIdFromPartId(partId));
+        EncodePart part = job == null ? null : job.getPart(partId);
+
+        if (part == null || !job.isPending(partId)
+                || !part.isCurrentAttempt(failedMsg.getTransferId())) {
+            log.info("Failure of not current attempt ignored: {}", failedMsg);
+            return;
+        }
+
+        //only failed attempt is dropped, tracker times out every attempt apart
+        String transferId = failedMsg.getTransferId();
+        EncodePart.Attempt attempt = job.removeAttempt(part, transferId,
+                settings.isRetryExcludeFailedNode());
+        log.warning("Part {} failed, node {}: {}", partId, attempt.getNode(),
+                failedMsg.getReason());
+        cancelAttempt(part, transferId, attempt);
+
+        if (!part.getAttempts().isEmpty()) {
+            log.info("Part {} is still encoding by other attempt", partId);
+            return;
+        }
+
+        int failures = part.incFailures();
+        if (failures >= settings.getRetryMaxAttempts()) {
+            failJob(job, "Part " + partId + " failed " + failures
+                    + " times. " + failedMsg.getReason());
+            return;
+        }
+
+        FiniteDuration backoff = settings.getRetryBackoff(failures);
+        log.info("Part {} will be sent again in {}", partId, backoff);
+        getContext().system().scheduler().scheduleOnce(backoff, getSelf(),
+                new LocalMessage.RetryPartMessage(job.getBatchId(), partId),
+                getContext().dispatcher(), getSelf());
+    }
+
+    /**
+     * Stops all attempts of the part and results receiving,
+     * except given result transfer.
+     */
+    private void cancelAttempts(EncodeJob job, EncodePart part, String keepResultTransferId) {
+        for (String transferId : new ArrayList<>(part.getAttempts().keySet())) {
+            cancelAttempt(part, transferId, job.removeAttempt(part, transferId, false));
+        }
+
+        Iterator<Map.Entry<String, ClusterMessage.EncodeResultPartMessage>> incoming =
+                incomingParts.entrySet().iterator();
+        while (incoming.hasNext()) {
+            Map.Entry<String, ClusterMessage.EncodeResultPartMessage> e = incoming.next();
+            if (e.getValue().getPartId().equals(part.getPartId())
+                    && !e.getKey().equals(keepResultTransferId)) {
+                incoming.remove();
+                stopChild(e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Stops sending of the part attempt, removes it from tracker
+     * and cancels it on encoder.
+     */
+    private void cancelAttempt(EncodePart part, String transferId, EncodePart.Attempt attempt) {
+        partTrackService.tell(new LocalMessage.UntrackPartMessage(part.getPartId(),
+                transferId, false), getSelf());
+        if (removeOutgoing(transferId) != null) {
+            stopChild(transferId);
+        }
+        if (attempt != null && isLocal(attempt.getNode())) {
+            localEncoder.tell(new ClusterMessage.CancelPartMessage(transferId), getSelf());
+        } else if (attempt != null && attempt.getNode() != null) {
+            getContext().actorSelection(attempt.getNode().toString() + ENCODER_PATH)
+                    .tell(new ClusterMessage.CancelPartMessage(transferId), getSelf());
+        }
+    }
+
+    private void stopChild(String name) {
+        ActorRef child = getContext().getChild(name);
+        if (child != null) {
+            getContext().stop(child);
+        }
+    }
+
+    /**
+     * Starts backup attempts for stragglers: parts, encoding much longer
+     * than completed parts of the same job, when free encoder slots exist.
+     */
+    private void speculate() {
+        if (!settings.isSpeculationEnabled() || jobs.isEmpty()) {
+            return;
+        }
+
+        int freeSlots;
+        if (settings.isPullDispatch()) {
+
+            //queued parts go first
+            freeSlots = scheduler.isEmpty() ? pool.getFreeSlots() : 0;
+        } else {
+            freeSlots = countSlots();
+            for (EncodeJob job : jobs.values()) {
+                for (EncodePart part : job.getPendingParts()) {
+                    freeSlots -= part.getAttempts().size();
+                }
+            }
+        }
+
+        long now = System.nanoTime();
+        for (EncodeJob job : JobScheduler.sort(jobs.values())) {
+            //attempt is straggler when it runs longer than completed parts
+            //or reports speed far below of other running attempts
+            double medianSpeed = job.getMedianSpeed();
+            boolean byTime = job.getCompletedCount() >= settings.getSpeculationMinCompleted();
+            if (!byTime && medianSpeed <= 0) {
+                continue;
+            }
+            long threshold = byTime
+                    ? (long) (job.getMedianPartTime() * settings.getSpeculationSlowdown())
+                    : Long.MAX_VALUE;
+
+            for (EncodePart part : job.getPendingParts()) {
+                if (freeSlots <= 0 || !budget.hasRoom(part.getFile().length())) {
+                    return;
+                }
+                if (part.getAttempts().size() != 1) {
+                    continue;
+                }
+                EncodePart.Attempt attempt = part.getAttempts().values().iterator().next();
+                long running = TimeUnit.NANOSECONDS.toMillis(now - attempt.getStartTime());
+                boolean slow = attempt.getSpeed() > 0 && medianSpeed > 0
+                        && attempt.getSpeed() * settings.getSpeculationSlowdown() < medianSpeed;
+                if (attempt.getNode() == null || (running < threshold && !slow)) {
+                    continue;
+                }
+
+                Set<Address> excluded = new HashSet<>(part.getExcludedNodes());
+                excluded.addAll(part.getRunningNodes());
+                if (settings.isPullDispatch()) {
+                    ActorRef target = acquireEncoder(job, excluded);
+                    if (target == null) {
+                        continue;
+                    }
+                    log.info("Part {} is running {}ms at {}x, starting backup on {}",
+                            part.getPartId(), running, attempt.getSpeed(), target);
+                    dispatchPart(job, part, target);
+                } else {
+                    Address node = selectEncoderNode(job, excluded);
+                    if (node == null) {
+                        continue;
+                    }
+                    log.info("Part {} is running {}ms at {}x, starting backup on {}",
+                            part.getPartId(), running, attempt.getSpeed(), node);
+                    dispatchPart(job, part, node);
+                }
+                freeSlots--;
+            }
+        }
+    }
+
+    private EncodePart findPart(ClusterMessage.EncodeVideoPartMessage header) {
+        if (header == null) {
+            return null;
+        }
+        EncodeJob job = jobs.get(FFMPEGService.batchIdFromPartId(header.getPartId()));
+        return job == null ? null : job.getPart(header.getPartId());
+    }
+
+    /**
+     * Merges the rest of parts, result is reported by merger.
+     */
+    private void mergeJob(EncodeJob job) {
+        log.info("All parts encoded, merging batchId: {}", job.getBatchId());
+        job.setMergeStart(System.nanoTime());
+        List<String> names = new ArrayList<>();
+        for (String format : job.getOutputFormats()) {
+            names.add(job.getRenditionCount() == 1 ? "result." + format
+                    : "result-" + names.size() + "." + format);
+        }
+        job.getMerger().tell(new LocalMessage.FinishMergeMessage(job.getPartCount(), names),
+                getSelf());
+    }
+
+    private void failJob(EncodeJob job, String reason) {
+        log.error("Job failed, batchId {}: {}", job.getBatchId(), reason);
+
+        //remove job first, cancelled transfers free budget for other jobs
+        jobs.remove(job.getBatchId());
+        journal(JobJournal.jobFinished(job.getBatchId()));
+        scheduler.remove(job);
+        for (EncodePart part : job.getPendingParts()) {
+            cancelAttempts(job, part, null);
+        }
+        getContext().stop(job.getMerger());
+        job.getRequester().tell(
+                new LocalMessage.EncodeJobFailedMessage(reason, job.getCommand()),
+                getSelf());
+    }
+
+    /**
+     * Registers part in job and sends it to encoders.
+     *
+     * @param job  job of the part
+     * @param part part file
+     */
+    protected void sendPart(EncodeJob job, File part) {
+
+        //add part to job, skip already sent
+        EncodePart encodePart = job.addPart(ffmpegService.getPartId(part), part);
+        if (encodePart != null && !(job.isResumed() && restorePart(job, encodePart))) {
+            submitPart(job, encodePart);
+        }
+    }
+
+    /**
+     * Appends entry to job journal. Journal is disabled on failure,
+     * jobs go on without it.
+     */
+    private void journal(JobJournal.Entry entry) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.append(entry);
+        } catch (IOException e) {
+            log.error("Job journal disabled, cannot append entry of job {}: {}",
+                    entry.getBatchId(), e.getMessage());
+            closeJournal();
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warning("Cannot close job journal: {}", e.getMessage());
+        }
+        journal = null;
+    }
+
+    /**
+     * Resumes unfinished jobs of the journal. Job with complete split
+     * continues with its parts, job with incomplete split is split
+     * again with the same segment duration, so parts get the same
+     * names. Parts, received before restart, are not dispatched again.
+     */
+    private void resumeJobs() {
+        if (journal == null) {
+            return;
+        }
+        Collection<JobJournal.JobRecord> records;
+        try {
+            records = journal.recover();
+        } catch (IOException | ClassNotFoundException e) {
+            log.error("Job journal disabled, cannot recover it: {}", e.getMessage());
+            closeJournal();
+            return;
+        }
+
+        ActorRefProvider provider = ((ExtendedActorSystem) getContext().system()).provider();
+        for (JobJournal.JobRecord record : records) {
+            String batchId = record.getBatchId();
+            EncodeJob job = createJob(batchId,
+                    provider.resolveActorRef(record.getRequesterPath()), record.getRequest());
+            int[] merged = new int[job.getRenditionCount()];
+            for (int r = 0; r < merged.length; r++) {
+                File output = PartMerger.findOutput(ffmpegService.getMergeDir(batchId),
+                        r, job.getOutputFormats().get(r));
+                merged[r] = output == null ? 0 : PartMerger.lastPart(output) + 1;
+            }
+            job.setResumed(merged);
+            removeTransfers(job);
+
+            File sourceDir = ffmpegService.getSourceDir(batchId);
+            File[] parts = sourceDir.listFiles();
+            if (record.isSplitComplete() && parts != null
+                    && parts.length == record.getPartCount()) {
+                job.setDuration(record.getDuration() > 0
+                                ? (long) (record.getDuration() * 1000) : -1,
+                        record.getSegmentTime() * 1000L);
+                Arrays.sort(parts, new Comparator<File>() {
+                    @Override
+                    public int compare(File a, File b) {
+                        return Integer.compare(FFMPEGService.partIndex(a),
+                                FFMPEGService.partIndex(b));
+                    }
+                });
+                for (File part : parts) {
+                    sendPart(job, part);
+                }
+                job.setSplitComplete();
+                log.info("Job {} resumed, {} of {} parts received before restart", batchId,
+                        job.getPartCount() - job.getPendingCount(), job.getPartCount());
+
+                //parts are lost, if receive directory was cleaned
+                int lost = 0;
+                for (String partId : record.getCompletedParts()) {
+                    if (job.isPending(partId)) {
+                        lost++;
+                    }
+                }
+                if (lost > 0) {
+                    log.warning("Job {}: {} encoded parts are missing, encoding them again",
+                            batchId, lost);
+                }
+                job.getRequester().tell(progress(job), getSelf());
+                if (job.isComplete()) {
+                    mergeJob(job);
+                }
+            } else {
+                try {
+                    if (sourceDir.exists()) {
+                        FileUtils.deleteDirectory(sourceDir);
                     }
+                } catch (IOException e) {
+                    failJob(job, "Cannot resume job: " + e.getMessage());
+                    continue;
                 }
-            }, getContext().dispatcher());
+                log.info("Job {} resumed, splitting again", batchId);
+                startSplit(batchId, record.getRequest(), record.getSegmentTime());
+            }
         }
     }
 
-    protected void sendPart(ClusterMessage.EncodeVideoPartMessage vPartMsg, String batchId) {
+    /**
+     * Removes files of receive directory of resumed job, which are not
+     * encoded parts: results being received and merge results.
+     */
+    private void removeTransfers(EncodeJob job) {
+        for (int r = 0; r < job.getRenditionCount(); r++) {
+            File[] files = ffmpegService.getRenditionDir(job.getBatchId(), r).listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.isFile() && !isPartFile(file)) {
+                    deleteReceived(file);
+                }
+            }
+        }
+    }
 
-        //add part to tracking map
-        List<String> batch = partsTrackMap.get(batchId);
-        if (batch == null) {
-            batch = new LinkedList<>();
+    private static boolean isPartFile(File file) {
+        try {
+            FFMPEGService.partIndex(file);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
         }
-        batch.add(vPartMsg.getPartId());
-        partsTrackMap.put(batchId, batch);
+    }
 
-        //send part
-        encoder.tell(vPartMsg, getSelf());
+    /**
+     * Part of resumed job is complete, if every rendition of it was
+     * received before restart: it is in receive directory or merged
+     * into group. Received renditions are passed to merger.
+     *
+     * @return true if part is complete
+     */
+    private boolean restorePart(EncodeJob job, EncodePart part) {
+        int index = FFMPEGService.partIndex(part.getFile());
+        File[] received = new File[job.getRenditionCount()];
+        for (int r = 0; r < received.length; r++) {
+            File file = new File(ffmpegService.getRenditionDir(job.getBatchId(), r),
+                    ffmpegService.partNameFromPartId(part.getPartId(),
+                            job.getOutputFormats().get(r)));
+            if (file.exists()) {
+                received[r] = file;
+            } else if (index >= job.getMergedParts(r)) {
+                return false;
+            }
+        }
 
-        log.info("Part sent: {}", vPartMsg.getPartId());
+        job.completePart(part.getPartId());
+        job.addEncoded(Math.max(0, job.getSegmentDuration()), 0);
+        for (int r = 0; r < received.length; r++) {
+            if (received[r] != null) {
+                job.getMerger().tell(new LocalMessage.MergePartMessage(received[r], r),
+                        getSelf());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queues part for dispatch to encoders.
+     */
+    private void submitPart(EncodeJob job, EncodePart part) {
+        scheduler.add(job, part);
+        drainQueue();
+    }
+
+    /**
+     * Predicts job makespan once all parts are known and
+     * encoding rate of the job is measured.
+     */
+    private void predictMakespan(EncodeJob job) {
+        if (job.isSplitComplete() && job.getPredictedMakespan() < 0) {
+            long predicted = job.predictMakespan(countSlots());
+            if (predicted >= 0) {
+                job.setPredictedMakespan(predicted);
+                log.info("Job {} predicted makespan {}ms", job.getBatchId(), predicted);
+            }
+        }
+    }
+
+    /**
+     * Sends queued parts to encoders while in-flight budget allows.
+     * Every part goes to the first job in scheduler order, so jobs
+     * get encoder slots by priority, deadline and weight. In pull
+     * mode part, which has no allowed encoder with free slot, stays
+     * in queue.
+     */
+    private void drainQueue() {
+        boolean dispatched = true;
+        while (dispatched && !scheduler.isEmpty()) {
+            dispatched = false;
+            for (EncodeJob job : scheduler.getJobs()) {
+                Boolean sent = dispatchNext(job);
+                if (sent == null) {
+
+                    //no budget or no free slots for any job
+                    budget.setQueuedParts(scheduler.size());
+                    return;
+                }
+                if (sent) {
+
+                    //job order is changed by the new attempt
+                    dispatched = true;
+                    break;
+                }
+            }
+        }
+        budget.setQueuedParts(scheduler.size());
+    }
+
+    /**
+     * Dispatches the first queued part of the job, which can be sent.
+     *
+     * @return true if part is sent, false if no part of the job can
+     * be sent now, null if no parts can be sent at all
+     */
+    private Boolean dispatchNext(EncodeJob job) {
+        Iterator<EncodePart> queued = scheduler.parts(job);
+        while (queued.hasNext()) {
+            EncodePart part = queued.next();
+            if (!jobs.containsKey(job.getBatchId()) || !job.isPending(part.getPartId())) {
+                queued.remove();
+                continue;
+            }
+
+            //local slot needs no budget, part is not sent
+            if (useLocalSlot(job, part) && pool.acquire(localEncoder)) {
+                queued.remove();
+                dispatchPart(job, part, localEncoder);
+                return true;
+            }
+            if (!budget.hasRoom(part.getFile().length())) {
+                budget.waited();
+                return null;
+            }
+
+            if (settings.isPullDispatch()) {
+                if (pool.getFreeSlots() <= 0) {
+                    return null;
+                }
+                Set<Address> excluded = new HashSet<>(part.getExcludedNodes());
+                excluded.addAll(part.getRunningNodes());
+                ActorRef target = acquireEncoder(job, excluded);
+                if (target != null) {
+                    queued.remove();
+                    dispatchPart(job, part, target);
+                    return true;
+                }
+            } else {
+                queued.remove();
+                dispatchPart(job, part, selectEncoderNode(job, part.getExcludedNodes()));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Places part attempt on tracker, it fails the attempt on timeout.
+     * Backup attempt gets own deadline from its start.
+     *
+     * @param node encoder node, null if router chooses node
+     */
+    private void trackAttempt(EncodeJob job, EncodePart part, String transferId,
+                              Address node) {
+        partTrackService.tell(
+                new LocalMessage.PlaceOnTrackMessage(part.getPartId(), transferId,
+                        job.getCommand(), part.getFile().length(), job.getProfile(), node),
+                getSelf());
+    }
+
+    /**
+     * Send video part to encoders actors. Part is transferred
+     * by chunks with own {@link ChunkSender}.
+     *
+     * @param job  job of the part
+     * @param part part to send
+     * @param node encoder node, if null router chooses node
+     */
+    protected void dispatchPart(EncodeJob job, EncodePart part, Address node) {
+        ClusterMessage.EncodeVideoPartMessage encodeMsg = startAttempt(job, part, node);
+
+        //send part header, chunks are sent after encoder is ready
+        if (node != null) {
+            part.setNode(encodeMsg.getTransferId(), node);
+            getContext().actorSelection(node.toString() + ENCODER_PATH).tell(encodeMsg, getSelf());
+        } else {
+            encoder.tell(encodeMsg, getSelf());
+        }
+
+        log.info("Part header sent: {}, running attempts {}", part.getPartId(),
+                part.getAttempts().size());
+    }
+
+    /**
+     * Send video part to encoder, which has free slot.
+     *
+     * @param job     job of the part
+     * @param part    part to send
+     * @param encoder encoder actor
+     */
+    protected void dispatchPart(EncodeJob job, EncodePart part, ActorRef encoder) {
+        if (encoder.equals(localEncoder)) {
+            dispatchLocal(job, part);
+            return;
+        }
+        ClusterMessage.EncodeVideoPartMessage encodeMsg =
+                startAttempt(job, part, encoder.path().address());
+        part.setNode(encodeMsg.getTransferId(), encoder.path().address());
+        encoder.tell(encodeMsg, getSelf());
+
+        log.info("Part header sent: {} to {}, running attempts {}", part.getPartId(),
+                encoder, part.getAttempts().size());
+    }
+
+    /**
+     * @return props of local encoder, it gets own encoded parts cache,
+     * if cache is enabled
+     */
+    private Props localEncoderProps() {
+        EncoderSettings encoderSettings = EncoderSettings.get(getContext().system());
+        long progressInterval = encoderSettings.getProgressInterval();
+        if (encoderSettings.isCacheEnabled()) {
+            try {
+                PartCache cache = new PartCache(new File(encoderSettings.getCacheDir(
+                        ffmpegService.getTmpDir()), "local"), encoderSettings.getCacheMaxSize());
+                return Props.create(LocalEncoder.class, ffmpegService, settings.getLocalSlots(),
+                        progressInterval, cache);
+            } catch (IOException e) {
+                log.warning("Encoded parts cache of local encoder disabled: {}",
+                        e.getMessage());
+            }
+        }
+        return Props.create(LocalEncoder.class, ffmpegService, settings.getLocalSlots(),
+                progressInterval);
+    }
+
+    /**
+     * Sends part to local encoder. Part is encoded from split
+     * directory, nothing is transferred.
+     *
+     * @param job  job of the part
+     * @param part part to encode
+     */
+    private void dispatchLocal(EncodeJob job, EncodePart part) {
+        String transferId = UUID.randomUUID().toString();
+        Address local = localEncoder.path().address();
+        job.dispatched(part, transferId);
+        part.setNode(transferId, local);
+        trackAttempt(job, part, transferId, local);
+        localEncoder.tell(new LocalMessage.EncodeLocalPartMessage(transferId, part.getPartId(),
+                part.getFile(), job.getCommands()), getSelf());
+
+        log.info("Part encoded locally: {}, running attempts {}", part.getPartId(),
+                part.getAttempts().size());
+    }
+
+    /**
+     * Part goes to local slot, if the slot is free and no encoder node
+     * is predicted to complete part first. With router selector free
+     * local slot is always used.
+     */
+    private boolean useLocalSlot(EncodeJob job, EncodePart part) {
+        if (localEncoder == null || pool.getFreeSlots(localEncoder) <= 0) {
+            return false;
+        }
+        Address local = localEncoder.path().address();
+        Set<Address> excluded = new HashSet<>(part.getExcludedNodes());
+        excluded.addAll(part.getRunningNodes());
+        if (excluded.contains(local)) {
+            return false;
+        }
+        if (!settings.isThroughputSelector()) {
+            return true;
+        }
+
+        Map<Address, Integer> inFlight = inFlightByNode();
+        Address remote = throughput.select(getEncoderNodes(), excluded, job.getProfile(),
+                inFlight, settings.getEncoderSlots());
+        if (remote == null) {
+            return true;
+        }
+        Integer localLoad = inFlight.get(local);
+        Integer load = inFlight.get(remote);
+        return throughput.predict(local, job.getProfile(), localLoad == null ? 0 : localLoad,
+                settings.getLocalSlots())
+                <= throughput.predict(remote, job.getProfile(), load == null ? 0 : load,
+                settings.getEncoderSlots());
+    }
+
+    /**
+     * @return true if part attempt runs on local encoder
+     */
+    private boolean isLocal(Address node) {
+        return localEncoder != null && localEncoder.path().address().equals(node);
+    }
+
+    /**
+     * Creates {@link ChunkSender} for the new part attempt
+     * and places the attempt on tracker.
+     *
+     * @param node encoder node, null if router chooses node
+     * @return part header
+     */
+    private ClusterMessage.EncodeVideoPartMessage startAttempt(EncodeJob job, EncodePart part,
+                                                               Address node) {
+        String transferId = UUID.randomUUID().toString();
+        ClusterMessage.EncodeVideoPartMessage encodeMsg =
+                new ClusterMessage.EncodeVideoPartMessage(transferId, part.getPartId(),
+                        part.getFile().length(), job.getCommands(), exportPart(part));
+
+        //part on shared storage is read by encoder directly
+        if (encodeMsg.getRef() == null) {
+            getContext().actorOf(ChunkSender.props(transferId, part.getFile(), transferSettings),
+                    transferId);
+            outgoingParts.put(transferId, encodeMsg);
+            budget.acquire(encodeMsg.getLength());
+        }
+        job.dispatched(part, transferId);
+
+        //attempt is tracked since it is sent, not since part is queued
+        trackAttempt(job, part, transferId, node);
+        return encodeMsg;
+    }
+
+    /**
+     * @return reference to part on shared storage or null,
+     * if part should be sent by chunks
+     */
+    private PartRef exportPart(EncodePart part) {
+        if (!part.isExported()) {
+            PartRef ref = null;
+            try {
+                ref = storage.export(part.getFile());
+            } catch (IOException e) {
+                log.warning("Part {} will be sent by chunks: {}", part.getPartId(),
+                        e.getMessage());
+            }
+            part.setRef(ref);
+        }
+        return part.getRef();
+    }
+
+    /**
+     * Part is sent, failed or cancelled: frees its budget
+     * and dispatches waiting parts.
+     *
+     * @return part header or null, if transfer is unknown
+     */
+    private ClusterMessage.EncodeVideoPartMessage removeOutgoing(String transferId) {
+        ClusterMessage.EncodeVideoPartMessage header = outgoingParts.remove(transferId);
+        if (header != null) {
+            budget.release(header.getLength());
+            drainQueue();
+        }
+        return header;
+    }
+
+    /**
+     * Takes free slot of encoder for part of the job.
+     *
+     * @return encoder or null, if no allowed encoder has free slot
+     */
+    private ActorRef acquireEncoder(EncodeJob job, Set<Address> excluded) {
+        return settings.isThroughputSelector()
+                ? pool.acquire(excluded, throughput, job.getProfile(), inFlightByNode(),
+                        settings.getEncoderSlots())
+                : pool.acquire(excluded);
+    }
+
+    /**
+     * Chooses encoder node for part of the job: node, predicted to
+     * complete it first, or random node, which is not excluded, if
+     * node selector is router.
+     *
+     * @return node or null, if router chooses node (no nodes are excluded
+     * for router selector) or all nodes are excluded
+     */
+    private Address selectEncoderNode(EncodeJob job, Set<Address> excluded) {
+        if (settings.isThroughputSelector()) {
+            Address node = throughput.select(getEncoderNodes(), excluded, job.getProfile(),
+                    inFlightByNode(), settings.getEncoderSlots());
+            if (node == null) {
+                log.warning("No encoder nodes left besides excluded {}", excluded);
+            }
+            return node;
+        }
+        if (excluded.isEmpty()) {
+            return null;
+        }
+        List<Address> candidates = new ArrayList<>();
+        for (Address node : getEncoderNodes()) {
+            if (!excluded.contains(node)) {
+                candidates.add(node);
+            }
+        }
+        if (candidates.isEmpty()) {
+            log.warning("No encoder nodes left besides excluded {}", excluded);
+            return null;
+        }
+        return candidates.get(random.nextInt(candidates.size()));
+    }
+
+    /**
+     * @return count of running part attempts by encoder node
+     */
+    private Map<Address, Integer> inFlightByNode() {
+        Map<Address, Integer> inFlight = new HashMap<>();
+        for (EncodeJob job : jobs.values()) {
+            for (EncodePart part : job.getPendingParts()) {
+                for (EncodePart.Attempt attempt : part.getAttempts().values()) {
+                    if (attempt.getNode() != null) {
+                        Integer n = inFlight.get(attempt.getNode());
+                        inFlight.put(attempt.getNode(), n == null ? 1 : n + 1);
+                    }
+                }
+            }
+        }
+        return inFlight;
+    }
+
+    /**
+     * @return addresses of encoder nodes, which are up
+     */
+    private List<Address> getEncoderNodes() {
+        List<Address> nodes = new ArrayList<>();
+        for (Member member : getClusterState().getMembers()) {
+            if (member.hasRole(ENCODER_ROLE) && member.status() == MemberStatus.up()) {
+                nodes.add(member.address());
+            }
+        }
+        return nodes;
+    }
+
+    private int countEncoderNodes() {
+        return getEncoderNodes().size();
+    }
+
+    /**
+     * @return count of parts, encoded at once by encoder nodes and local slots
+     */
+    private int countSlots() {
+        return countEncoderNodes() * settings.getEncoderSlots() + settings.getLocalSlots();
     }
 
     private ClusterEvent.CurrentClusterState getClusterState() {
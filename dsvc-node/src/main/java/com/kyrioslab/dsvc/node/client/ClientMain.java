@@ -7,6 +7,7 @@ import akka.cluster.Cluster;
 import com.google.common.base.Strings;
 import com.kyrioslab.dsvc.node.messages.LocalMessage;
 import com.kyrioslab.dsvc.node.util.FFMPEGService;
+import com.kyrioslab.dsvc.node.util.ProcessRunner;
 import com.kyrioslab.jffmpegw.attributes.parser.StreamInfo;
 import com.kyrioslab.jffmpegw.command.BuilderException;
 import com.kyrioslab.jffmpegw.command.EncodeCommand;
@@ -73,10 +74,19 @@ public class ClientMain {
 
         final ActorSystem system = ActorSystem.create("EncodeSystem", config);
 
+        final ProcessRunner processRunner = new ProcessRunner(config);
+        system.registerOnTermination(new Runnable() {
+            @Override
+            public void run() {
+                processRunner.shutdown();
+            }
+        });
+
         final FFMPEGService ffmpegService = new FFMPEGService(
                 ffmpeg,
                 Integer.parseInt(segmentTime),
-                tmpDir);
+                tmpDir,
+                processRunner);
 
         //#registerOnUp
         Cluster.get(system).registerOnMemberUp(new Runnable() {
@@ -0,0 +1,404 @@
+package com.kyrioslab.dsvc.node.client;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Client settings, read from <code>dsvc.client</code>
+ * section of the configuration.
+ */
+public class ClientSettings {
+
+    public static final String CONFIG_PATH = "dsvc.client";
+
+    /**
+     * Dispatch parts while video is still being split.
+     */
+    private final boolean streamingSplit;
+
+    /**
+     * Encoders pull parts by their free slots, otherwise
+     * parts are pushed to encoders by router.
+     */
+    private final boolean pullDispatch;
+
+    /**
+     * Encoder for part is chosen by learned node throughput, otherwise
+     * by adaptive router (push) or by free slots (pull).
+     */
+    private final boolean throughputSelector;
+
+    /**
+     * Weight of the new sample in moving average of node speed.
+     */
+    private final double throughputEwmaAlpha;
+
+    /**
+     * Samples of node, needed to use its own speed.
+     */
+    private final int throughputMinSamples;
+
+    /**
+     * Max bytes of parts being sent to encoders at once.
+     */
+    private final long inFlightMaxBytes;
+
+    /**
+     * Max count of parts being sent to encoders at once.
+     */
+    private final int inFlightMaxParts;
+
+    /**
+     * Dispatch queued parts largest first, otherwise in split order.
+     */
+    private final boolean largestFirst;
+
+    /**
+     * Priority of jobs, which do not set it.
+     */
+    private final int defaultPriority;
+
+    /**
+     * Fair share weight of jobs, which do not set it.
+     */
+    private final double defaultWeight;
+
+    /**
+     * Min interval between progress reports of the job, ms.
+     */
+    private final long progressInterval;
+
+    /**
+     * Choose segment duration per job.
+     */
+    private final boolean segmentAdaptive;
+
+    /**
+     * Target count of parts per encoder slot.
+     */
+    private final int segmentPartsPerSlot;
+
+    /**
+     * Segment duration bounds, seconds.
+     */
+    private final int segmentMin;
+    private final int segmentMax;
+
+    /**
+     * Count of contiguous encoded parts appended to output together
+     * while job is in progress, 0 disables incremental merge.
+     */
+    private final int mergeStep;
+
+    /**
+     * Output formats, which parts are appended to one growing output
+     * byte by byte. Parts of other formats are merged at the end.
+     */
+    private final Set<String> mergeAppendFormats;
+
+    /**
+     * Dispatcher for part mergers, they are waiting for ffmpeg.
+     */
+    private final String mergeDispatcher;
+
+    /**
+     * Max count of part dispatch attempts before job fails.
+     */
+    private final int retryMaxAttempts;
+
+    /**
+     * Delay before the first retry, doubled with every next retry.
+     */
+    private final long retryBackoffMin;
+
+    /**
+     * Max delay before retry.
+     */
+    private final long retryBackoffMax;
+
+    /**
+     * Do not send part again to the node, which failed it.
+     */
+    private final boolean retryExcludeFailedNode;
+
+    /**
+     * Count of parts, encoded by one encoder node at once.
+     */
+    private final int encoderSlots;
+
+    /**
+     * Count of parts, encoded on client node itself at once,
+     * 0 disables local encoding.
+     */
+    private final int localSlots;
+
+    /**
+     * Start backup attempts for straggler parts.
+     */
+    private final boolean speculationEnabled;
+
+    /**
+     * How often stragglers are checked.
+     */
+    private final FiniteDuration speculationInterval;
+
+    /**
+     * Count of completed parts of the job, needed to detect stragglers.
+     */
+    private final int speculationMinCompleted;
+
+    /**
+     * Part is straggler, when it is encoding longer than
+     * median part time multiplied by this factor.
+     */
+    private final double speculationSlowdown;
+
+    /**
+     * Journal jobs and resume them after restart.
+     */
+    private final boolean journalEnabled;
+
+    /**
+     * Journal directory, relative to temporary dir if not absolute.
+     */
+    private final String journalDir;
+
+    /**
+     * Count of journal entries between snapshots.
+     */
+    private final int journalSnapshotEvery;
+
+    /**
+     * Force every journal entry to disk.
+     */
+    private final boolean journalFsync;
+
+    public ClientSettings(Config config) {
+        Config c = config.getConfig(CONFIG_PATH);
+        this.streamingSplit = c.getBoolean("streaming-split");
+        this.pullDispatch = parseDispatch(c.getString("dispatch"));
+        this.throughputSelector = parseSelector(c.getString("node-selector"));
+        this.throughputEwmaAlpha = c.getDouble("throughput.ewma-alpha");
+        this.throughputMinSamples = c.getInt("throughput.min-samples");
+        this.inFlightMaxBytes = c.getBytes("in-flight.max-bytes");
+        this.inFlightMaxParts = c.getInt("in-flight.max-parts");
+        this.largestFirst = parseOrder(c.getString("dispatch-order"));
+        this.defaultPriority = c.getInt("scheduler.default-priority");
+        this.defaultWeight = c.getDouble("scheduler.default-weight");
+        this.progressInterval = c.getDuration("progress-interval", TimeUnit.MILLISECONDS);
+        this.segmentAdaptive = c.getBoolean("segment.adaptive");
+        this.segmentPartsPerSlot = c.getInt("segment.parts-per-slot");
+        this.segmentMin = (int) c.getDuration("segment.min", TimeUnit.SECONDS);
+        this.segmentMax = (int) c.getDuration("segment.max", TimeUnit.SECONDS);
+        this.mergeStep = c.getInt("merge-step");
+        this.mergeAppendFormats = new HashSet<>(c.getStringList("merge-append-formats"));
+        this.mergeDispatcher = c.getString("merge-dispatcher");
+        this.retryMaxAttempts = c.getInt("retry.max-attempts");
+        this.retryBackoffMin = c.getDuration("retry.backoff-min", TimeUnit.MILLISECONDS);
+        this.retryBackoffMax = c.getDuration("retry.backoff-max", TimeUnit.MILLISECONDS);
+        this.retryExcludeFailedNode = c.getBoolean("retry.exclude-failed-node");
+        this.encoderSlots = c.getInt("encoder-slots");
+        this.localSlots = c.getInt("local-slots");
+        this.speculationEnabled = c.getBoolean("speculation.enabled");
+        this.speculationInterval = FiniteDuration.create(
+                c.getDuration("speculation.interval", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        this.speculationMinCompleted = c.getInt("speculation.min-completed");
+        this.speculationSlowdown = c.getDouble("speculation.slowdown-factor");
+        this.journalEnabled = c.getBoolean("journal.enabled");
+        this.journalDir = c.getString("journal.dir");
+        this.journalSnapshotEvery = c.getInt("journal.snapshot-every");
+        this.journalFsync = c.getBoolean("journal.fsync");
+
+        if (throughputEwmaAlpha <= 0 || throughputEwmaAlpha > 1) {
+            throw new IllegalArgumentException("Throughput ewma-alpha must be in (0, 1]");
+        }
+        if (localSlots < 0) {
+            throw new IllegalArgumentException("Local slots must not be negative");
+        }
+        if (journalSnapshotEvery <= 0) {
+            throw new IllegalArgumentException("Journal snapshot-every must be positive");
+        }
+    }
+
+    public static ClientSettings get(ActorSystem system) {
+        return new ClientSettings(system.settings().config());
+    }
+
+    private static boolean parseDispatch(String dispatch) {
+        switch (dispatch) {
+            case "pull":
+                return true;
+            case "push":
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown dispatch mode: " + dispatch);
+        }
+    }
+
+    private static boolean parseSelector(String selector) {
+        switch (selector) {
+            case "throughput":
+                return true;
+            case "router":
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown node selector: " + selector);
+        }
+    }
+
+    private static boolean parseOrder(String order) {
+        switch (order) {
+            case "largest-first":
+                return true;
+            case "fifo":
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown dispatch order: " + order);
+        }
+    }
+
+    public boolean isLargestFirst() {
+        return largestFirst;
+    }
+
+    public int getDefaultPriority() {
+        return defaultPriority;
+    }
+
+    public double getDefaultWeight() {
+        return defaultWeight;
+    }
+
+    public boolean isPullDispatch() {
+        return pullDispatch;
+    }
+
+    public boolean isThroughputSelector() {
+        return throughputSelector;
+    }
+
+    public double getThroughputEwmaAlpha() {
+        return throughputEwmaAlpha;
+    }
+
+    public int getThroughputMinSamples() {
+        return throughputMinSamples;
+    }
+
+    public boolean isStreamingSplit() {
+        return streamingSplit;
+    }
+
+    public long getInFlightMaxBytes() {
+        return inFlightMaxBytes;
+    }
+
+    public int getInFlightMaxParts() {
+        return inFlightMaxParts;
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    public boolean isSegmentAdaptive() {
+        return segmentAdaptive;
+    }
+
+    /**
+     * Segment duration, which gives target count of parts for every
+     * encoder slot.
+     *
+     * @param duration video duration, seconds
+     * @param slots    encoder slots in cluster
+     * @return segment duration, seconds
+     */
+    public int getSegmentTime(double duration, int slots) {
+        double parts = Math.max(1, slots) * (double) segmentPartsPerSlot;
+        long time = Math.round(Math.ceil(duration / parts));
+        return (int) Math.min(segmentMax, Math.max(segmentMin, time));
+    }
+
+    public int getMergeStep() {
+        return mergeStep;
+    }
+
+    public Set<String> getMergeAppendFormats() {
+        return mergeAppendFormats;
+    }
+
+    public String getMergeDispatcher() {
+        return mergeDispatcher;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    /**
+     * @param attempt count of failed attempts, starting from 1
+     * @return delay before next attempt
+     */
+    public FiniteDuration getRetryBackoff(int attempt) {
+        long delay = retryBackoffMin;
+        for (int i = 1; i < attempt && delay < retryBackoffMax; i++) {
+            delay *= 2;
+        }
+        return FiniteDuration.create(Math.min(delay, retryBackoffMax), TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isRetryExcludeFailedNode() {
+        return retryExcludeFailedNode;
+    }
+
+    public int getEncoderSlots() {
+        return encoderSlots;
+    }
+
+    public int getLocalSlots() {
+        return localSlots;
+    }
+
+    public boolean isSpeculationEnabled() {
+        return speculationEnabled;
+    }
+
+    public FiniteDuration getSpeculationInterval() {
+        return speculationInterval;
+    }
+
+    public int getSpeculationMinCompleted() {
+        return speculationMinCompleted;
+    }
+
+    public double getSpeculationSlowdown() {
+        return speculationSlowdown;
+    }
+
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+
+    /**
+     * @return journal directory, relative to temporary dir if not absolute
+     */
+    public File getJournalDir(String tmpDir) {
+        File dir = new File(journalDir);
+        return dir.isAbsolute() ? dir : new File(tmpDir, journalDir);
+    }
+
+    public int getJournalSnapshotEvery() {
+        return journalSnapshotEvery;
+    }
+
+    public boolean isJournalFsync() {
+        return journalFsync;
+    }
+}
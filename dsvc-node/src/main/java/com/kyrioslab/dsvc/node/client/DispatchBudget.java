@@ -0,0 +1,108 @@
+package com.kyrioslab.dsvc.node.client;
+
+/**
+ * Limits parts, which are being sent to encoders, by count and bytes.
+ * Part holds the budget from its dispatch until transfer is complete,
+ * failed or cancelled. Single part is allowed even if it is larger
+ * than the byte limit, so job can not stall.
+ * <p/>
+ * Modified by client actor only, values are volatile for JMX readers.
+ */
+public class DispatchBudget implements DispatchBudgetMBean {
+
+    private final long maxBytes;
+
+    private final int maxParts;
+
+    private volatile long inFlightBytes;
+
+    private volatile int inFlightParts;
+
+    private volatile long peakInFlightBytes;
+
+    private volatile int peakInFlightParts;
+
+    private volatile int queuedParts;
+
+    private volatile long budgetWaits;
+
+    public DispatchBudget(long maxBytes, int maxParts) {
+        if (maxBytes <= 0 || maxParts <= 0) {
+            throw new IllegalArgumentException("In-flight limits must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.maxParts = maxParts;
+    }
+
+    /**
+     * @param length part length in bytes
+     * @return true if part fits into budget
+     */
+    public boolean hasRoom(long length) {
+        return inFlightParts == 0
+                || (inFlightParts < maxParts && inFlightBytes + length <= maxBytes);
+    }
+
+    /**
+     * Counts queued part, held back for lack of budget.
+     */
+    public void waited() {
+        budgetWaits++;
+    }
+
+    public void acquire(long length) {
+        inFlightBytes += length;
+        inFlightParts++;
+        peakInFlightBytes = Math.max(peakInFlightBytes, inFlightBytes);
+        peakInFlightParts = Math.max(peakInFlightParts, inFlightParts);
+    }
+
+    public void release(long length) {
+        inFlightBytes -= length;
+        inFlightParts--;
+    }
+
+    public void setQueuedParts(int queuedParts) {
+        this.queuedParts = queuedParts;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public int getMaxParts() {
+        return maxParts;
+    }
+
+    @Override
+    public long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    @Override
+    public int getInFlightParts() {
+        return inFlightParts;
+    }
+
+    @Override
+    public long getPeakInFlightBytes() {
+        return peakInFlightBytes;
+    }
+
+    @Override
+    public int getPeakInFlightParts() {
+        return peakInFlightParts;
+    }
+
+    @Override
+    public int getQueuedParts() {
+        return queuedParts;
+    }
+
+    @Override
+    public long getBudgetWaits() {
+        return budgetWaits;
+    }
+}
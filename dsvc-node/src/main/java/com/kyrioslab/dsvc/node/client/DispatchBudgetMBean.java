@@ -0,0 +1,36 @@
+package com.kyrioslab.dsvc.node.client;
+
+/**
+ * JMX view of client in-flight parts budget.
+ */
+public interface DispatchBudgetMBean {
+
+    long getMaxBytes();
+
+    int getMaxParts();
+
+    /**
+     * @return bytes of parts, which are being sent to encoders
+     */
+    long getInFlightBytes();
+
+    /**
+     * @return count of parts, which are being sent to encoders
+     */
+    int getInFlightParts();
+
+    long getPeakInFlightBytes();
+
+    int getPeakInFlightParts();
+
+    /**
+     * @return count of parts, waiting for dispatch
+     */
+    int getQueuedParts();
+
+    /**
+     * @return how many times queued part was held back for lack of budget,
+     * backup attempts are not counted
+     */
+    long getBudgetWaits();
+}
@@ -0,0 +1,484 @@
+package com.kyrioslab.dsvc.node.client;
+
+import akka.actor.ActorRef;
+import com.google.common.base.Joiner;
+import com.kyrioslab.jffmpegw.command.EncodeCommand;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State of one video encoding job (batch) on client.
+ * Parts are added while video is being split, job is
+ * complete when split is finished and all parts are encoded.
+ */
+public class EncodeJob {
+
+    private final String batchId;
+
+    /**
+     * Actor, requested encoding, gets progress and result.
+     */
+    private final ActorRef requester;
+
+    /**
+     * Encode command of every rendition.
+     */
+    private final List<EncodeCommand> commands;
+
+    /**
+     * All parts, dispatched to encoders, by part id.
+     */
+    private final Map<String, EncodePart> parts = new LinkedHashMap<>();
+
+    /**
+     * Parts, waiting for encoded result.
+     */
+    private final Set<String> pending = new HashSet<>();
+
+    private boolean splitComplete = false;
+
+    /**
+     * Encoding times of completed parts, ms.
+     */
+    private final List<Long> partTimes = new ArrayList<>();
+
+    /**
+     * Job start time, nanos.
+     */
+    private final long startTime = System.nanoTime();
+
+    /**
+     * Size and encoding time of completed parts.
+     */
+    private long completedBytes = 0;
+    private long completedMillis = 0;
+
+    /**
+     * Makespan, predicted when all parts are known, ms. -1 if not predicted yet.
+     */
+    private long predictedMakespan = -1;
+
+    /**
+     * Start of final merge, nanos, 0 if not started.
+     */
+    private long mergeStart = 0;
+
+    /**
+     * Command profile for timeout estimation.
+     */
+    private String profile;
+
+    /**
+     * Merges encoded parts of the job.
+     */
+    private ActorRef merger;
+
+    /**
+     * Jobs of higher priority are dispatched first.
+     */
+    private final int priority;
+
+    /**
+     * Share of encoder slots among jobs of the same priority.
+     */
+    private final double weight;
+
+    /**
+     * Wall clock time, job should be finished by, ms. -1 if job has no deadline.
+     */
+    private final long deadline;
+
+    /**
+     * Count of running part attempts.
+     */
+    private int running = 0;
+
+    /**
+     * Video and segment duration, ms, -1 if not known.
+     */
+    private long duration = -1;
+    private long segmentDuration = -1;
+
+    /**
+     * Media time, ms, and frames of completed parts.
+     */
+    private long encodedTime = 0;
+    private long encodedFrames = 0;
+
+    /**
+     * Time of the last progress report, nanos.
+     */
+    private long progressReported = System.nanoTime();
+
+    /**
+     * Count of parts of every rendition, merged into groups before
+     * restart, null if job is not resumed.
+     */
+    private int[] mergedParts;
+
+    public EncodeJob(String batchId, ActorRef requester, EncodeCommand command) {
+        this(batchId, requester, Collections.singletonList(command), 0, 1.0, -1);
+    }
+
+    /**
+     * @param priority jobs of higher priority are dispatched first
+     * @param weight   share of encoder slots among jobs of the same priority
+     * @param deadline wall clock time, job should be finished by, ms, -1 if none
+     */
+    public EncodeJob(String batchId, ActorRef requester, List<EncodeCommand> commands,
+                     int priority, double weight, long deadline) {
+        this.batchId = batchId;
+        this.requester = requester;
+        this.commands = commands;
+        this.priority = priority;
+        this.weight = weight;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return encode command lines, parts of jobs with the same
+     * profile are encoded at comparable rate
+     */
+    public String getProfile() {
+        if (profile == null) {
+            List<String> args = new ArrayList<>();
+            for (EncodeCommand command : commands) {
+                args.addAll(command.getCommand());
+            }
+            profile = Joiner.on(' ').useForNull("").join(args);
+        }
+        return profile;
+    }
+
+    /**
+     * Registers part of the job.
+     *
+     * @return new part or null if part is already registered
+     */
+    public EncodePart addPart(String partId, File file) {
+        if (parts.containsKey(partId)) {
+            return null;
+        }
+        EncodePart part = new EncodePart(partId, file);
+        parts.put(partId, part);
+        pending.add(partId);
+        return part;
+    }
+
+    /**
+     * Starts new attempt of the part.
+     */
+    public void dispatched(EncodePart part, String transferId) {
+        part.dispatched(transferId);
+        running++;
+    }
+
+    /**
+     * Ends attempt of the part.
+     *
+     * @return ended attempt or null if it is not running
+     */
+    public EncodePart.Attempt removeAttempt(EncodePart part, String transferId,
+                                            boolean excludeNode) {
+        EncodePart.Attempt attempt = part.removeAttempt(transferId, excludeNode);
+        if (attempt != null) {
+            running--;
+        }
+        return attempt;
+    }
+
+    /**
+     * @return count of running part attempts
+     */
+    public int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * @param duration        video duration, ms, -1 if not known
+     * @param segmentDuration segment duration, ms
+     */
+    public void setDuration(long duration, long segmentDuration) {
+        this.duration = duration;
+        this.segmentDuration = segmentDuration;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getSegmentDuration() {
+        return segmentDuration;
+    }
+
+    /**
+     * Adds media time and frames of completed part.
+     */
+    public void addEncoded(long time, long frames) {
+        encodedTime += time;
+        encodedFrames += frames;
+    }
+
+    public long getEncodedTime() {
+        return encodedTime;
+    }
+
+    public long getEncodedFrames() {
+        return encodedFrames;
+    }
+
+    /**
+     * @param interval min interval between progress reports, ms
+     * @return true if progress should be reported now
+     */
+    public boolean isProgressDue(long interval) {
+        long now = System.nanoTime();
+        if (now - progressReported < TimeUnit.MILLISECONDS.toNanos(interval)) {
+            return false;
+        }
+        progressReported = now;
+        return true;
+    }
+
+    /**
+     * @return median encoding speed of running attempts, reported
+     * progress, 0 if there are no such attempts
+     */
+    public double getMedianSpeed() {
+        List<Double> speeds = new ArrayList<>();
+        for (EncodePart part : getPendingParts()) {
+            for (EncodePart.Attempt attempt : part.getAttempts().values()) {
+                if (attempt.hasProgress() && attempt.getSpeed() > 0) {
+                    speeds.add(attempt.getSpeed());
+                }
+            }
+        }
+        if (speeds.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(speeds);
+        return speeds.get(speeds.size() / 2);
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public boolean hasDeadline() {
+        return deadline >= 0;
+    }
+
+    public EncodePart getPart(String partId) {
+        return parts.get(partId);
+    }
+
+    /**
+     * @return parts, waiting for encoded result
+     */
+    public Collection<EncodePart> getPendingParts() {
+        Collection<EncodePart> result = new ArrayList<>();
+        for (String partId : pending) {
+            result.add(parts.get(partId));
+        }
+        return result;
+    }
+
+    /**
+     * Marks part as encoded.
+     *
+     * @return false if part is unknown or already encoded
+     */
+    public boolean completePart(String partId) {
+        return pending.remove(partId);
+    }
+
+    public boolean isPending(String partId) {
+        return pending.contains(partId);
+    }
+
+    /**
+     * @return true when all parts of the video are encoded
+     */
+    public boolean isComplete() {
+        return splitComplete && pending.isEmpty();
+    }
+
+    public void setSplitComplete() {
+        this.splitComplete = true;
+    }
+
+    public boolean isSplitComplete() {
+        return splitComplete;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public ActorRef getRequester() {
+        return requester;
+    }
+
+    /**
+     * @return command of the first rendition
+     */
+    public EncodeCommand getCommand() {
+        return commands.get(0);
+    }
+
+    public List<EncodeCommand> getCommands() {
+        return commands;
+    }
+
+    public int getRenditionCount() {
+        return commands.size();
+    }
+
+    /**
+     * @return output formats of renditions
+     */
+    public List<String> getOutputFormats() {
+        List<String> formats = new ArrayList<>();
+        for (EncodeCommand command : commands) {
+            formats.add(command.getOutputFormat());
+        }
+        return formats;
+    }
+
+    /**
+     * @param millis part encoding time
+     * @param bytes  source part size
+     */
+    public void addPartTime(long millis, long bytes) {
+        partTimes.add(millis);
+        completedMillis += millis;
+        completedBytes += bytes;
+    }
+
+    /**
+     * Predicts job makespan: pending parts are placed largest first
+     * to the least loaded slot, part time is estimated from encoding
+     * rate of completed parts.
+     *
+     * @param slots encoder slots, available to the job
+     * @return predicted makespan since job start, ms, or -1 if there
+     * are no completed parts yet
+     */
+    public long predictMakespan(int slots) {
+        if (completedBytes == 0) {
+            return -1;
+        }
+        double rate = completedMillis / (double) completedBytes;
+
+        List<Long> costs = new ArrayList<>();
+        for (EncodePart part : getPendingParts()) {
+            costs.add((long) (part.getLength() * rate));
+        }
+        Collections.sort(costs, Collections.reverseOrder());
+
+        PriorityQueue<Long> loads = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, slots); i++) {
+            loads.add(0L);
+        }
+        long makespan = 0;
+        for (Long cost : costs) {
+            long load = loads.poll() + cost;
+            makespan = Math.max(makespan, load);
+            loads.add(load);
+        }
+        return getElapsed() + makespan;
+    }
+
+    /**
+     * @return time since job start, ms
+     */
+    public long getElapsed() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    public long getPredictedMakespan() {
+        return predictedMakespan;
+    }
+
+    public void setPredictedMakespan(long predictedMakespan) {
+        this.predictedMakespan = predictedMakespan;
+    }
+
+    public int getCompletedCount() {
+        return partTimes.size();
+    }
+
+    /**
+     * @return median encoding time of completed parts, ms
+     */
+    public long getMedianPartTime() {
+        if (partTimes.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(partTimes);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    public ActorRef getMerger() {
+        return merger;
+    }
+
+    public void setMergeStart(long mergeStart) {
+        this.mergeStart = mergeStart;
+    }
+
+    public long getMergeStart() {
+        return mergeStart;
+    }
+
+    public void setMerger(ActorRef merger) {
+        this.merger = merger;
+    }
+
+    public int getPartCount() {
+        return parts.size();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Marks job as resumed after restart.
+     *
+     * @param mergedParts count of parts of every rendition, merged before restart
+     */
+    public void setResumed(int[] mergedParts) {
+        this.mergedParts = mergedParts;
+    }
+
+    public boolean isResumed() {
+        return mergedParts != null;
+    }
+
+    /**
+     * @return count of parts of the rendition, merged before restart
+     */
+    public int getMergedParts(int rendition) {
+        return mergedParts == null ? 0 : mergedParts[rendition];
+    }
+}
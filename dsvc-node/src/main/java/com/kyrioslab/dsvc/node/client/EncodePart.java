@@ -0,0 +1,268 @@
+package com.kyrioslab.dsvc.node.client;
+
+import akka.actor.Address;
+import com.kyrioslab.dsvc.node.transfer.PartRef;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * State of one video part on client: running attempts
+ * and nodes, which already failed to encode it. Part may
+ * have several attempts, when backup attempt is started
+ * for straggler.
+ */
+public class EncodePart {
+
+    private final String partId;
+    private final File file;
+
+    /**
+     * Count of failures, when no attempt was left running.
+     */
+    private int failures = 0;
+
+    /**
+     * Running attempts by transfer id.
+     */
+    private final Map<String, Attempt> attempts = new LinkedHashMap<>();
+
+    /**
+     * Nodes, which are not used for this part.
+     */
+    private final Set<Address> excludedNodes = new HashSet<>();
+
+    /**
+     * Reference to part on shared storage, computed on first dispatch.
+     */
+    private PartRef ref;
+
+    /**
+     * Part is checked for shared storage.
+     */
+    private boolean exported = false;
+
+    /**
+     * Part size, bytes, read on first use.
+     */
+    private long length = -1;
+
+    /**
+     * Renditions, which encoded part is received.
+     */
+    private final Set<Integer> renditions = new HashSet<>();
+
+    /**
+     * The most advanced progress of attempts: encoded frames
+     * and media time, ms.
+     */
+    private long frames = 0;
+    private long outTime = 0;
+
+    public EncodePart(String partId, File file) {
+        this.partId = partId;
+        this.file = file;
+    }
+
+    /**
+     * Starts new attempt.
+     */
+    public void dispatched(String transferId) {
+        attempts.put(transferId, new Attempt(System.nanoTime()));
+    }
+
+    /**
+     * Ends attempt.
+     *
+     * @return ended attempt or null if it is not running
+     */
+    public Attempt removeAttempt(String transferId, boolean excludeNode) {
+        Attempt attempt = attempts.remove(transferId);
+        if (attempt != null && excludeNode && attempt.getNode() != null) {
+            excludedNodes.add(attempt.getNode());
+        }
+        return attempt;
+    }
+
+    /**
+     * @return true if failure of given transfer relates to running attempt
+     */
+    public boolean isCurrentAttempt(String failedTransferId) {
+        return failedTransferId != null && attempts.containsKey(failedTransferId);
+    }
+
+    public void setNode(String transferId, Address node) {
+        Attempt attempt = attempts.get(transferId);
+        if (attempt != null) {
+            attempt.node = node;
+        }
+    }
+
+    /**
+     * @return nodes of running attempts
+     */
+    public Set<Address> getRunningNodes() {
+        Set<Address> nodes = new HashSet<>();
+        for (Attempt attempt : attempts.values()) {
+            if (attempt.getNode() != null) {
+                nodes.add(attempt.getNode());
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Marks rendition of the part as received.
+     *
+     * @return false if rendition is already received
+     */
+    public boolean addRendition(int rendition) {
+        return renditions.add(rendition);
+    }
+
+    public int getRenditionCount() {
+        return renditions.size();
+    }
+
+    /**
+     * Updates progress of the attempt.
+     */
+    public void setProgress(Attempt attempt, long frame, double fps, double speed,
+                            long outTime) {
+        attempt.frame = frame;
+        attempt.fps = fps;
+        attempt.speed = speed;
+        attempt.outTime = outTime;
+        attempt.progressTime = System.nanoTime();
+        this.frames = Math.max(this.frames, frame);
+        this.outTime = Math.max(this.outTime, outTime);
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return encoded media time of the most advanced attempt, ms
+     */
+    public long getOutTime() {
+        return outTime;
+    }
+
+    public int incFailures() {
+        return ++failures;
+    }
+
+    public String getPartId() {
+        return partId;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return part size, bytes
+     */
+    public long getLength() {
+        if (length < 0) {
+            length = file.length();
+        }
+        return length;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public Map<String, Attempt> getAttempts() {
+        return attempts;
+    }
+
+    public PartRef getRef() {
+        return ref;
+    }
+
+    public boolean isExported() {
+        return exported;
+    }
+
+    public void setRef(PartRef ref) {
+        this.ref = ref;
+        this.exported = true;
+    }
+
+    public Set<Address> getExcludedNodes() {
+        return excludedNodes;
+    }
+
+    /**
+     * Part sent to one encoder.
+     */
+    public static class Attempt {
+
+        /**
+         * Dispatch time, System.nanoTime().
+         */
+        private final long startTime;
+
+        /**
+         * Encoder node, known when encoder is ready to receive.
+         */
+        private Address node;
+
+        /**
+         * Last reported progress.
+         */
+        private long frame = 0;
+        private double fps = 0;
+        private double speed = 0;
+        private long outTime = 0;
+
+        /**
+         * Time of the last progress report, System.nanoTime(), 0 if not reported.
+         */
+        private long progressTime = 0;
+
+        private Attempt(long startTime) {
+            this.startTime = startTime;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public Address getNode() {
+            return node;
+        }
+
+        public boolean hasProgress() {
+            return progressTime != 0;
+        }
+
+        public long getFrame() {
+            return frame;
+        }
+
+        public double getFps() {
+            return fps;
+        }
+
+        /**
+         * @return encoding speed, relative to playback
+         */
+        public double getSpeed() {
+            return speed;
+        }
+
+        /**
+         * @return encoded media time, ms
+         */
+        public long getOutTime() {
+            return outTime;
+        }
+    }
+}
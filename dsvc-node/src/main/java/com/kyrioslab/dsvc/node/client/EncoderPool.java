@@ -0,0 +1,166 @@
+package com.kyrioslab.dsvc.node.client;
+
+import akka.actor.ActorRef;
+import akka.actor.Address;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Free slots of encoders in work pulling mode. Encoder reports
+ * its free slots and count of parts received from this client,
+ * so parts sent after the report are taken into account.
+ */
+public class EncoderPool {
+
+    private final Map<ActorRef, Slots> encoders = new HashMap<>();
+
+    /**
+     * Updates encoder state from its work request.
+     *
+     * @return true if encoder is new
+     */
+    public boolean update(ActorRef encoder, String epoch, int free, int received) {
+        Slots slots = encoders.get(encoder);
+        boolean added = slots == null;
+
+        //new encoder or encoder actor restarted
+        if (added || !slots.epoch.equals(epoch)) {
+            slots = new Slots(epoch);
+            encoders.put(encoder, slots);
+        }
+        slots.free = free;
+        slots.received = received;
+        return added;
+    }
+
+    public void remove(ActorRef encoder) {
+        encoders.remove(encoder);
+    }
+
+    /**
+     * Takes one slot of the encoder, which node is not excluded.
+     * Encoder with the most free slots is preferred.
+     *
+     * @return encoder or null, if no free slots
+     */
+    public ActorRef acquire(Set<Address> excluded) {
+        ActorRef best = null;
+        int bestCredit = 0;
+        for (Map.Entry<ActorRef, Slots> e : encoders.entrySet()) {
+            int credit = e.getValue().credit();
+            if (credit > bestCredit && !excluded.contains(e.getKey().path().address())) {
+                best = e.getKey();
+                bestCredit = credit;
+            }
+        }
+        if (best != null) {
+            encoders.get(best).sent++;
+        }
+        return best;
+    }
+
+    /**
+     * Takes one slot of the encoder, which node is not excluded and
+     * is predicted to encode part the fastest. Encoder with more free
+     * slots wins a tie.
+     *
+     * @param inFlight parts in flight by node
+     * @param slots    parts, one node encodes at once
+     * @return encoder or null, if no free slots
+     */
+    public ActorRef acquire(Set<Address> excluded, NodeThroughput throughput, String profile,
+                            Map<Address, Integer> inFlight, int slots) {
+        ActorRef best = null;
+        double bestTime = Double.MAX_VALUE;
+        int bestCredit = 0;
+        for (Map.Entry<ActorRef, Slots> e : encoders.entrySet()) {
+            Address node = e.getKey().path().address();
+            int credit = e.getValue().credit();
+            if (credit <= 0 || excluded.contains(node)) {
+                continue;
+            }
+
+            Integer n = inFlight.get(node);
+            double time = throughput.predict(node, profile, n == null ? 0 : n, slots);
+            if (time < bestTime || (time == bestTime && credit > bestCredit)) {
+                best = e.getKey();
+                bestTime = time;
+                bestCredit = credit;
+            }
+        }
+        if (best != null) {
+            encoders.get(best).sent++;
+        }
+        return best;
+    }
+
+    /**
+     * Takes one slot of given encoder.
+     *
+     * @return false if encoder has no free slots
+     */
+    public boolean acquire(ActorRef encoder) {
+        Slots slots = encoders.get(encoder);
+        if (slots == null || slots.credit() <= 0) {
+            return false;
+        }
+        slots.sent++;
+        return true;
+    }
+
+    /**
+     * @return count of free slots of given encoder
+     */
+    public int getFreeSlots(ActorRef encoder) {
+        Slots slots = encoders.get(encoder);
+        return slots == null ? 0 : Math.max(0, slots.credit());
+    }
+
+    /**
+     * @return count of free slots of all encoders
+     */
+    public int getFreeSlots() {
+        int free = 0;
+        for (Slots slots : encoders.values()) {
+            free += slots.credit();
+        }
+        return free;
+    }
+
+    public int size() {
+        return encoders.size();
+    }
+
+    private static class Slots {
+
+        /**
+         * Encoder actor instance id.
+         */
+        private final String epoch;
+
+        /**
+         * Free slots, reported by encoder.
+         */
+        private int free;
+
+        /**
+         * Parts received by encoder at report time.
+         */
+        private int received;
+
+        /**
+         * Parts sent to encoder.
+         */
+        private int sent;
+
+        private Slots(String epoch) {
+            this.epoch = epoch;
+        }
+
+        private int credit() {
+            return free - (sent - received);
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.kyrioslab.dsvc.node.client;
+
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of job state transitions: job is accepted, split
+ * is started and finished, part is encoded, job is finished. After every
+ * given count of entries, state of unfinished jobs is written to snapshot
+ * and journal is truncated. State is recovered from snapshot and journal
+ * entries after it.
+ * <p/>
+ * Entry is written as int length, CRC32 and java serialized entry. Torn
+ * entry at the end of journal, written while process died, is dropped.
+ * Replay is idempotent, so entries, written before snapshot, may be
+ * applied again, if process died between snapshot and truncation.
+ */
+public class JobJournal {
+
+    public static final String JOURNAL_FILE = "jobs.journal";
+    public static final String SNAPSHOT_FILE = "jobs.snapshot";
+
+    /**
+     * Entry longer than this is treated as damaged.
+     */
+    private static final int MAX_ENTRY_SIZE = 64 << 20;
+
+    private final File journalFile;
+    private final File snapshotFile;
+
+    private final int snapshotEvery;
+    private final boolean fsync;
+
+    /**
+     * Unfinished jobs by batch id, as journal describes them.
+     */
+    private final Map<String, JobRecord> jobs = new LinkedHashMap<>();
+
+    private FileChannel journal;
+
+    /**
+     * Entries, appended since the last snapshot.
+     */
+    private int entries = 0;
+
+    /**
+     * @param dir           journal directory, created if missing
+     * @param snapshotEvery count of entries between snapshots
+     * @param fsync         force every entry to disk
+     */
+    public JobJournal(File dir, int snapshotEvery, boolean fsync) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create journal directory: " + dir.getAbsolutePath());
+        }
+        this.journalFile = new File(dir, JOURNAL_FILE);
+        this.snapshotFile = new File(dir, SNAPSHOT_FILE);
+        this.snapshotEvery = snapshotEvery;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Reads snapshot and replays journal, then writes new snapshot and
+     * opens empty journal for appending. Must be called before appending.
+     *
+     * @return unfinished jobs, in order they were accepted
+     */
+    public Collection<JobRecord> recover() throws IOException, ClassNotFoundException {
+        jobs.clear();
+        if (snapshotFile.exists()) {
+            try (ObjectInputStream in = new ObjectInputStream(
+                    new FileInputStream(snapshotFile))) {
+                @SuppressWarnings("unchecked")
+                List<JobRecord> records = (List<JobRecord>) in.readObject();
+                for (JobRecord record : records) {
+                    jobs.put(record.getBatchId(), record);
+                }
+            }
+        }
+        if (journalFile.exists()) {
+            replay();
+        }
+        snapshot();
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Applies valid entries of journal file in order.
+     */
+    private void replay() throws IOException, ClassNotFoundException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(journalFile))) {
+            while (true) {
+                int length;
+                long crc;
+                byte[] data;
+                try {
+                    length = in.readInt();
+                    crc = in.readLong();
+                    if (length <= 0 || length > MAX_ENTRY_SIZE) {
+                        return;
+                    }
+                    data = new byte[length];
+                    in.readFully(data);
+                } catch (EOFException e) {
+
+                    //end of journal or torn entry
+                    return;
+                }
+                CRC32 check = new CRC32();
+                check.update(data);
+                if (check.getValue() != crc) {
+                    return;
+                }
+                try (ObjectInputStream entry = new ObjectInputStream(
+                        new ByteArrayInputStream(data))) {
+                    ((Entry) entry.readObject()).apply(jobs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes unfinished jobs to snapshot and truncates journal.
+     * Snapshot is replaced atomically.
+     */
+    public void snapshot() throws IOException {
+        File tmp = new File(snapshotFile.getParentFile(), SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            ObjectOutputStream out = new ObjectOutputStream(fos);
+            out.writeObject(new ArrayList<>(jobs.values()));
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        if (journal != null) {
+            journal.close();
+        }
+        journal = new RandomAccessFile(journalFile, "rw").getChannel();
+        journal.truncate(0);
+        entries = 0;
+    }
+
+    /**
+     * Applies entry to journal state and appends it to journal.
+     */
+    public void append(Entry entry) throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("Journal is not recovered");
+        }
+        entry.apply(jobs);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(entry);
+        }
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteBuffer frame = ByteBuffer.allocate(12 + data.length);
+        frame.putInt(data.length).putLong(crc.getValue()).put(data).flip();
+        while (frame.hasRemaining()) {
+            journal.write(frame);
+        }
+        if (fsync) {
+            journal.force(false);
+        }
+
+        if (++entries >= snapshotEvery) {
+            snapshot();
+        }
+    }
+
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Job is accepted.
+     *
+     * @param requesterPath serialized path of requester actor
+     */
+    public static Entry jobStarted(String batchId, String requesterPath,
+                                   LocalMessage.EncodeVideoMessage request) {
+        return new JobStarted(new JobRecord(batchId, requesterPath, request));
+    }
+
+    /**
+     * Split is started with given segment duration.
+     *
+     * @param duration video duration, seconds, -1 if not known
+     */
+    public static Entry splitStarted(String batchId, int segmentTime, double duration) {
+        return new SplitStarted(batchId, segmentTime, duration);
+    }
+
+    public static Entry splitComplete(String batchId, int partCount) {
+        return new SplitComplete(batchId, partCount);
+    }
+
+    /**
+     * All renditions of the part are received.
+     */
+    public static Entry partComplete(String batchId, String partId) {
+        return new PartComplete(batchId, partId);
+    }
+
+    /**
+     * Job is merged or failed, it is not resumed.
+     */
+    public static Entry jobFinished(String batchId) {
+        return new JobFinished(batchId);
+    }
+
+    /**
+     * Journal entry, changes state of jobs.
+     */
+    public static abstract class Entry implements Serializable {
+
+        private final String batchId;
+
+        protected Entry(String batchId) {
+            this.batchId = batchId;
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+
+        protected void apply(Map<String, JobRecord> jobs) {
+            JobRecord job = jobs.get(batchId);
+            if (job != null) {
+                apply(job);
+            }
+        }
+
+        protected void apply(JobRecord job) {
+        }
+    }
+
+    private static class JobStarted extends Entry {
+
+        private final JobRecord record;
+
+        private JobStarted(JobRecord record) {
+            super(record.getBatchId());
+            this.record = record;
+        }
+
+        @Override
+        protected void apply(Map<String, JobRecord> jobs) {
+
+            //replayed entry does not reset later state from snapshot
+            if (!jobs.containsKey(getBatchId())) {
+                jobs.put(getBatchId(), record.copy());
+            }
+        }
+    }
+
+    private static class SplitStarted extends Entry {
+
+        private final int segmentTime;
+        private final double duration;
+
+        private SplitStarted(String batchId, int segmentTime, double duration) {
+            super(batchId);
+            this.segmentTime = segmentTime;
+            this.duration = duration;
+        }
+
+        @Override
+        protected void apply(JobRecord job) {
+            job.segmentTime = segmentTime;
+            job.duration = duration;
+        }
+    }
+
+    private static class SplitComplete extends Entry {
+
+        private final int partCount;
+
+        private SplitComplete(String batchId, int partCount) {
+            super(batchId);
+            this.partCount = partCount;
+        }
+
+        @Override
+        protected void apply(JobRecord job) {
+            job.partCount = partCount;
+        }
+    }
+
+    private static class PartComplete extends Entry {
+
+        private final String partId;
+
+        private PartComplete(String batchId, String partId) {
+            super(batchId);
+            this.partId = partId;
+        }
+
+        @Override
+        protected void apply(JobRecord job) {
+            job.completedParts.add(partId);
+        }
+    }
+
+    private static class JobFinished extends Entry {
+
+        private JobFinished(String batchId) {
+            super(batchId);
+        }
+
+        @Override
+        protected void apply(Map<String, JobRecord> jobs) {
+            jobs.remove(getBatchId());
+        }
+    }
+
+    /**
+     * Journaled state of unfinished job.
+     */
+    public static class JobRecord implements Serializable {
+
+        private final String batchId;
+
+        /**
+         * Serialized path of requester actor.
+         */
+        private final String requesterPath;
+
+        private final LocalMessage.EncodeVideoMessage request;
+
+        /**
+         * Segment duration of split, seconds, 0 if split is not started.
+         */
+        private int segmentTime = 0;
+
+        /**
+         * Video duration, seconds, -1 if not known.
+         */
+        private double duration = -1;
+
+        /**
+         * Count of parts, -1 if split is not complete.
+         */
+        private int partCount = -1;
+
+        /**
+         * Parts with all renditions received.
+         */
+        private final Set<String> completedParts = new HashSet<>();
+
+        private JobRecord(String batchId, String requesterPath,
+                          LocalMessage.EncodeVideoMessage request) {
+            this.batchId = batchId;
+            this.requesterPath = requesterPath;
+            this.request = request;
+        }
+
+        private JobRecord copy() {
+            JobRecord copy = new JobRecord(batchId, requesterPath, request);
+            copy.segmentTime = segmentTime;
+            copy.duration = duration;
+            copy.partCount = partCount;
+            copy.completedParts.addAll(completedParts);
+            return copy;
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+
+        public String getRequesterPath() {
+            return requesterPath;
+        }
+
+        public LocalMessage.EncodeVideoMessage getRequest() {
+            return request;
+        }
+
+        public int getSegmentTime() {
+            return segmentTime;
+        }
+
+        public double getDuration() {
+            return duration;
+        }
+
+        public boolean isSplitComplete() {
+            return partCount >= 0;
+        }
+
+        public int getPartCount() {
+            return partCount;
+        }
+
+        public Set<String> getCompletedParts() {
+            return completedParts;
+        }
+    }
+}
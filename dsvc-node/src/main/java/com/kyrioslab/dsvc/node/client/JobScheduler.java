@@ -0,0 +1,166 @@
+package com.kyrioslab.dsvc.node.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Parts waiting for dispatch, queued per job. Jobs are served in
+ * order of priority, then the earliest deadline, then by weighted
+ * fair share of encoder slots: the job with the least running
+ * attempts per weight unit goes first. So short job, submitted
+ * after long one, gets slots as soon as they are freed instead of
+ * waiting for all parts of the long job.
+ */
+public class JobScheduler {
+
+    /**
+     * Parts of the job are dispatched largest first, otherwise in split order.
+     */
+    private final boolean largestFirst;
+
+    /**
+     * Queued parts by job, in job submission order.
+     */
+    private final Map<EncodeJob, LinkedList<EncodePart>> queues = new LinkedHashMap<>();
+
+    private int size = 0;
+
+    /**
+     * Order of jobs for dispatch.
+     */
+    public static final Comparator<EncodeJob> ORDER = new Comparator<EncodeJob>() {
+        @Override
+        public int compare(EncodeJob j1, EncodeJob j2) {
+            if (j1.getPriority() != j2.getPriority()) {
+                return Integer.compare(j2.getPriority(), j1.getPriority());
+            }
+
+            //jobs with deadline go first, the earliest deadline first
+            if (j1.hasDeadline() != j2.hasDeadline()) {
+                return j1.hasDeadline() ? -1 : 1;
+            }
+            if (j1.getDeadline() != j2.getDeadline()) {
+                return Long.compare(j1.getDeadline(), j2.getDeadline());
+            }
+            return Double.compare(share(j1), share(j2));
+        }
+    };
+
+    public JobScheduler(boolean largestFirst) {
+        this.largestFirst = largestFirst;
+    }
+
+    /**
+     * @return running attempts of the job per weight unit
+     */
+    private static double share(EncodeJob job) {
+        return job.getRunningCount() / Math.max(job.getWeight(), Double.MIN_VALUE);
+    }
+
+    /**
+     * Queues part of the job.
+     */
+    public void add(EncodeJob job, EncodePart part) {
+        LinkedList<EncodePart> queue = queues.get(job);
+        if (queue == null) {
+            queue = new LinkedList<>();
+            queues.put(job, queue);
+        }
+        if (largestFirst) {
+
+            //insert before the first smaller part
+            ListIterator<EncodePart> it = queue.listIterator();
+            while (it.hasNext()) {
+                if (it.next().getLength() < part.getLength()) {
+                    it.previous();
+                    break;
+                }
+            }
+            it.add(part);
+        } else {
+            queue.add(part);
+        }
+        size++;
+    }
+
+    /**
+     * Drops queued parts of the job.
+     */
+    public void remove(EncodeJob job) {
+        LinkedList<EncodePart> queue = queues.remove(job);
+        if (queue != null) {
+            size -= queue.size();
+        }
+    }
+
+    /**
+     * @return jobs with queued parts in dispatch order
+     */
+    public List<EncodeJob> getJobs() {
+        List<EncodeJob> result = new ArrayList<>(queues.keySet());
+
+        //sort is stable, equal jobs stay in submission order
+        Collections.sort(result, ORDER);
+        return result;
+    }
+
+    /**
+     * @return jobs in dispatch order
+     */
+    public static List<EncodeJob> sort(Collection<EncodeJob> jobs) {
+        List<EncodeJob> result = new ArrayList<>(jobs);
+        Collections.sort(result, ORDER);
+        return result;
+    }
+
+    /**
+     * Iterator over queued parts of the job, removing part
+     * with iterator removes it from queue.
+     */
+    public Iterator<EncodePart> parts(final EncodeJob job) {
+        final LinkedList<EncodePart> queue = queues.get(job);
+        if (queue == null) {
+            return Collections.<EncodePart>emptyList().iterator();
+        }
+        final Iterator<EncodePart> it = queue.iterator();
+        return new Iterator<EncodePart>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public EncodePart next() {
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+                size--;
+                if (queue.isEmpty()) {
+                    queues.remove(job);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return count of queued parts
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,309 @@
+package com.kyrioslab.dsvc.node.client;
+
+import akka.actor.ActorRef;
+import akka.actor.UntypedActor;
+import akka.dispatch.OnComplete;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.kyrioslab.dsvc.node.EncodeProcessException;
+import com.kyrioslab.dsvc.node.encoder.Encoder;
+import com.kyrioslab.dsvc.node.encoder.PartCache;
+import com.kyrioslab.dsvc.node.encoder.PartEncoding;
+import com.kyrioslab.dsvc.node.messages.ClusterMessage;
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.kyrioslab.dsvc.node.metrics.StageMetrics;
+import com.kyrioslab.dsvc.node.util.CancelToken;
+import com.kyrioslab.dsvc.node.util.FFMPEGService;
+import com.kyrioslab.dsvc.node.util.ProgressListener;
+import com.kyrioslab.jffmpegw.command.EncodeCommand;
+import scala.concurrent.Future;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+/**
+ * Encoder, embedded in client node. Part is encoded from split directory
+ * to receive directory of its job, so it is not serialized or sent.
+ * Free slots are reported to client by {@link ClusterMessage.WorkRequest},
+ * as encoder nodes do, so client schedules local slots with them.
+ * <p/>
+ * Part is encoded by {@link PartEncoding}, as on encoder nodes. With
+ * encoded parts cache, the client node keeps own cache in <code>local</code>
+ * subdirectory of cache directory, so it does not share cache state with
+ * encoder node on the same host.
+ */
+public class LocalEncoder extends UntypedActor {
+
+    /**
+     * Input and output placeholders of command templates.
+     */
+    private static final String INPUT = "{input}";
+    private static final String OUTPUT = "{output}";
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    private final FFMPEGService ffmpegService;
+
+    /**
+     * Count of parts encoded at once.
+     */
+    private final int slots;
+
+    /**
+     * Latency of stages, run by local encoder.
+     */
+    private final StageMetrics metrics = StageMetrics.get(getContext().system());
+
+    /**
+     * Runs ffmpeg for renditions of part, takes cached renditions.
+     */
+    private final PartEncoding encoding;
+
+    /**
+     * Arguments of job commands with input and output placeholders, by
+     * command instance (weak keys are compared by identity). Commands of
+     * the job are shared by its parts and are not modified, every command
+     * is copied once to build its template.
+     */
+    private final Cache<EncodeCommand, List<String>> templates = CacheBuilder.newBuilder()
+            .weakKeys().maximumSize(64).build();
+
+    /**
+     * Local encoder actor instance id, reported with free slots.
+     */
+    private final String epoch = UUID.randomUUID().toString();
+
+    /**
+     * Parts encoding now, by transfer id. Cancelled part is removed
+     * and its process is killed, it holds slot until it exits.
+     */
+    private final Map<String, LocalMessage.EncodeLocalPartMessage> tasks = new HashMap<>();
+
+    /**
+     * Kill ffmpeg of cancelled parts, by transfer id.
+     */
+    private final Map<String, CancelToken> tokens = new HashMap<>();
+
+    /**
+     * Count of processes running now.
+     */
+    private int running = 0;
+
+    /**
+     * Count of parts, received from client.
+     */
+    private int received = 0;
+
+    public LocalEncoder(FFMPEGService ffmpegService, int slots, long progressInterval) {
+        this(ffmpegService, slots, progressInterval, null);
+    }
+
+    /**
+     * @param progressInterval min interval between progress reports, ms,
+     *                         0 disables reports
+     * @param cache            encoded parts cache, null if disabled
+     */
+    public LocalEncoder(FFMPEGService ffmpegService, int slots, long progressInterval,
+                        PartCache cache) {
+        this.ffmpegService = ffmpegService;
+        this.slots = slots;
+        this.encoding = new PartEncoding(ffmpegService.getProcessRunner(), cache, metrics, log,
+                progressInterval);
+    }
+
+    @Override
+    public void preStart() {
+        requestWork();
+    }
+
+    @Override
+    public void onReceive(Object message) {
+        if (message instanceof LocalMessage.EncodeLocalPartMessage) {
+            LocalMessage.EncodeLocalPartMessage msg = (LocalMessage.EncodeLocalPartMessage) message;
+            log.info("Encoding part locally: {}", msg.getPartId());
+            received++;
+            running++;
+            CancelToken token = new CancelToken();
+            tasks.put(msg.getTransferId(), msg);
+            tokens.put(msg.getTransferId(), token);
+            startEncoding(msg, token);
+        } else if (message instanceof LocalMessage.LocalPartEncodedMessage) {
+            LocalMessage.LocalPartEncodedMessage encoded =
+                    (LocalMessage.LocalPartEncodedMessage) message;
+            running--;
+            tokens.remove(encoded.getTransferId());
+            if (tasks.remove(encoded.getTransferId()) != null) {
+                getContext().parent().tell(encoded, getSelf());
+            } else {
+
+                //part was cancelled while encoding
+                deleteAll(encoded.getEncoded());
+            }
+            requestWork();
+        } else if (message instanceof LocalMessage.PartEncodeFailedMessage) {
+            LocalMessage.PartEncodeFailedMessage failed =
+                    (LocalMessage.PartEncodeFailedMessage) message;
+            running--;
+            tokens.remove(failed.getTransferId());
+            LocalMessage.EncodeLocalPartMessage task = tasks.remove(failed.getTransferId());
+            if (task != null) {
+                getContext().parent().tell(new ClusterMessage.EncodePartFailed(
+                        "Exception while encoding part locally. " + failed.getReason(),
+                        task.getPartId(), task.getCommands().get(0), task.getTransferId()),
+                        getSelf());
+            }
+            requestWork();
+        } else if (message instanceof ClusterMessage.CancelPartMessage) {
+            String transferId = ((ClusterMessage.CancelPartMessage) message).getTransferId();
+            LocalMessage.EncodeLocalPartMessage task = tasks.remove(transferId);
+            if (task != null) {
+                tokens.get(transferId).cancel();
+                log.info("Local part cancelled: {}", task.getPartId());
+            }
+        } else {
+            unhandled(message);
+        }
+    }
+
+    /**
+     * Reports free slots to client.
+     */
+    private void requestWork() {
+        getContext().parent().tell(new ClusterMessage.WorkRequest(epoch,
+                Math.max(0, slots - running), received), getSelf());
+    }
+
+    private void startEncoding(final LocalMessage.EncodeLocalPartMessage msg,
+                               final CancelToken token) {
+        final ProgressListener listener = progressListener(msg);
+
+        //start encoding process out of actor dispatcher
+        Future<LocalMessage.LocalPartEncodedMessage> encodeFuture =
+                ffmpegService.getProcessRunner().submit(
+                        new Callable<LocalMessage.LocalPartEncodedMessage>() {
+                            public LocalMessage.LocalPartEncodedMessage call() throws Exception {
+                                return encode(msg, listener, token);
+                            }
+                        });
+
+        final ActorRef self = getSelf();
+        final String transferId = msg.getTransferId();
+        encodeFuture.onComplete(new OnComplete<LocalMessage.LocalPartEncodedMessage>() {
+            @Override
+            public void onComplete(Throwable failure,
+                                   LocalMessage.LocalPartEncodedMessage encoded)
+                    throws Throwable {
+                if (failure != null) {
+                    self.tell(new LocalMessage.PartEncodeFailedMessage(transferId,
+                            failure.getMessage()), self);
+                } else {
+                    self.tell(encoded, self);
+                }
+            }
+        }, getContext().dispatcher());
+    }
+
+    /**
+     * Encodes part to every rendition, results are written
+     * to receive directory of the job.
+     */
+    private LocalMessage.LocalPartEncodedMessage encode(LocalMessage.EncodeLocalPartMessage msg,
+                                                        ProgressListener listener,
+                                                        CancelToken token)
+            throws IOException, ClassNotFoundException, EncodeProcessException {
+        File src = msg.getPart();
+        File outputDir = ffmpegService.getReceiveDir(
+                FFMPEGService.batchIdFromPartId(msg.getPartId()));
+
+        List<List<String>> commands = new ArrayList<>();
+        List<File> results = new ArrayList<>();
+        List<String> formats = new ArrayList<>();
+        for (int i = 0; i < msg.getCommands().size(); i++) {
+            EncodeCommand command = msg.getCommands().get(i);
+            String resultName = Encoder.ENCODE_RESULT + msg.getTransferId()
+                    + (i == 0 ? "" : "-" + i) + "." + command.getOutputFormat();
+            List<String> args = new ArrayList<>(template(command));
+            Collections.replaceAll(args, INPUT, src.getAbsolutePath());
+            Collections.replaceAll(args, OUTPUT, resultName);
+            commands.add(args);
+            results.add(new File(outputDir, resultName));
+            formats.add(command.getOutputFormat());
+        }
+
+        File progressFile = new File(outputDir, "p-" + msg.getTransferId() + ".txt");
+        try {
+            encoding.encode(src, commands, results, outputDir, progressFile, listener, token);
+        } catch (EncodeProcessException | RuntimeException e) {
+            deleteAll(results);
+            throw e;
+        }
+        return new LocalMessage.LocalPartEncodedMessage(msg.getTransferId(), msg.getPartId(),
+                results, formats);
+    }
+
+    /**
+     * @return listener, which reports progress of the part attempt to client
+     */
+    private ProgressListener progressListener(final LocalMessage.EncodeLocalPartMessage msg) {
+        final ActorRef self = getSelf();
+        final ActorRef client = getContext().parent();
+        return new ProgressListener() {
+            @Override
+            public void onProgress(long frame, double fps, double speed, long outTime,
+                                   boolean end) {
+                client.tell(new ClusterMessage.PartProgress(msg.getTransferId(),
+                        msg.getPartId(), frame, fps, speed, outTime), self);
+            }
+        };
+    }
+
+    private void deleteAll(List<File> files) {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                log.warning("Cannot delete temporary file: {}", file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * @return arguments of command with input and output placeholders
+     */
+    private List<String> template(EncodeCommand command)
+            throws IOException, ClassNotFoundException {
+        List<String> template = templates.getIfPresent(command);
+        if (template == null) {
+            EncodeCommand copy = copy(command);
+            copy.setFfmpegLocation(ffmpegService.getFfmpeg());
+            copy.setInput(INPUT);
+            copy.addAttribute(OUTPUT);
+            template = Collections.unmodifiableList(new ArrayList<>(copy.getCommand()));
+            templates.put(command, template);
+        }
+        return template;
+    }
+
+    private static EncodeCommand copy(EncodeCommand command)
+            throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(command);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (EncodeCommand) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.kyrioslab.dsvc.node.client;
+
+import akka.actor.Address;
+import com.kyrioslab.dsvc.node.util.KeyedEwma;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encoding speed of encoder nodes (seconds of video per second of part
+ * time, as ffmpeg reports speed), learned from completed parts per node
+ * and command profile. Part time is from dispatch to received result,
+ * so transfer is counted too.
+ * <p/>
+ * Node for the next part is chosen by predicted completion time: node
+ * with free slot starts part at once, otherwise part waits for rounds
+ * of parts in flight. Node without enough samples gets speed of the
+ * profile across nodes, so new nodes get parts and are measured.
+ */
+public class NodeThroughput {
+
+    /**
+     * Speed, when profile has no samples at all.
+     */
+    private static final double DEFAULT_SPEED = 1.0;
+
+    private final KeyedEwma speeds;
+
+    /**
+     * @param ewmaAlpha  weight of the new sample in moving average
+     * @param minSamples samples of node, needed to use its own speed
+     */
+    public NodeThroughput(double ewmaAlpha, int minSamples) {
+        this.speeds = new KeyedEwma(ewmaAlpha, minSamples);
+    }
+
+    /**
+     * Adds completed part.
+     *
+     * @param mediaMillis encoded video time
+     * @param partMillis  part time on the node
+     */
+    public void addSample(Address node, String profile, long mediaMillis, long partMillis) {
+        if (mediaMillis <= 0 || partMillis <= 0) {
+            return;
+        }
+        speeds.add(node, profile, mediaMillis / (double) partMillis);
+    }
+
+    /**
+     * @return learned speed of the node for the profile, or speed
+     * of the profile, if node is not measured yet
+     */
+    public double getSpeed(Address node, String profile) {
+        KeyedEwma.Average s = speeds.get(node, profile);
+        return s == null ? DEFAULT_SPEED : s.getEwma();
+    }
+
+    /**
+     * @param inFlight parts of the node, being sent or encoded
+     * @param slots    parts, node encodes at once
+     * @return predicted completion time of new part, in part durations
+     */
+    public double predict(Address node, String profile, int inFlight, int slots) {
+        int rounds = inFlight / Math.max(1, slots) + 1;
+        return rounds / getSpeed(node, profile);
+    }
+
+    /**
+     * Chooses node, which is predicted to complete new part first.
+     * Node with less parts in flight wins a tie.
+     *
+     * @param inFlight parts in flight by node
+     * @param slots    parts, one node encodes at once
+     * @return node or null, if all nodes are excluded
+     */
+    public Address select(Collection<Address> nodes, Set<Address> excluded, String profile,
+                          Map<Address, Integer> inFlight, int slots) {
+        Address best = null;
+        double bestTime = Double.MAX_VALUE;
+        int bestLoad = Integer.MAX_VALUE;
+        for (Address node : nodes) {
+            if (excluded.contains(node)) {
+                continue;
+            }
+            Integer n = inFlight.get(node);
+            int load = n == null ? 0 : n;
+            double time = predict(node, profile, load, slots);
+            if (time < bestTime || (time == bestTime && load < bestLoad)) {
+                best = node;
+                bestTime = time;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+}
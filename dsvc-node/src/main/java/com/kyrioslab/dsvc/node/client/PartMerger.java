@@ -0,0 +1,376 @@
+package com.kyrioslab.dsvc.node.client;
+
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.kyrioslab.dsvc.node.util.FFMPEGService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Merges encoded parts of one batch while the rest are still encoding.
+ * Parts of appendable format (MPEG-TS) are appended byte by byte to one
+ * growing output, each time contiguous prefix of received parts grows by
+ * merge step. Final merge appends the last parts to it and moves it to
+ * result, so only the tail is written at the end.
+ * <p/>
+ * Parts of other formats can not be appended. Concatenating them into
+ * intermediate groups would not shorten final merge, which rewrites the
+ * whole result anyway, so they are concatenated by ffmpeg once, when
+ * all parts are received. Every rendition of the batch is merged
+ * separately.
+ * <p/>
+ * Growing output is named by rendition and its last part, so merger of
+ * resumed job continues from output, appended before restart. Output is
+ * renamed to temporary name while parts are appended, so output, being
+ * appended on crash, is dropped and its parts are encoded again.
+ */
+public class PartMerger extends UntypedActor {
+
+    /**
+     * Prefix of output being appended.
+     */
+    private static final String TMP_PREFIX = "tmp-";
+
+    private static final Pattern OUTPUT_NAME = Pattern.compile("r(\\d+)-(\\d+)\\.(.+)");
+
+    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    private final FFMPEGService ffmpegService;
+    private final String batchId;
+
+    /**
+     * Count of contiguous parts appended at once,
+     * 0 disables incremental merge.
+     */
+    private int mergeStep;
+
+    /**
+     * Merge state by rendition index.
+     */
+    private final List<Rendition> renditions = new ArrayList<>();
+
+    public PartMerger(FFMPEGService ffmpegService, String batchId,
+                      List<String> formats, int mergeStep) {
+        this(ffmpegService, batchId, formats, mergeStep, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param appendFormats formats, which parts are appended byte by byte
+     */
+    public PartMerger(FFMPEGService ffmpegService, String batchId,
+                      List<String> formats, int mergeStep, Set<String> appendFormats) {
+        this.ffmpegService = ffmpegService;
+        this.batchId = batchId;
+        this.mergeStep = mergeStep;
+        for (String format : formats) {
+            renditions.add(new Rendition(renditions.size(), format,
+                    appendFormats.contains(format)));
+        }
+    }
+
+    public static Props props(FFMPEGService ffmpegService, String batchId,
+                              List<String> formats, ClientSettings settings) {
+        return Props.create(PartMerger.class, ffmpegService, batchId, formats,
+                settings.getMergeStep(), settings.getMergeAppendFormats())
+                .withDispatcher(settings.getMergeDispatcher());
+    }
+
+    /**
+     * Restores outputs, appended before restart.
+     */
+    @Override
+    public void preStart() {
+        File mergeDir = ffmpegService.getMergeDir(batchId);
+        File[] files = mergeDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(TMP_PREFIX) && !file.delete()) {
+                log.warning("Cannot delete incomplete output: {}", file.getAbsolutePath());
+            }
+        }
+        for (Rendition r : renditions) {
+            if (!r.append) {
+                continue;
+            }
+            r.output = findOutput(mergeDir, r.index, r.format);
+            if (r.output != null) {
+                r.nextIndex = lastPart(r.output) + 1;
+                log.info("Restored {} merged parts, batchId {}, rendition {}", r.nextIndex,
+                        batchId, r.index);
+            }
+        }
+    }
+
+    @Override
+    public void onReceive(Object message) {
+        if (message instanceof LocalMessage.MergePartMessage) {
+            LocalMessage.MergePartMessage merge = (LocalMessage.MergePartMessage) message;
+            Rendition r = renditions.get(merge.getRendition());
+            File part = merge.getPart();
+            int index = FFMPEGService.partIndex(part);
+
+            //part is in restored output already
+            if (index < r.nextIndex) {
+                if (!part.delete()) {
+                    log.warning("Cannot delete merged part: {}", part.getAbsolutePath());
+                }
+                return;
+            }
+            r.received.put(index, part);
+
+            //extend contiguous prefix
+            while (r.received.containsKey(r.nextIndex)) {
+                r.prefix.add(r.received.remove(r.nextIndex));
+                r.nextIndex++;
+            }
+
+            if (r.append && mergeStep > 0 && r.prefix.size() >= mergeStep) {
+                appendPrefix(r);
+            }
+        } else if (message instanceof LocalMessage.FinishMergeMessage) {
+            finish((LocalMessage.FinishMergeMessage) message);
+            getContext().stop(getSelf());
+        } else {
+            unhandled(message);
+        }
+    }
+
+    /**
+     * Appends contiguous prefix to growing output of the rendition.
+     * On failure output is truncated back and parts are kept for
+     * final merge.
+     */
+    private void appendPrefix(Rendition r) {
+        File mergeDir = getMergeDir();
+        if (mergeDir == null) {
+            return;
+        }
+
+        String name = outputName(r);
+        File output = new File(mergeDir, name);
+        File tmp = new File(mergeDir, TMP_PREFIX + name);
+        File previous = r.output;
+        long length = previous == null ? 0 : previous.length();
+        try {
+            if (previous != null) {
+                Files.move(previous.toPath(), tmp.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            try {
+                append(r.prefix, tmp);
+            } catch (IOException e) {
+                restore(tmp, length, previous);
+                throw e;
+            }
+            Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warning("Incremental merge failed, batchId {}: {}. Incremental merge disabled",
+                    batchId, e.getMessage());
+            mergeStep = 0;
+            return;
+        }
+
+        deleteMerged(r);
+        log.info("Appended parts up to {}, batchId {}, rendition {}", r.nextIndex - 1,
+                batchId, r.index);
+        r.output = output;
+    }
+
+    /**
+     * Truncates output to its length before failed append
+     * and renames it back.
+     */
+    private void restore(File tmp, long length, File previous) {
+        try {
+            if (previous == null) {
+                Files.deleteIfExists(tmp.toPath());
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(tmp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            }
+            Files.move(tmp.toPath(), previous.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Cannot restore merged output {}: {}", previous, e.getMessage());
+        }
+    }
+
+    /**
+     * @return merge directory, null if it can not be created,
+     * then incremental merge is disabled
+     */
+    private File getMergeDir() {
+        File mergeDir = ffmpegService.getMergeDir(batchId);
+        if (!mergeDir.exists() && !mergeDir.mkdir()) {
+            log.warning("Cannot create merge directory {}, incremental merge disabled",
+                    mergeDir.getAbsolutePath());
+            mergeStep = 0;
+            return null;
+        }
+        return mergeDir;
+    }
+
+    /**
+     * @return name of output, which ends with the prefix
+     */
+    private static String outputName(Rendition r) {
+        return "r" + r.index + "-" + (r.nextIndex - 1) + "." + r.format;
+    }
+
+    private void deleteMerged(Rendition r) {
+        for (File part : r.prefix) {
+            if (!part.delete()) {
+                log.warning("Cannot delete merged part: {}", part.getAbsolutePath());
+            }
+        }
+        r.prefix.clear();
+    }
+
+    /**
+     * Appends parts to the end of output file, it is created if missing.
+     */
+    private static void append(List<File> parts, File output) throws IOException {
+        try (FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (File part : parts) {
+                try (FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+        }
+    }
+
+    private void finish(LocalMessage.FinishMergeMessage msg) {
+        for (Rendition r : renditions) {
+            if (r.nextIndex != msg.getPartCount() || !r.received.isEmpty()) {
+                getContext().parent().tell(new LocalMessage.MergeFailedMessage(batchId,
+                        "Missing parts of rendition " + r.index + ", merged " + r.nextIndex
+                                + " of " + msg.getPartCount()), getSelf());
+                return;
+            }
+        }
+
+        List<File> results = new ArrayList<>();
+        try {
+            for (Rendition r : renditions) {
+                File result = new File(ffmpegService.getReceiveDir(batchId),
+                        msg.getFileNames().get(r.index));
+                if (r.append) {
+
+                    //only the tail is written, growing output becomes result
+                    if (r.output == null) {
+                        Files.deleteIfExists(result.toPath());
+                    } else {
+                        Files.move(r.output.toPath(), result.toPath(),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    append(r.prefix, result);
+                } else {
+                    ffmpegService.concat(r.prefix, result);
+                }
+                results.add(result);
+            }
+            ffmpegService.cleanup(batchId);
+        } catch (Exception e) {
+            getContext().parent().tell(new LocalMessage.MergeFailedMessage(batchId,
+                    e.getMessage()), getSelf());
+            return;
+        }
+        getContext().parent().tell(new LocalMessage.MergeCompleteMessage(batchId, results),
+                getSelf());
+    }
+
+    /**
+     * @return growing output of the rendition in merge directory,
+     * null if nothing is appended
+     */
+    public static File findOutput(File mergeDir, int rendition, String format) {
+        File output = null;
+        File[] files = mergeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher m = OUTPUT_NAME.matcher(file.getName());
+                if (m.matches() && Integer.parseInt(m.group(1)) == rendition
+                        && m.group(3).equals(format)
+                        && (output == null || lastPart(file) > lastPart(output))) {
+                    output = file;
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @return number of the last part appended to output
+     */
+    public static int lastPart(File output) {
+        Matcher m = OUTPUT_NAME.matcher(output.getName());
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Not a merged output: " + output.getName());
+        }
+        return Integer.parseInt(m.group(2));
+    }
+
+    /**
+     * Merge state of one rendition.
+     */
+    private static class Rendition {
+
+        private final int index;
+        private final String format;
+
+        /**
+         * Received parts after the contiguous prefix, by part number.
+         */
+        private final SortedMap<Integer, File> received = new TreeMap<>();
+
+        /**
+         * Contiguous parts, not merged yet.
+         */
+        private final List<File> prefix = new ArrayList<>();
+
+        /**
+         * Parts are appended byte by byte.
+         */
+        private final boolean append;
+
+        /**
+         * Output, parts before prefix are appended to,
+         * null if nothing is appended yet.
+         */
+        private File output;
+
+        /**
+         * Number of the first part after contiguous prefix.
+         */
+        private int nextIndex = 0;
+
+        private Rendition(int index, String format, boolean append) {
+            this.index = index;
+            this.format = format;
+            this.append = append;
+        }
+    }
+}
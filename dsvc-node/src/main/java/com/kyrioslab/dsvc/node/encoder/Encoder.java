@@ -6,12 +6,33 @@ package com.kyrioslab.dsvc.node.encoder;
  */
 
 import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
+import akka.actor.Address;
+import akka.actor.Cancellable;
 import akka.actor.UntypedActor;
+import akka.cluster.Cluster;
+import akka.cluster.ClusterEvent;
+import akka.cluster.Member;
 import akka.dispatch.OnComplete;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import com.kyrioslab.dsvc.node.client.Client;
 import com.kyrioslab.dsvc.node.messages.ClusterMessage;
 import com.kyrioslab.dsvc.node.EncodeProcessException;
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.kyrioslab.dsvc.node.metrics.StageMetrics;
+import com.kyrioslab.dsvc.node.transfer.ChunkReceiver;
+import com.kyrioslab.dsvc.node.transfer.ChunkSender;
+import com.kyrioslab.dsvc.node.transfer.PartRef;
+import com.kyrioslab.dsvc.node.transfer.PartStorage;
+import com.kyrioslab.dsvc.node.transfer.StorageSettings;
+import com.kyrioslab.dsvc.node.transfer.TransferSettings;
+import com.kyrioslab.dsvc.node.util.CancelToken;
+import com.kyrioslab.dsvc.node.util.PipeHandler;
+import com.kyrioslab.dsvc.node.util.ProcessResult;
+import com.kyrioslab.dsvc.node.util.ProgressFollower;
+import com.kyrioslab.dsvc.node.util.ProgressListener;
+import com.kyrioslab.dsvc.node.util.ProcessRunner;
 import com.kyrioslab.jffmpegw.attributes.AudioAttributes;
 import com.kyrioslab.jffmpegw.attributes.CommonAttributes;
 import com.kyrioslab.jffmpegw.attributes.VideoAttributes;
@@ -19,16 +40,25 @@ import com.kyrioslab.jffmpegw.command.BuilderException;
 import com.kyrioslab.jffmpegw.command.Command;
 import com.kyrioslab.jffmpegw.command.EncodeCommand;
 import com.kyrioslab.jffmpegw.command.EncodeCommandBuilder;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import scala.concurrent.Future;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
 import java.util.concurrent.Callable;
-
-import static akka.dispatch.Futures.future;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
 
 
 public class Encoder extends UntypedActor {
@@ -41,14 +71,117 @@ public class Encoder extends UntypedActor {
     public static final String ENCODE_RESULT = "r-";
 
     /**
-     * Temporary dir for encoded parts
+     * Directory for encoded parts on shared storage.
+     */
+    public static final String SHARED_RESULT_DIR = "encoded";
+
+    /**
+     * ffmpeg stdin and stdout.
+     */
+    public static final String PIPE_INPUT = "pipe:0";
+    public static final String PIPE_OUTPUT = "pipe:1";
+
+    /**
+     * Encoder settings.
+     */
+    private final EncoderSettings settings = EncoderSettings.get(getContext().system());
+
+    /**
+     * Chunked transfer settings.
      */
-    public static final String TMP_DIR = System.getProperty("java.io.tmpdir");
+    private final TransferSettings transferSettings =
+            TransferSettings.get(getContext().system());
 
     /**
-     * FFMPEG location
+     * Runs ffmpeg processes.
      */
-    public static final String FFMPEG_LOCATION = "ffmpeg";
+    private final ProcessRunner processRunner;
+
+    /**
+     * Storage of parts and encoded results.
+     */
+    private final PartStorage storage =
+            StorageSettings.get(getContext().system()).createStorage(settings.getTmpDir());
+
+    /**
+     * Runs ffmpeg for renditions of part, takes cached renditions.
+     */
+    private final PartEncoding encoding;
+
+    /**
+     * Parts on encoder, by incoming transfer id.
+     */
+    private final Map<String, EncodeTask> tasks = new HashMap<>();
+
+    /**
+     * Parts, which results are sending back, by result transfer id.
+     */
+    private final Map<String, EncodeTask> results = new HashMap<>();
+
+    /**
+     * Latency of stages, run by encoder.
+     */
+    private final StageMetrics metrics = StageMetrics.get(getContext().system());
+
+    /**
+     * Received parts, waiting for free slot, by transfer id.
+     */
+    private final Queue<String> readyQueue = new LinkedList<>();
+
+    /**
+     * Count of parts, encoding now.
+     */
+    private int running = 0;
+
+    /**
+     * Encoder actor instance id, reported to clients with free slots.
+     */
+    private final String epoch = UUID.randomUUID().toString();
+
+    /**
+     * Clients, pulling work from this encoder, by node address.
+     */
+    private final Map<Address, ActorSelection> clients = new HashMap<>();
+
+    /**
+     * Count of parts, received from client node.
+     */
+    private final Map<Address, Integer> received = new HashMap<>();
+
+    /**
+     * Generates tick messages for periodic free slots report.
+     */
+    private Cancellable clock;
+
+    public Encoder(ProcessRunner processRunner) {
+        this(processRunner, null);
+    }
+
+    public Encoder(ProcessRunner processRunner, PartCache cache) {
+        this.processRunner = processRunner;
+        this.encoding = new PartEncoding(processRunner, cache, metrics, log,
+                settings.getProgressInterval());
+    }
+
+    //subscribe to client nodes
+    @Override
+    public void preStart() {
+        Cluster.get(getContext().system()).subscribe(getSelf(),
+                ClusterEvent.initialStateAsEvents(),
+                ClusterEvent.MemberUp.class, ClusterEvent.MemberRemoved.class);
+
+        clock = getContext().system().scheduler().schedule(
+                settings.getReportInterval(),
+                settings.getReportInterval(),
+                getSelf(), new LocalMessage.TickMessage(),
+                getContext().dispatcher(), getSelf());
+    }
+
+    @Override
+    public void postStop() {
+        Cluster.get(getContext().system()).unsubscribe(getSelf());
+        clock.cancel();
+    }
 
     @Override
     public void onReceive(Object message) {
@@ -57,100 +190,518 @@ public class Encoder extends UntypedActor {
             final ClusterMessage.EncodeVideoPartMessage msg =
                     (ClusterMessage.EncodeVideoPartMessage) message;
 
-            log.info("Received part: {}", msg.getPartId());
+            log.info("Received part: {}, {} bytes", msg.getPartId(), msg.getLength());
 
-            final File src = Paths.get(TMP_DIR, msg.getPartId()).toFile();
+            Address clientNode = getSender().path().address();
+            Integer count = received.get(clientNode);
+            received.put(clientNode, count == null ? 1 : count + 1);
 
-            final ActorRef sender = getSender();
+            //part on shared storage is resolved before encoding
+            if (msg.getRef() != null) {
+                log.info("Part is on shared storage: {}", msg.getRef());
+                EncodeTask task = new EncodeTask(msg, getSender(), null);
+                task.readyTime = System.nanoTime();
+                tasks.put(msg.getTransferId(), task);
+                readyQueue.add(msg.getTransferId());
+                startNext();
+                return;
+            }
 
-            log.info("Saving part to file: {}", src.getAbsolutePath());
-            try {
-                FileUtils.writeByteArrayToFile(src, msg.getPayload());
-            } catch (IOException e) {
-                log.error("Error occurred while writing part to file: {}", src.getAbsolutePath());
-                ClusterMessage.EncodePartFailed failedMsg =
-                        new ClusterMessage.EncodePartFailed("IOException while saving part to file",
-                                msg.getPartId(),
-                                msg.getCommand());
-                getSender().tell(failedMsg, getSelf());
+            //streamable part is encoded while it is received
+            if (canPipe(msg)) {
+                log.info("Part is piped to encoder: {}", msg.getPartId());
+                EncodeTask task = new EncodeTask(msg, getSender(), null);
+                task.encoding = true;
+                running++;
+                tasks.put(msg.getTransferId(), task);
+                startPipe(msg.getTransferId(), task);
                 return;
             }
 
-            //start encoding process
-            Future<File> encodeFuture = future(new Callable<File>() {
-                public File call() throws Exception {
-                    try {
-                        return encode(src,
-                               msg.getCommand());
-                    } catch (BuilderException e) {
-                        e.printStackTrace();
-                        return null;
-                    }
+            //attempts of the same part are received to own files
+            final File src = Paths.get(settings.getTmpDir(),
+                    getPartFileName(msg.getTransferId(), msg.getPartId())).toFile();
+            tasks.put(msg.getTransferId(), new EncodeTask(msg, getSender(), src));
+
+            log.info("Receiving part to file: {}", src.getAbsolutePath());
+            getContext().actorOf(ChunkReceiver.props(msg.getTransferId(), src,
+                    msg.getLength(), getSender(), transferSettings), msg.getTransferId());
+
+        } else if (message instanceof ClusterMessage.TransferReady) {
+            ClusterMessage.TransferReady ready = (ClusterMessage.TransferReady) message;
+            ActorRef resultSender = getContext().getChild(ready.getTransferId());
+            if (resultSender != null) {
+                resultSender.forward(ready, getContext());
+            } else {
+                log.warning("Transfer ready for unknown transfer: {}", ready.getTransferId());
+            }
+        } else if (message instanceof LocalMessage.TransferCompleteMessage) {
+            LocalMessage.TransferCompleteMessage complete =
+                    (LocalMessage.TransferCompleteMessage) message;
+            final String transferId = complete.getTransferId();
+
+            final EncodeTask task = tasks.get(transferId);
+            if (task != null) {
+                metrics.recordNanos(StageMetrics.Stage.TRANSFER_OUT, complete.getTime());
+
+                //piped part is already encoding
+                if (!task.encoding) {
+                    task.readyTime = System.nanoTime();
+                    readyQueue.add(transferId);
+                    startNext();
                 }
-            }, getContext().dispatcher());
-
-            encodeFuture.onComplete(new OnComplete<File>() {
-                @Override
-                public void onComplete(Throwable failure, File encodedFile) throws Throwable {
-                    if (failure != null) {
-                        ClusterMessage.EncodePartFailed failedMsg =
-                                new ClusterMessage.EncodePartFailed("Exception while encoding part. "
-                                        + failure.getMessage(),
-                                        msg.getPartId(),
-                                        msg.getCommand());
-                        sender.tell(failedMsg, getSelf());
-                    } else {
-                        byte[] payload = FileUtils.readFileToByteArray(encodedFile);
-                        ClusterMessage.EncodeResultPartMessage resultMsg =
-                                new  ClusterMessage.EncodeResultPartMessage(msg.getPartId(),
-                                        payload,
-                                        msg.getCommand().getOutputFormat());
-                        sender.tell(resultMsg, getSelf());
-
-                        //remove tmp files
-                        if (!src.delete()) {
-                            log.warning("Cannot delete temporary file: {}", src.getAbsolutePath());
-                        }
-                        if (!encodedFile.delete()){
-                            log.warning("Cannot delete temporary file: {}", encodedFile.getAbsolutePath());
-                        }
+                return;
+            }
+
+            EncodeTask sent = results.remove(transferId);
+            if (sent != null) {
+                log.info("Result sent: {}", sent.msg.getPartId());
+                metrics.recordNanos(StageMetrics.Stage.TRANSFER_BACK, complete.getTime());
+
+                //the last rendition of the part is sent
+                if (!results.containsValue(sent)) {
+                    sent.cleanup();
+                }
+            }
+        } else if (message instanceof LocalMessage.TransferFailedMessage) {
+            LocalMessage.TransferFailedMessage failed = (LocalMessage.TransferFailedMessage) message;
+
+            EncodeTask task = tasks.get(failed.getTransferId());
+            if (task != null) {
+
+                //ffmpeg of piped part is killed, before its task is dropped
+                task.token.cancel();
+                tasks.remove(failed.getTransferId());
+                requestWork();
+            } else {
+                task = results.remove(failed.getTransferId());
+            }
+            if (task != null) {
+                task.fail("Part transfer failed. " + failed.getReason(), getSelf());
+
+                //stop sending other renditions of the part
+                cancel(task.msg.getTransferId());
+            }
+        } else if (message instanceof LocalMessage.PartEncodedMessage) {
+            LocalMessage.PartEncodedMessage encoded = (LocalMessage.PartEncodedMessage) message;
+
+            running--;
+            startNext();
+            EncodeTask task = tasks.remove(encoded.getTransferId());
+            requestWork();
+            if (task == null) {
+
+                //part was cancelled while encoding
+                for (File result : encoded.getEncoded()) {
+                    if (!result.delete()) {
+                        log.warning("Cannot delete temporary file: {}", result.getAbsolutePath());
                     }
                 }
-            }, getContext().dispatcher());
+                return;
+            }
+
+            //piped result is sent from memory
+            if (encoded.getData() != null) {
+                String resultTransferId = UUID.randomUUID().toString();
+                results.put(resultTransferId, task);
+                getContext().actorOf(ChunkSender.props(resultTransferId, encoded.getData(),
+                        transferSettings), resultTransferId);
+                task.client.tell(new ClusterMessage.EncodeResultPartMessage(resultTransferId,
+                        task.msg.getTransferId(), task.msg.getPartId(), encoded.getData().length,
+                        task.msg.getCommand().getOutputFormat()), getSelf());
+                return;
+            }
+
+            List<EncodeCommand> commands = task.msg.getCommands();
+            for (int i = 0; i < encoded.getEncoded().size(); i++) {
+                File result = encoded.getEncoded().get(i);
+                PartRef ref = encoded.getRefs().get(i);
+                String format = commands.get(i).getOutputFormat();
+                String resultTransferId = UUID.randomUUID().toString();
+
+                //result on shared storage is owned by client now
+                if (ref != null) {
+                    task.client.tell(new ClusterMessage.EncodeResultPartMessage(resultTransferId,
+                            task.msg.getTransferId(), task.msg.getPartId(), result.length(),
+                            format, ref, i), getSelf());
+                    continue;
+                }
+
+                //send result back by chunks
+                task.outputs.add(result);
+                results.put(resultTransferId, task);
+                getContext().actorOf(ChunkSender.props(resultTransferId, result,
+                        transferSettings), resultTransferId);
+                task.client.tell(new ClusterMessage.EncodeResultPartMessage(resultTransferId,
+                        task.msg.getTransferId(), task.msg.getPartId(), result.length(),
+                        format, null, i), getSelf());
+            }
+            if (task.outputs.isEmpty()) {
+                task.cleanup();
+            }
+        } else if (message instanceof LocalMessage.PipeStartedMessage) {
+            LocalMessage.PipeStartedMessage started = (LocalMessage.PipeStartedMessage) message;
+            EncodeTask task = tasks.get(started.getTransferId());
+            if (task == null) {
+
+                //part was cancelled before ffmpeg started, end its input
+                IOUtils.closeQuietly(started.getStdin());
+                return;
+            }
+            getContext().actorOf(ChunkReceiver.props(started.getTransferId(),
+                    started.getStdin(), task.msg.getLength(), task.client, transferSettings),
+                    started.getTransferId());
+        } else if (message instanceof ClusterMessage.CancelPartMessage) {
+            cancel(((ClusterMessage.CancelPartMessage) message).getTransferId());
+        } else if (message instanceof LocalMessage.PartEncodeFailedMessage) {
+            LocalMessage.PartEncodeFailedMessage failed = (LocalMessage.PartEncodeFailedMessage) message;
+
+            running--;
+            startNext();
+            EncodeTask task = tasks.remove(failed.getTransferId());
+            requestWork();
+
+            //piped part may be still receiving
+            stopChild(failed.getTransferId());
+            if (task != null) {
+                task.fail("Exception while encoding part. " + failed.getReason(), getSelf());
+            }
+        } else if (message instanceof LocalMessage.TickMessage) {
+            requestWork();
+        } else if (message instanceof ClusterEvent.MemberUp) {
+            Member member = ((ClusterEvent.MemberUp) message).member();
+            if (member.hasRole(Client.CLIENT_ROLE)) {
+                ActorSelection client = getContext().actorSelection(
+                        member.address().toString() + Client.CLIENT_PATH);
+                clients.put(member.address(), client);
+                client.tell(workRequest(member.address()), getSelf());
+            }
+        } else if (message instanceof ClusterEvent.MemberRemoved) {
+            Address node = ((ClusterEvent.MemberRemoved) message).member().address();
+            clients.remove(node);
+            received.remove(node);
         } else {
             unhandled(message);
         }
     }
 
-    protected File encode(File src,
-                          EncodeCommand command) throws BuilderException, EncodeProcessException {
+    /**
+     * Cancels part, which result is not needed anymore:
+     * stops receiving, or sending back, and removes files.
+     * ffmpeg of part, which is encoding now, is killed.
+     *
+     * @param transferId transfer id of the part
+     */
+    private void cancel(String transferId) {
+        EncodeTask task = tasks.remove(transferId);
+        if (task != null) {
+            task.token.cancel();
+            stopChild(transferId);
+            task.cleanup();
+            log.info("Part cancelled: {}", task.msg.getPartId());
+            requestWork();
+            return;
+        }
+
+        Iterator<Map.Entry<String, EncodeTask>> it = results.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, EncodeTask> e = it.next();
+            if (e.getValue().msg.getTransferId().equals(transferId)) {
+                it.remove();
+                stopChild(e.getKey());
+                e.getValue().cleanup();
+                log.info("Part result cancelled: {}", e.getValue().msg.getPartId());
+            }
+        }
+    }
+
+    /**
+     * Starts encoding of received parts, while there are free slots.
+     */
+    private void startNext() {
+        while (running < settings.getSlots() && !readyQueue.isEmpty()) {
+            String transferId = readyQueue.poll();
+            EncodeTask task = tasks.get(transferId);
+            if (task != null) {
+                running++;
+                task.encoding = true;
+                metrics.record(StageMetrics.Stage.QUEUE, task.readyTime);
+                startEncoding(transferId, task);
+            }
+        }
+    }
+
+    /**
+     * Reports free slots to all clients.
+     */
+    private void requestWork() {
+        for (Map.Entry<Address, ActorSelection> e : clients.entrySet()) {
+            e.getValue().tell(workRequest(e.getKey()), getSelf());
+        }
+    }
+
+    private ClusterMessage.WorkRequest workRequest(Address clientNode) {
+
+        //parts, cancelled while encoding, still hold slots
+        int held = running;
+        for (EncodeTask task : tasks.values()) {
+            if (!task.encoding) {
+                held++;
+            }
+        }
+        Integer count = received.get(clientNode);
+        return new ClusterMessage.WorkRequest(epoch,
+                Math.max(0, settings.getCapacity() - held),
+                count == null ? 0 : count);
+    }
+
+    private void stopChild(String name) {
+        ActorRef child = getContext().getChild(name);
+        if (child != null) {
+            getContext().stop(child);
+        }
+    }
+
+    private void startEncoding(final String transferId, final EncodeTask task) {
+
+        //start encoding process out of actor dispatcher
+        Future<LocalMessage.PartEncodedMessage> encodeFuture = processRunner.submit(
+                new Callable<LocalMessage.PartEncodedMessage>() {
+                    public LocalMessage.PartEncodedMessage call() throws Exception {
+                        File src = task.msg.getRef() != null
+                                ? storage.resolve(task.msg.getRef()) : task.src;
+                        List<File> encoded = encode(src, task.msg.getCommands(),
+                                storage.getOutputDir(SHARED_RESULT_DIR), transferId,
+                                progressListener(transferId, task), task.token);
+                        List<PartRef> refs = new ArrayList<>();
+                        for (File result : encoded) {
+                            refs.add(storage.export(result));
+                        }
+                        return new LocalMessage.PartEncodedMessage(transferId, encoded, refs);
+                    }
+                });
+
+        reportEncoding(transferId, encodeFuture);
+    }
+
+    /**
+     * Part can be piped to ffmpeg: it is sent by chunks, has one rendition
+     * of streamable formats, and a slot is free.
+     */
+    private boolean canPipe(ClusterMessage.EncodeVideoPartMessage msg) {
+        return settings.isPipeEnabled()
+                && msg.getRef() == null
+                && msg.getCommands().size() == 1
+                && running < settings.getSlots()
+                && readyQueue.isEmpty()
+                && settings.getPipeMuxer(msg.getCommand().getInputFormat()) != null
+                && settings.getPipeMuxer(msg.getCommand().getOutputFormat()) != null;
+    }
+
+    /**
+     * Starts ffmpeg, which reads part from stdin and writes result to stdout.
+     * Part chunks are received to stdin when process is started.
+     */
+    private void startPipe(final String transferId, final EncodeTask task) {
+        final ActorRef self = getSelf();
+        final EncodeCommand command = task.msg.getCommand();
+        final String muxer = settings.getPipeMuxer(command.getOutputFormat());
+
+        Future<LocalMessage.PartEncodedMessage> encodeFuture = processRunner.submit(
+                new Callable<LocalMessage.PartEncodedMessage>() {
+                    public LocalMessage.PartEncodedMessage call() throws Exception {
+                        command.setFfmpegLocation(settings.getFfmpeg());
+                        command.setInput(PIPE_INPUT);
+                        command.addAttribute("-f");
+                        command.addAttribute(muxer);
+                        command.addAttribute(PIPE_OUTPUT);
 
-        //form encode command
-        command.setFfmpegLocation(FFMPEG_LOCATION);
-        command.setInput(src.getAbsolutePath());
+                        final PipeOutput output = new PipeOutput(settings.getPipeMaxOutput(),
+                                new File(settings.getTmpDir(), getResultFileName(transferId,
+                                        command.getOutputFormat())));
+                        List<String> args = new ArrayList<>(command.getCommand());
+                        File progressFile = progressFile(transferId);
+                        ProgressFollower follower = encoding.addProgress(args, progressFile,
+                                progressListener(transferId, task));
+                        ProcessResult result;
+                        long start = System.nanoTime();
+                        try {
+                            result = processRunner.pipe(args, new File(settings.getTmpDir()),
+                                    processRunner.getTimeout(), follower, new PipeHandler() {
+                                        @Override
+                                        public void started(OutputStream stdin) {
+                                            self.tell(new LocalMessage.PipeStartedMessage(
+                                                    transferId, stdin), self);
+                                        }
 
-        String resultName = getResultFileName(src.getName(), command.getOutputFormat());
-        command.addAttribute(resultName);
+                                        @Override
+                                        public void output(InputStream stdout)
+                                                throws IOException {
+                                            output.read(stdout);
+                                        }
+                                    }, task.token);
+                        } catch (TimeoutException | IOException | InterruptedException e) {
+                            output.discard();
+                            if (e instanceof TimeoutException) {
+                                metrics.timeout();
+                            }
+                            throw new EncodeProcessException(e.getMessage());
+                        } catch (CancellationException e) {
+                            output.discard();
+                            throw e;
+                        } finally {
+                            encoding.endProgress(follower, progressFile);
+                        }
+                        metrics.record(StageMetrics.Stage.ENCODE, start);
+                        if (!result.isSuccess()) {
+                            output.discard();
+                            throw new EncodeProcessException(result.getOutput());
+                        }
+                        return output.getFile() != null
+                                ? new LocalMessage.PartEncodedMessage(transferId, output.getFile())
+                                : new LocalMessage.PartEncodedMessage(transferId, output.getData());
+                    }
+                });
 
-        //start encode process
-        try {
-            Process p = new ProcessBuilder(command.getCommand())
-                    .directory(new File(TMP_DIR)).start();
-            if (p.waitFor() != 0) {
-                throw new EncodeProcessException(IOUtils.toString(p.getErrorStream()));
+        reportEncoding(transferId, encodeFuture);
+    }
+
+    /**
+     * Sends encoding result to self.
+     */
+    private void reportEncoding(final String transferId,
+                                Future<LocalMessage.PartEncodedMessage> encodeFuture) {
+        final ActorRef self = getSelf();
+        encodeFuture.onComplete(new OnComplete<LocalMessage.PartEncodedMessage>() {
+            @Override
+            public void onComplete(Throwable failure, LocalMessage.PartEncodedMessage encoded)
+                    throws Throwable {
+                if (failure != null) {
+                    self.tell(new LocalMessage.PartEncodeFailedMessage(transferId,
+                            failure.getMessage()), self);
+                } else {
+                    self.tell(encoded, self);
+                }
             }
-        } catch (IOException e) {
-            log.error("IOException while encode process: {}", e.getMessage());
-            throw new EncodeProcessException(e.getMessage());
-        } catch (InterruptedException e) {
-            log.error("Encode process interrupted: {}", e.getMessage());
-            throw new EncodeProcessException(e.getMessage());
+        }, getContext().dispatcher());
+    }
+
+    /**
+     * Encodes part to every rendition by {@link PartEncoding}.
+     *
+     * @param src       source part
+     * @param commands  encode command of every rendition
+     * @param outputDir directory for results
+     * @param name      unique name of results
+     * @param listener  progress listener, may be null
+     * @param token     kills ffmpeg, when part is cancelled
+     * @return encoded part of every rendition
+     */
+    protected List<File> encode(File src, List<EncodeCommand> commands, File outputDir,
+                                String name, ProgressListener listener, CancelToken token)
+            throws BuilderException, EncodeProcessException {
+        List<List<String>> args = new ArrayList<>();
+        List<File> resultFiles = new ArrayList<>();
+        for (int i = 0; i < commands.size(); i++) {
+
+            //form encode command
+            EncodeCommand command = commands.get(i);
+            command.setFfmpegLocation(settings.getFfmpeg());
+            command.setInput(src.getAbsolutePath());
+
+            String resultName = getResultFileName(i == 0 ? name : name + "-" + i,
+                    command.getOutputFormat());
+            command.addAttribute(resultName);
+            args.add(command.getCommand());
+            resultFiles.add(new File(outputDir, resultName));
         }
 
-        return Paths.get(TMP_DIR, resultName).toFile();
+        encoding.encode(src, args, resultFiles, outputDir, progressFile(name), listener, token);
+        return resultFiles;
+    }
+
+    private File progressFile(String name) {
+        return new File(settings.getTmpDir(), "p-" + name + ".txt");
+    }
+
+    /**
+     * @return listener, which reports progress of the part attempt to client
+     */
+    private ProgressListener progressListener(final String transferId, final EncodeTask task) {
+        final ActorRef self = getSelf();
+        return new ProgressListener() {
+            @Override
+            public void onProgress(long frame, double fps, double speed, long outTime,
+                                   boolean end) {
+                task.client.tell(new ClusterMessage.PartProgress(transferId,
+                        task.msg.getPartId(), frame, fps, speed, outTime), self);
+            }
+        };
+    }
+
+    /**
+     * @return name of received part: transfer id with extension of the part
+     */
+    private String getPartFileName(String transferId, String partId) {
+        int dot = partId.lastIndexOf('.');
+        return dot < 0 ? transferId : transferId + partId.substring(dot);
     }
 
-    private String getResultFileName(String fileName, String format) {
-        return ENCODE_RESULT + fileName.substring(0, fileName.indexOf(".")) + "." + format;
+    private String getResultFileName(String name, String format) {
+        return ENCODE_RESULT + name + "." + format;
+    }
+
+    /**
+     * Part on encoder: received source, encoded result
+     * and client to reply.
+     */
+    private class EncodeTask {
+
+        private final ClusterMessage.EncodeVideoPartMessage msg;
+        private final ActorRef client;
+        private final File src;
+        private boolean encoding = false;
+
+        /**
+         * Kills ffmpeg of the part, when it is cancelled.
+         */
+        private final CancelToken token = new CancelToken();
+
+        /**
+         * Time part is ready for encoding, System.nanoTime().
+         */
+        private long readyTime;
+
+        /**
+         * Encoded renditions, being sent back.
+         */
+        private final List<File> outputs = new ArrayList<>();
+
+        private EncodeTask(ClusterMessage.EncodeVideoPartMessage msg, ActorRef client, File src) {
+            this.msg = msg;
+            this.client = client;
+            this.src = src;
+        }
+
+        private void fail(String reason, ActorRef self) {
+            log.error("Part {} failed: {}", msg.getPartId(), reason);
+            client.tell(new ClusterMessage.EncodePartFailed(reason,
+                    msg.getPartId(),
+                    msg.getCommand(),
+                    msg.getTransferId()), self);
+            cleanup();
+        }
+
+        //remove tmp files, part on shared storage is owned by client
+        private void cleanup() {
+            if (src != null && src.exists() && !src.delete()) {
+                log.warning("Cannot delete temporary file: {}", src.getAbsolutePath());
+            }
+            for (File result : outputs) {
+                if (result.exists() && !result.delete()) {
+                    log.warning("Cannot delete temporary file: {}", result.getAbsolutePath());
+                }
+            }
+        }
     }
 }
@@ -2,9 +2,11 @@ package com.kyrioslab.dsvc.node.encoder;
 
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import com.kyrioslab.dsvc.node.util.ProcessRunner;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -37,8 +39,28 @@ public class EncoderMain {
                .withFallback(ConfigFactory.load("encode_system"));
 
         ActorSystem system = ActorSystem.create("EncodeSystem", config);
-        system.actorOf(Props.create(Encoder.class), "videoEncoder");
 
-        system.actorOf(Props.create(Encoder.class), "metricsListener");
+        final ProcessRunner processRunner = new ProcessRunner(config);
+        system.registerOnTermination(new Runnable() {
+            @Override
+            public void run() {
+                processRunner.shutdown();
+            }
+        });
+
+        EncoderSettings settings = EncoderSettings.get(system);
+        PartCache cache = null;
+        if (settings.isCacheEnabled()) {
+            try {
+                cache = new PartCache(settings.getCacheDir(settings.getTmpDir()),
+                        settings.getCacheMaxSize());
+            } catch (IOException e) {
+                system.log().warning("Encoded parts cache disabled: {}", e.getMessage());
+            }
+        }
+
+        system.actorOf(cache == null
+                ? Props.create(Encoder.class, processRunner)
+                : Props.create(Encoder.class, processRunner, cache), "videoEncoder");
     }
 }
@@ -0,0 +1,171 @@
+package com.kyrioslab.dsvc.node.encoder;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoder settings, read from <code>dsvc.encoder</code>
+ * section of the configuration.
+ */
+public class EncoderSettings {
+
+    public static final String CONFIG_PATH = "dsvc.encoder";
+
+    /**
+     * ffmpeg executable.
+     */
+    private final String ffmpeg;
+
+    /**
+     * Directory of received parts and encoded results.
+     */
+    private final String tmpDir;
+
+    /**
+     * Count of parts, encoded at once.
+     */
+    private final int slots;
+
+    /**
+     * Count of parts, received ahead while slots are busy.
+     */
+    private final int prefetch;
+
+    /**
+     * How often free slots are reported to clients
+     * besides reports on part completion.
+     */
+    private final FiniteDuration reportInterval;
+
+    /**
+     * Cache encoded parts.
+     */
+    private final boolean cacheEnabled;
+
+    /**
+     * Directory of cached parts.
+     */
+    private final String cacheDir;
+
+    /**
+     * Max total size of cached parts in bytes.
+     */
+    private final long cacheMaxSize;
+
+    /**
+     * Min interval between progress reports of the part, ms. 0 disables reports.
+     */
+    private final long progressInterval;
+
+    /**
+     * Pipe parts of streamable formats through ffmpeg stdin and stdout.
+     */
+    private final boolean pipeEnabled;
+
+    /**
+     * ffmpeg muxer names by streamable format.
+     */
+    private final Map<String, String> pipeFormats = new HashMap<>();
+
+    /**
+     * Max size of piped output, kept in memory.
+     */
+    private final long pipeMaxOutput;
+
+    public EncoderSettings(Config config) {
+        Config c = config.getConfig(CONFIG_PATH);
+        this.ffmpeg = c.getString("ffmpeg");
+        String dir = c.getString("tmp-dir");
+        this.tmpDir = dir.isEmpty() ? System.getProperty("java.io.tmpdir") : dir;
+        this.slots = c.getInt("slots");
+        this.prefetch = c.getInt("prefetch");
+        this.reportInterval = FiniteDuration.create(
+                c.getDuration("report-interval", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        this.cacheEnabled = c.getBoolean("cache.enabled");
+        this.cacheDir = c.getString("cache.dir");
+        this.cacheMaxSize = c.getBytes("cache.max-size");
+        this.progressInterval = c.getDuration("progress-interval", TimeUnit.MILLISECONDS);
+        this.pipeEnabled = c.getBoolean("pipe.enabled");
+        Config formats = c.getConfig("pipe.formats");
+        for (String format : formats.root().keySet()) {
+            pipeFormats.put(format, formats.getString(format));
+        }
+        this.pipeMaxOutput = c.getBytes("pipe.max-output");
+
+        if (slots <= 0 || prefetch < 0) {
+            throw new IllegalArgumentException("Slots must be positive, prefetch not negative");
+        }
+    }
+
+    public static EncoderSettings get(ActorSystem system) {
+        return new EncoderSettings(system.settings().config());
+    }
+
+    public String getFfmpeg() {
+        return ffmpeg;
+    }
+
+    public String getTmpDir() {
+        return tmpDir;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public FiniteDuration getReportInterval() {
+        return reportInterval;
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    /**
+     * @return cache directory, relative to temporary dir if not absolute
+     */
+    public File getCacheDir(String tmpDir) {
+        File dir = new File(cacheDir);
+        return dir.isAbsolute() ? dir : new File(tmpDir, cacheDir);
+    }
+
+    public long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    public boolean isPipeEnabled() {
+        return pipeEnabled;
+    }
+
+    /**
+     * @return ffmpeg muxer of the format, null if format cannot be piped
+     */
+    public String getPipeMuxer(String format) {
+        return format == null ? null : pipeFormats.get(format);
+    }
+
+    public long getPipeMaxOutput() {
+        return pipeMaxOutput;
+    }
+
+    /**
+     * @return count of parts encoder holds at once
+     */
+    public int getCapacity() {
+        return slots + prefetch;
+    }
+}
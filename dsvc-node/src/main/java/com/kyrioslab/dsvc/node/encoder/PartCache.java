@@ -0,0 +1,191 @@
+package com.kyrioslab.dsvc.node.encoder;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoded parts on disk, keyed by hash of source part bytes and
+ * encode command. Least recently used results are evicted when
+ * total size exceeds the limit. Cached files are hard linked
+ * (or copied) in and out, so eviction does not affect results
+ * being sent.
+ * <p/>
+ * Used from encoding threads, methods are synchronized.
+ */
+public class PartCache {
+
+    /**
+     * Placeholders for paths in normalized command.
+     */
+    private static final String INPUT = "{input}";
+    private static final String OUTPUT = "{output}";
+
+    private final File dir;
+
+    private final long maxSize;
+
+    /**
+     * Cached file sizes by key, in access order.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    public PartCache(File dir, long maxSize) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + dir.getAbsolutePath());
+        }
+        load();
+    }
+
+    /**
+     * Restores entries left by previous run, older files are evicted first.
+     */
+    private void load() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File f : files) {
+            if (f.isFile() && !f.getName().startsWith(".")) {
+                entries.put(f.getName(), f.length());
+                size += f.length();
+            } else if (f.isFile()) {
+
+                //unfinished put
+                f.delete();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Cache key of the part encoding. Paths of input and output
+     * are replaced in command, so the same command on other part
+     * file gives the same key.
+     *
+     * @param src        source part
+     * @param command    encode command
+     * @param resultName output file name in command
+     */
+    public static String key(File src, List<String> command, String resultName)
+            throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putBytes(com.google.common.io.Files.asByteSource(src)
+                .hash(Hashing.sha256()).asBytes());
+        for (String arg : command) {
+            if (arg.equals(src.getAbsolutePath())) {
+                arg = INPUT;
+            } else if (arg.equals(resultName)) {
+                arg = OUTPUT;
+            }
+            hasher.putString(arg, StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Places cached result to target file.
+     *
+     * @return false if result is not cached
+     */
+    public synchronized boolean get(String key, File target) {
+
+        //lookup by get marks entry as recently used
+        if (entries.get(key) == null) {
+            misses++;
+            return false;
+        }
+        try {
+            Files.deleteIfExists(target.toPath());
+            linkOrCopy(new File(dir, key), target);
+            hits++;
+            return true;
+        } catch (IOException e) {
+
+            //cached file is lost
+            remove(key);
+            misses++;
+            return false;
+        }
+    }
+
+    /**
+     * Stores encoded result, result file stays in place.
+     */
+    public synchronized void put(String key, File result) throws IOException {
+        long length = result.length();
+        if (entries.containsKey(key) || length > maxSize) {
+            return;
+        }
+        File tmp = new File(dir, "." + key);
+        linkOrCopy(result, tmp);
+        Files.move(tmp.toPath(), new File(dir, key).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries.put(key, length);
+        size += length;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            Map.Entry<String, Long> e = eldest.next();
+            eldest.remove();
+            size -= e.getValue();
+            new File(dir, e.getKey()).delete();
+        }
+    }
+
+    private void remove(String key) {
+        Long length = entries.remove(key);
+        if (length != null) {
+            size -= length;
+            new File(dir, key).delete();
+        }
+    }
+
+    private static void linkOrCopy(File from, File to) throws IOException {
+        try {
+            Files.createLink(to.toPath(), from.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
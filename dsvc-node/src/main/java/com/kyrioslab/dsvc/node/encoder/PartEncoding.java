@@ -0,0 +1,185 @@
+package com.kyrioslab.dsvc.node.encoder;
+
+import akka.event.LoggingAdapter;
+import com.kyrioslab.dsvc.node.EncodeProcessException;
+import com.kyrioslab.dsvc.node.metrics.StageMetrics;
+import com.kyrioslab.dsvc.node.util.CancelToken;
+import com.kyrioslab.dsvc.node.util.ProcessResult;
+import com.kyrioslab.dsvc.node.util.ProcessRunner;
+import com.kyrioslab.dsvc.node.util.ProgressFollower;
+import com.kyrioslab.dsvc.node.util.ProgressListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Encodes one part to its renditions by ffmpeg, for {@link Encoder}
+ * and for local encoder of client node. Renditions, which are not
+ * cached, are encoded by one process with several outputs, so part
+ * is decoded once. Progress of the process is followed and encode
+ * latency is recorded.
+ * <p/>
+ * Used from encoding threads, it keeps no state of parts.
+ */
+public class PartEncoding {
+
+    private final ProcessRunner processRunner;
+
+    /**
+     * Encoded parts cache, null if disabled.
+     */
+    private final PartCache cache;
+
+    private final StageMetrics metrics;
+
+    private final LoggingAdapter log;
+
+    /**
+     * Min interval between progress reports, ms, 0 disables reports.
+     */
+    private final long progressInterval;
+
+    public PartEncoding(ProcessRunner processRunner, PartCache cache, StageMetrics metrics,
+                        LoggingAdapter log, long progressInterval) {
+        this.processRunner = processRunner;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.log = log;
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * @param src          source part
+     * @param commands     arguments of every rendition command, input is
+     *                     source path, output is name of its result
+     * @param results      result of every rendition, in output directory
+     * @param outputDir    working directory of ffmpeg
+     * @param progressFile progress output of ffmpeg
+     * @param listener     progress listener, may be null
+     * @param token        kills ffmpeg, when part is cancelled
+     */
+    public void encode(File src, List<List<String>> commands, List<File> results,
+                       File outputDir, File progressFile, ProgressListener listener,
+                       CancelToken token) throws EncodeProcessException {
+        List<String> cacheKeys = new ArrayList<>();
+        List<List<String>> missing = new ArrayList<>();
+        try {
+            for (int i = 0; i < commands.size(); i++) {
+                String cacheKey = null;
+                if (cache != null) {
+                    cacheKey = PartCache.key(src, commands.get(i), results.get(i).getName());
+                    if (cache.get(cacheKey, results.get(i))) {
+                        log.info("Part taken from cache: {}, rendition {}", src.getName(), i);
+                        cacheKeys.add(null);
+                        continue;
+                    }
+                }
+                cacheKeys.add(cacheKey);
+                missing.add(commands.get(i));
+            }
+
+            for (List<String> command : combine(src.getAbsolutePath(), missing)) {
+
+                //progress of the first process, it encodes all renditions usually
+                ProgressFollower follower = addProgress(command, progressFile, listener);
+                listener = null;
+                ProcessResult result;
+                long start = System.nanoTime();
+                try {
+                    result = processRunner.run(command, outputDir,
+                            processRunner.getTimeout(), follower, token);
+                } finally {
+                    endProgress(follower, progressFile);
+                }
+                metrics.record(StageMetrics.Stage.ENCODE, start);
+                if (!result.isSuccess()) {
+                    throw new EncodeProcessException(result.getOutput());
+                }
+            }
+
+            for (int i = 0; i < cacheKeys.size(); i++) {
+                if (cacheKeys.get(i) != null) {
+                    try {
+                        cache.put(cacheKeys.get(i), results.get(i));
+                    } catch (IOException e) {
+                        log.warning("Cannot cache encoded part {}: {}",
+                                results.get(i).getName(), e.getMessage());
+                    }
+                }
+            }
+        } catch (TimeoutException e) {
+            metrics.timeout();
+            log.error("Encode process timed out: {}", e.getMessage());
+            throw new EncodeProcessException("Encode process timed out: " + e.getMessage());
+        } catch (IOException e) {
+            log.error("IOException while encode process: {}", e.getMessage());
+            throw new EncodeProcessException(e.getMessage());
+        } catch (InterruptedException e) {
+            log.error("Encode process interrupted: {}", e.getMessage());
+            throw new EncodeProcessException("Encode process interrupted: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds progress output to ffmpeg command.
+     *
+     * @return follower of progress file, null if progress is not reported
+     */
+    public ProgressFollower addProgress(List<String> command, File progressFile,
+                                        ProgressListener listener) {
+        if (listener == null || progressInterval <= 0) {
+            return null;
+        }
+
+        //global option, goes before inputs
+        command.addAll(1, Arrays.asList("-progress", progressFile.getAbsolutePath()));
+        return new ProgressFollower(progressFile, progressInterval, listener);
+    }
+
+    /**
+     * Reports the last progress block and removes progress file.
+     */
+    public void endProgress(ProgressFollower follower, File progressFile) {
+        if (follower == null) {
+            return;
+        }
+        try {
+            follower.poll();
+        } catch (IOException e) {
+            log.warning("Cannot read progress file {}: {}", progressFile.getAbsolutePath(),
+                    e.getMessage());
+        }
+        if (progressFile.exists() && !progressFile.delete()) {
+            log.warning("Cannot delete temporary file: {}", progressFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Joins rendition commands into one ffmpeg command with several
+     * outputs: output options and output of other renditions follow
+     * the first command. Command without input argument runs separately.
+     *
+     * @param src input argument of commands
+     * @return commands to run
+     */
+    public static List<List<String>> combine(String src, List<List<String>> commands) {
+        List<List<String>> result = new ArrayList<>();
+        List<String> joined = null;
+        for (List<String> command : commands) {
+            int input = command.indexOf(src);
+            if (input < 0) {
+                result.add(new ArrayList<>(command));
+            } else if (joined == null) {
+                joined = new ArrayList<>(command);
+                result.add(joined);
+            } else {
+                joined.addAll(command.subList(input + 1, command.size()));
+            }
+        }
+        return result;
+    }
+}
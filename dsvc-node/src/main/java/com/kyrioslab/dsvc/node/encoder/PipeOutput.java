@@ -0,0 +1,80 @@
+package com.kyrioslab.dsvc.node.encoder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encoded part, read from ffmpeg stdout. Output is kept in memory
+ * up to the limit, larger output is written to file. Output is read
+ * to the end before it is sent back, it is not streamed.
+ */
+public class PipeOutput {
+
+    private final long maxMemory;
+
+    private final File file;
+
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+    private boolean spilled = false;
+
+    /**
+     * @param maxMemory max output size, kept in memory
+     * @param file      file for larger output
+     */
+    public PipeOutput(long maxMemory, File file) {
+        this.maxMemory = maxMemory;
+        this.file = file;
+    }
+
+    /**
+     * Reads output to the end.
+     */
+    public void read(InputStream in) throws IOException {
+        byte[] buf = new byte[8192];
+        OutputStream out = memory;
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                if (!spilled && memory.size() + n > maxMemory) {
+                    out = new BufferedOutputStream(new FileOutputStream(file));
+                    spilled = true;
+                    memory.writeTo(out);
+                    memory = null;
+                }
+                out.write(buf, 0, n);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return output in memory, null if output is written to file
+     */
+    public byte[] getData() {
+        return spilled ? null : memory.toByteArray();
+    }
+
+    /**
+     * @return output file, null if output is in memory
+     */
+    public File getFile() {
+        return spilled ? file : null;
+    }
+
+    /**
+     * Drops output of failed process.
+     */
+    public void discard() {
+        memory = null;
+        if (spilled) {
+            file.delete();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.kyrioslab.dsvc.node.messages;
 
+import com.kyrioslab.dsvc.node.transfer.PartRef;
 import com.kyrioslab.jffmpegw.attributes.Attributes;
 import com.kyrioslab.jffmpegw.attributes.AudioAttributes;
 import com.kyrioslab.jffmpegw.attributes.CommonAttributes;
@@ -7,6 +8,9 @@ import com.kyrioslab.jffmpegw.attributes.VideoAttributes;
 import com.kyrioslab.jffmpegw.command.EncodeCommand;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by Ivan Kirilyuk on 29.12.14.
@@ -15,43 +19,130 @@ import java.io.Serializable;
  */
 public interface ClusterMessage {
 
+    /**
+     * Part header, sent through the router. Part data follows
+     * as {@link PartChunk} messages after {@link TransferReady},
+     * unless part is referenced on shared storage.
+     */
     public static class EncodeVideoPartMessage implements Serializable{
 
+        private final String transferId;
         private final String partId;
-        private final byte[] payload;
+        private final long length;
 
-        private final EncodeCommand command;
+        /**
+         * Encode command of every rendition, part is decoded once
+         * for all of them.
+         */
+        private final List<EncodeCommand> commands;
+
+        /**
+         * Part on shared storage, null if part is sent by chunks.
+         */
+        private final PartRef ref;
 
-        public EncodeVideoPartMessage(String partId, byte[] payload,
+        public EncodeVideoPartMessage(String transferId, String partId, long length,
                                       EncodeCommand command) {
+            this(transferId, partId, length, command, null);
+        }
+
+        public EncodeVideoPartMessage(String transferId, String partId, long length,
+                                      EncodeCommand command, PartRef ref) {
+            this(transferId, partId, length, Collections.singletonList(command), ref);
+        }
+
+        public EncodeVideoPartMessage(String transferId, String partId, long length,
+                                      List<EncodeCommand> commands, PartRef ref) {
+            this.transferId = transferId;
             this.partId = partId;
-            this.payload = payload.clone();
-            this.command = command;
+            this.length = length;
+            this.commands = commands;
+            this.ref = ref;
+        }
+
+        public String getTransferId() {
+            return transferId;
         }
 
         public String getPartId() {
             return partId;
         }
 
-        public byte[] getPayload() {
-            return payload;
+        public long getLength() {
+            return length;
         }
 
+        /**
+         * @return command of the first rendition
+         */
         public EncodeCommand getCommand() {
-            return command;
+            return commands.get(0);
+        }
+
+        public List<EncodeCommand> getCommands() {
+            return commands;
+        }
+
+        public PartRef getRef() {
+            return ref;
         }
     }
 
+    /**
+     * Encoded part header, sent back to client. Encoded data follows
+     * as {@link PartChunk} messages after {@link TransferReady},
+     * unless result is referenced on shared storage.
+     */
     public static class EncodeResultPartMessage implements Serializable{
 
+        private final String transferId;
+        private final String partTransferId;
         private final String format;
         private final String partId;
-        private final byte[] payload;
+        private final long length;
+
+        /**
+         * Result on shared storage, null if result is sent by chunks.
+         */
+        private final PartRef ref;
 
-        public EncodeResultPartMessage(String partId, byte[] payload, String format) {
+        /**
+         * Index of rendition command.
+         */
+        private final int rendition;
+
+        public EncodeResultPartMessage(String transferId, String partTransferId,
+                                       String partId, long length, String format) {
+            this(transferId, partTransferId, partId, length, format, null);
+        }
+
+        public EncodeResultPartMessage(String transferId, String partTransferId,
+                                       String partId, long length, String format,
+                                       PartRef ref) {
+            this(transferId, partTransferId, partId, length, format, ref, 0);
+        }
+
+        public EncodeResultPartMessage(String transferId, String partTransferId,
+                                       String partId, long length, String format,
+                                       PartRef ref, int rendition) {
+            this.transferId = transferId;
+            this.partTransferId = partTransferId;
             this.format = format;
             this.partId = partId;
-            this.payload = payload;
+            this.length = length;
+            this.ref = ref;
+            this.rendition = rendition;
+        }
+
+        public String getTransferId() {
+            return transferId;
+        }
+
+        /**
+         * @return transfer id of the encoded part
+         */
+        public String getPartTransferId() {
+            return partTransferId;
         }
 
         public String getFormat() {
@@ -62,8 +153,238 @@ public interface ClusterMessage {
             return partId;
         }
 
-        public byte[] getPayload() {
-            return payload;
+        public long getLength() {
+            return length;
+        }
+
+        public PartRef getRef() {
+            return ref;
+        }
+
+        public int getRendition() {
+            return rendition;
+        }
+    }
+
+    /**
+     * Sent by receiving side when it is ready to accept chunks.
+     * Sender of this message is the chunks destination.
+     */
+    public static class TransferReady implements Serializable {
+
+        private final String transferId;
+
+        public TransferReady(String transferId) {
+            this.transferId = transferId;
+        }
+
+        public String getTransferId() {
+            return transferId;
+        }
+    }
+
+    /**
+     * Piece of transferred file. Chunk data is a range of array, so
+     * deserialized chunk refers to its frame and is not copied.
+     */
+    public static class PartChunk implements Serializable {
+
+        private final String transferId;
+        private final int seq;
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+        private final boolean last;
+
+        public PartChunk(String transferId, int seq, byte[] data, boolean last) {
+            this(transferId, seq, data, 0, data.length, last);
+        }
+
+        public PartChunk(String transferId, int seq, byte[] data, int offset, int length,
+                         boolean last) {
+            this.transferId = transferId;
+            this.seq = seq;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.last = last;
+        }
+
+        public String getTransferId() {
+            return transferId;
+        }
+
+        public int getSeq() {
+            return seq;
+        }
+
+        /**
+         * @return array, which holds chunk data from offset
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return chunk data, without copy
+         */
+        public ByteBuffer getBuffer() {
+            return ByteBuffer.wrap(data, offset, length);
+        }
+
+        public boolean isLast() {
+            return last;
+        }
+    }
+
+    /**
+     * Acknowledges all chunks up to seq inclusive.
+     */
+    public static class PartChunkAck implements Serializable {
+
+        private final String transferId;
+        private final int seq;
+
+        public PartChunkAck(String transferId, int seq) {
+            this.transferId = transferId;
+            this.seq = seq;
+        }
+
+        public String getTransferId() {
+            return transferId;
+        }
+
+        public int getSeq() {
+            return seq;
+        }
+    }
+
+    /**
+     * Encoding progress of the part attempt, sent by encoder
+     * to client periodically while part is encoding.
+     */
+    public static class PartProgress implements Serializable {
+
+        private final String transferId;
+        private final String partId;
+
+        /**
+         * Count of encoded frames.
+         */
+        private final long frame;
+
+        /**
+         * Encoding frame rate.
+         */
+        private final double fps;
+
+        /**
+         * Encoding speed, relative to playback.
+         */
+        private final double speed;
+
+        /**
+         * Encoded media time, ms.
+         */
+        private final long outTime;
+
+        public PartProgress(String transferId, String partId, long frame, double fps,
+                            double speed, long outTime) {
+            this.transferId = transferId;
+            this.partId = partId;
+            this.frame = frame;
+            this.fps = fps;
+            this.speed = speed;
+            this.outTime = outTime;
+        }
+
+        /**
+         * @return transfer id of the part attempt
+         */
+        public String getTransferId() {
+            return transferId;
+        }
+
+        public String getPartId() {
+            return partId;
+        }
+
+        public long getFrame() {
+            return frame;
+        }
+
+        public double getFps() {
+            return fps;
+        }
+
+        public double getSpeed() {
+            return speed;
+        }
+
+        public long getOutTime() {
+            return outTime;
+        }
+    }
+
+    /**
+     * Sent by encoder to clients in work pulling mode, when
+     * it has free slots for parts.
+     */
+    public static class WorkRequest implements Serializable {
+
+        private final String epoch;
+        private final int free;
+        private final int received;
+
+        /**
+         * @param epoch    encoder actor instance id
+         * @param free     count of free slots
+         * @param received count of parts, received from the client
+         */
+        public WorkRequest(String epoch, int free, int received) {
+            this.epoch = epoch;
+            this.free = free;
+            this.received = received;
+        }
+
+        public String getEpoch() {
+            return epoch;
+        }
+
+        public int getFree() {
+            return free;
+        }
+
+        public int getReceived() {
+            return received;
+        }
+    }
+
+    /**
+     * Cancels part attempt on encoder, sent when other
+     * attempt of the part is already received.
+     */
+    public static class CancelPartMessage implements Serializable {
+
+        private final String transferId;
+
+        /**
+         * @param transferId transfer id of the part
+         */
+        public CancelPartMessage(String transferId) {
+            this.transferId = transferId;
+        }
+
+        public String getTransferId() {
+            return transferId;
         }
     }
 
@@ -72,12 +393,19 @@ public interface ClusterMessage {
         private final String reason;
         private final String partId;
         private final EncodeCommand command;
+        private final String transferId;
 
         public EncodePartFailed(String reason, String partId,
                                 EncodeCommand command) {
+            this(reason, partId, command, null);
+        }
+
+        public EncodePartFailed(String reason, String partId,
+                                EncodeCommand command, String transferId) {
             this.reason = reason;
             this.partId = partId;
             this.command = command;
+            this.transferId = transferId;
         }
 
         public String getReason() {
@@ -92,6 +420,13 @@ public interface ClusterMessage {
             return command;
         }
 
+        /**
+         * @return transfer id of failed part, null if unknown
+         */
+        public String getTransferId() {
+            return transferId;
+        }
+
         @Override
         public String toString() {
             return "EncodePartJobFailed(" + reason + ")" + ", part id:" + partId;
@@ -0,0 +1,354 @@
+package com.kyrioslab.dsvc.node.messages;
+
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.JSerializer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.kyrioslab.dsvc.node.metrics.StageMetrics;
+import com.kyrioslab.dsvc.node.transfer.PartRef;
+import com.kyrioslab.jffmpegw.command.EncodeCommand;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary serializer of {@link ClusterMessage} types.
+ * <p/>
+ * Frame is schema version, message tag and message fields. Strings and
+ * byte arrays are written as int length (-1 for null) and bytes, chunk
+ * data is written into exactly sized frame with no intermediate buffers,
+ * received chunk refers to its frame.
+ * <p/>
+ * Newer schema version only appends fields to the end of message frames,
+ * so nodes of different versions talk during rolling upgrade: reader
+ * ignores trailing fields, it does not know, and reads fields of newer
+ * version only from frames of that version. New message types are not
+ * readable by older nodes and must not be sent to them.
+ * {@link EncodeCommand} is serialized by java serialization, once per
+ * command instance on sending side, every part of a job has the same
+ * rendition commands.
+ * <p/>
+ * Serialization time of every message is recorded to node metrics.
+ */
+public class ClusterMessageSerializer extends JSerializer {
+
+    public static final int IDENTIFIER = 61035;
+
+    /**
+     * Version of frame schema, written to every frame.
+     */
+    public static final byte VERSION = 2;
+
+    private static final byte ENCODE_PART = 1;
+    private static final byte ENCODE_RESULT = 2;
+    private static final byte TRANSFER_READY = 3;
+    private static final byte CHUNK = 4;
+    private static final byte CHUNK_ACK = 5;
+    private static final byte WORK_REQUEST = 6;
+    private static final byte CANCEL_PART = 7;
+    private static final byte PART_FAILED = 8;
+    private static final byte PART_PROGRESS = 9;
+
+    /**
+     * Serialized commands by command instance (weak keys are compared by identity).
+     */
+    private final Cache<EncodeCommand, byte[]> commands = CacheBuilder.newBuilder()
+            .weakKeys().maximumSize(64).build();
+
+    private final StageMetrics metrics;
+
+    public ClusterMessageSerializer(ExtendedActorSystem system) {
+        this.metrics = StageMetrics.get(system);
+    }
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public boolean includeManifest() {
+        return false;
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        long start = System.nanoTime();
+        byte[] bytes = write(o);
+        metrics.record(StageMetrics.Stage.SERIALIZE, start);
+        return bytes;
+    }
+
+    private byte[] write(Object o) {
+        if (o instanceof ClusterMessage.PartChunk) {
+            return chunkToBinary((ClusterMessage.PartChunk) o);
+        }
+
+        Frame f = new Frame();
+        if (o instanceof ClusterMessage.EncodeVideoPartMessage) {
+            ClusterMessage.EncodeVideoPartMessage m = (ClusterMessage.EncodeVideoPartMessage) o;
+            f.tag(ENCODE_PART).string(m.getTransferId()).string(m.getPartId())
+                    .longValue(m.getLength()).bytes(command(m.getCommands().get(0)))
+                    .ref(m.getRef());
+
+            //version 2: commands of other renditions
+            List<EncodeCommand> other = m.getCommands().subList(1, m.getCommands().size());
+            f.intValue(other.size());
+            for (EncodeCommand command : other) {
+                f.bytes(command(command));
+            }
+        } else if (o instanceof ClusterMessage.EncodeResultPartMessage) {
+            ClusterMessage.EncodeResultPartMessage m = (ClusterMessage.EncodeResultPartMessage) o;
+            f.tag(ENCODE_RESULT).string(m.getTransferId()).string(m.getPartTransferId())
+                    .string(m.getPartId()).longValue(m.getLength()).string(m.getFormat())
+                    .ref(m.getRef()).intValue(m.getRendition());
+        } else if (o instanceof ClusterMessage.TransferReady) {
+            f.tag(TRANSFER_READY).string(((ClusterMessage.TransferReady) o).getTransferId());
+        } else if (o instanceof ClusterMessage.PartChunkAck) {
+            ClusterMessage.PartChunkAck m = (ClusterMessage.PartChunkAck) o;
+            f.tag(CHUNK_ACK).string(m.getTransferId()).intValue(m.getSeq());
+        } else if (o instanceof ClusterMessage.WorkRequest) {
+            ClusterMessage.WorkRequest m = (ClusterMessage.WorkRequest) o;
+            f.tag(WORK_REQUEST).string(m.getEpoch()).intValue(m.getFree())
+                    .intValue(m.getReceived());
+        } else if (o instanceof ClusterMessage.CancelPartMessage) {
+            f.tag(CANCEL_PART).string(((ClusterMessage.CancelPartMessage) o).getTransferId());
+        } else if (o instanceof ClusterMessage.EncodePartFailed) {
+            ClusterMessage.EncodePartFailed m = (ClusterMessage.EncodePartFailed) o;
+            f.tag(PART_FAILED).string(m.getReason()).string(m.getPartId())
+                    .bytes(command(m.getCommand())).string(m.getTransferId());
+        } else if (o instanceof ClusterMessage.PartProgress) {
+            ClusterMessage.PartProgress m = (ClusterMessage.PartProgress) o;
+            f.tag(PART_PROGRESS).string(m.getTransferId()).string(m.getPartId())
+                    .longValue(m.getFrame()).doubleValue(m.getFps())
+                    .doubleValue(m.getSpeed()).longValue(m.getOutTime());
+        } else {
+            throw new IllegalArgumentException("Cannot serialize " + o.getClass());
+        }
+        return f.toByteArray();
+    }
+
+    /**
+     * Chunk frame is allocated with exact size, data is copied once.
+     */
+    private byte[] chunkToBinary(ClusterMessage.PartChunk chunk) {
+        byte[] id = utf8(chunk.getTransferId());
+        byte[] data = chunk.getData();
+        ByteBuffer buf = ByteBuffer.allocate(2 + 4 + id.length + 4 + 1 + 4 + chunk.getLength());
+        buf.put(VERSION).put(CHUNK);
+        buf.putInt(id.length).put(id);
+        buf.putInt(chunk.getSeq());
+        buf.put((byte) (chunk.isLast() ? 1 : 0));
+        buf.putInt(chunk.getLength()).put(data, chunk.getOffset(), chunk.getLength());
+        return buf.array();
+    }
+
+    @Override
+    protected Object fromBinaryJava(byte[] bytes, Class<?> manifest) {
+        long start = System.nanoTime();
+        Object message = read(bytes);
+        metrics.record(StageMetrics.Stage.DESERIALIZE, start);
+        return message;
+    }
+
+    private Object read(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        try {
+            //fields of versions after 1 are read, when version >= their version
+            byte version = buf.get();
+            if (version < 1) {
+                throw new IllegalArgumentException("Unsupported message schema version " + version);
+            }
+            byte tag = buf.get();
+            switch (tag) {
+                case ENCODE_PART:
+                    String partTransferId = readString(buf);
+                    String partId = readString(buf);
+                    long partLength = buf.getLong();
+                    List<EncodeCommand> commands = new ArrayList<>();
+                    commands.add(readCommand(buf));
+                    PartRef ref = readRef(buf);
+                    if (version >= 2) {
+                        readCommands(buf, commands);
+                    }
+                    return new ClusterMessage.EncodeVideoPartMessage(partTransferId, partId,
+                            partLength, commands, ref);
+                case ENCODE_RESULT:
+                    return new ClusterMessage.EncodeResultPartMessage(readString(buf),
+                            readString(buf), readString(buf), buf.getLong(),
+                            readString(buf), readRef(buf), version >= 2 ? buf.getInt() : 0);
+                case TRANSFER_READY:
+                    return new ClusterMessage.TransferReady(readString(buf));
+                case CHUNK:
+                    String transferId = readString(buf);
+                    int seq = buf.getInt();
+                    boolean last = buf.get() != 0;
+                    int length = buf.getInt();
+                    if (length < 0 || length > buf.remaining()) {
+                        throw new IllegalArgumentException("Bad chunk length " + length);
+                    }
+
+                    //frame array is owned by this message
+                    return new ClusterMessage.PartChunk(transferId, seq, bytes, buf.position(),
+                            length, last);
+                case CHUNK_ACK:
+                    return new ClusterMessage.PartChunkAck(readString(buf), buf.getInt());
+                case WORK_REQUEST:
+                    return new ClusterMessage.WorkRequest(readString(buf), buf.getInt(),
+                            buf.getInt());
+                case CANCEL_PART:
+                    return new ClusterMessage.CancelPartMessage(readString(buf));
+                case PART_FAILED:
+                    return new ClusterMessage.EncodePartFailed(readString(buf), readString(buf),
+                            readCommand(buf), readString(buf));
+                case PART_PROGRESS:
+                    return new ClusterMessage.PartProgress(readString(buf), readString(buf),
+                            buf.getLong(), buf.getDouble(), buf.getDouble(), buf.getLong());
+                default:
+                    throw new IllegalArgumentException("Unknown message tag " + tag);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated message frame", e);
+        }
+    }
+
+    /**
+     * @return serialized command, null for null command
+     */
+    private byte[] command(EncodeCommand command) {
+        if (command == null) {
+            return null;
+        }
+        byte[] bytes = commands.getIfPresent(command);
+        if (bytes == null) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+                out.writeObject(command);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot serialize encode command", e);
+            }
+            bytes = bos.toByteArray();
+            commands.put(command, bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * Command is deserialized every time, encoder modifies it.
+     */
+    private static EncodeCommand readCommand(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(buf.array(), buf.position(), length))) {
+            buf.position(buf.position() + length);
+            return (EncodeCommand) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException("Cannot deserialize encode command", e);
+        }
+    }
+
+    /**
+     * Reads count and commands, adds them to given list.
+     */
+    private static void readCommands(ByteBuffer buf, List<EncodeCommand> commands) {
+        int count = buf.getInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative command count " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            commands.add(readCommand(buf));
+        }
+    }
+
+    private static PartRef readRef(ByteBuffer buf) {
+        if (buf.get() == 0) {
+            return null;
+        }
+        return new PartRef(readString(buf), buf.getLong(), buf.getLong());
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String s = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Frame of small message.
+     */
+    private static class Frame {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        private final ByteBuffer scratch = ByteBuffer.allocate(8);
+
+        private Frame() {
+            out.write(VERSION);
+        }
+
+        private Frame tag(byte tag) {
+            out.write(tag);
+            return this;
+        }
+
+        private Frame intValue(int v) {
+            scratch.clear();
+            out.write(scratch.putInt(v).array(), 0, 4);
+            return this;
+        }
+
+        private Frame longValue(long v) {
+            scratch.clear();
+            out.write(scratch.putLong(v).array(), 0, 8);
+            return this;
+        }
+
+        private Frame doubleValue(double v) {
+            return longValue(Double.doubleToLongBits(v));
+        }
+
+        private Frame bytes(byte[] b) {
+            if (b == null) {
+                return intValue(-1);
+            }
+            intValue(b.length);
+            out.write(b, 0, b.length);
+            return this;
+        }
+
+        private Frame string(String s) {
+            return bytes(s == null ? null : utf8(s));
+        }
+
+        private Frame ref(PartRef ref) {
+            if (ref == null) {
+                out.write(0);
+                return this;
+            }
+            out.write(1);
+            return string(ref.getPath()).longValue(ref.getLength()).longValue(ref.getChecksum());
+        }
+
+        private byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -1,9 +1,17 @@
 package com.kyrioslab.dsvc.node.messages;
 
+import akka.actor.Address;
 import akka.cluster.ClusterEvent;
+import com.kyrioslab.dsvc.node.metrics.MetricsSummary;
+import com.kyrioslab.dsvc.node.transfer.PartRef;
 import com.kyrioslab.jffmpegw.command.EncodeCommand;
 
+import java.io.File;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Ivan Kirilyuk on 29.12.14.
@@ -15,9 +23,34 @@ public interface LocalMessage {
     public static class EncodeVideoMessage implements Serializable {
 
         private final String pathToVideo;
-        private final EncodeCommand command;
         private final String duration;
 
+        /**
+         * Encode command of every rendition, video is split
+         * and parts are sent once for all of them.
+         */
+        private final List<EncodeCommand> commands;
+
+        /**
+         * Segment duration in seconds, null if client chooses it.
+         */
+        private final Integer segmentTime;
+
+        /**
+         * Job priority, null for default.
+         */
+        private final Integer priority;
+
+        /**
+         * Fair share weight of the job, null for default.
+         */
+        private final Double weight;
+
+        /**
+         * Wall clock time, job should be finished by, ms, null if none.
+         */
+        private final Long deadline;
+
         /**
          * Message send from GUI to client.
          *
@@ -26,23 +59,97 @@ public interface LocalMessage {
         public EncodeVideoMessage(String pathToVideo,
                                   EncodeCommand command,
                                   String duration) {
+            this(pathToVideo, command, duration, null);
+        }
+
+        /**
+         * @param pathToVideo absolute path to video
+         * @param segmentTime segment duration in seconds, null if client chooses it
+         */
+        public EncodeVideoMessage(String pathToVideo,
+                                  EncodeCommand command,
+                                  String duration,
+                                  Integer segmentTime) {
+            this(pathToVideo, command, duration, segmentTime, null, null, null);
+        }
+
+        /**
+         * @param pathToVideo absolute path to video
+         * @param segmentTime segment duration in seconds, null if client chooses it
+         * @param priority    jobs of higher priority are encoded first, null for default
+         * @param weight      share of encoder slots among jobs, null for default
+         * @param deadline    wall clock time, job should be finished by, ms, null if none
+         */
+        public EncodeVideoMessage(String pathToVideo,
+                                  EncodeCommand command,
+                                  String duration,
+                                  Integer segmentTime,
+                                  Integer priority,
+                                  Double weight,
+                                  Long deadline) {
+            this(pathToVideo, Collections.singletonList(command), duration, segmentTime,
+                    priority, weight, deadline);
+        }
+
+        /**
+         * @param pathToVideo absolute path to video
+         * @param commands    rendition commands, each rendition is merged to own file
+         * @param segmentTime segment duration in seconds, null if client chooses it
+         * @param priority    jobs of higher priority are encoded first, null for default
+         * @param weight      share of encoder slots among jobs, null for default
+         * @param deadline    wall clock time, job should be finished by, ms, null if none
+         */
+        public EncodeVideoMessage(String pathToVideo,
+                                  List<EncodeCommand> commands,
+                                  String duration,
+                                  Integer segmentTime,
+                                  Integer priority,
+                                  Double weight,
+                                  Long deadline) {
 
             this.pathToVideo = pathToVideo;
-            this.command = command;
+            this.commands = commands;
             this.duration = duration;
+            this.segmentTime = segmentTime;
+            this.priority = priority;
+            this.weight = weight;
+            this.deadline = deadline;
         }
 
         public String getPathToVideo() {
             return pathToVideo;
         }
 
+        /**
+         * @return command of the first rendition
+         */
         public EncodeCommand getCommand() {
-            return command;
+            return commands.get(0);
+        }
+
+        public List<EncodeCommand> getCommands() {
+            return commands;
         }
 
         public String getDuration() {
             return duration;
         }
+
+        public Integer getSegmentTime() {
+            return segmentTime;
+        }
+
+        public Integer getPriority() {
+            return priority;
+        }
+
+        public Double getWeight() {
+            return weight;
+        }
+
+        public Long getDeadline() {
+            return deadline;
+        }
     }
 
     public static class EncodeJobFailedMessage implements Serializable {
@@ -76,16 +183,509 @@ public interface LocalMessage {
      */
     public static class EncodeResult implements Serializable {
 
-        private final String resultPath;
+        /**
+         * Result of every rendition, in order of commands.
+         */
+        private final List<String> resultPaths;
+
+        /**
+         * Job time, ms.
+         */
+        private final long makespan;
+
+        /**
+         * Job time, predicted when all parts were known, ms, -1 if not predicted.
+         */
+        private final long predictedMakespan;
 
         public EncodeResult(String resultPath) {
-            this.resultPath = resultPath;
+            this(resultPath, -1, -1);
+        }
+
+        public EncodeResult(String resultPath, long makespan, long predictedMakespan) {
+            this(Collections.singletonList(resultPath), makespan, predictedMakespan);
         }
 
+        public EncodeResult(List<String> resultPaths, long makespan, long predictedMakespan) {
+            this.resultPaths = resultPaths;
+            this.makespan = makespan;
+            this.predictedMakespan = predictedMakespan;
+        }
+
+        /**
+         * @return result of the first rendition
+         */
         public String getResultPath() {
-            return resultPath;
+            return resultPaths.get(0);
+        }
+
+        public List<String> getResultPaths() {
+            return resultPaths;
+        }
+
+        public long getMakespan() {
+            return makespan;
+        }
+
+        public long getPredictedMakespan() {
+            return predictedMakespan;
+        }
+
+    }
+
+    //Batch messages, sent to client by itself and its children
+    public static abstract class BatchMessage {
+
+        private final String batchId;
+
+        public BatchMessage(String batchId) {
+            this.batchId = batchId;
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+    }
+
+    /**
+     * Segment is written by splitter while split is in progress.
+     */
+    public static class SegmentReadyMessage extends BatchMessage {
+
+        private final File part;
+
+        public SegmentReadyMessage(String batchId, File part) {
+            super(batchId);
+            this.part = part;
+        }
+
+        public File getPart() {
+            return part;
+        }
+    }
+
+    /**
+     * Video split started, sent from split thread.
+     */
+    public static class SplitStartedMessage extends BatchMessage {
+
+        /**
+         * Video duration, seconds, -1 if not known.
+         */
+        private final double duration;
+
+        /**
+         * Segment duration, seconds.
+         */
+        private final int segmentTime;
+
+        public SplitStartedMessage(String batchId, double duration, int segmentTime) {
+            super(batchId);
+            this.duration = duration;
+            this.segmentTime = segmentTime;
+        }
+
+        public double getDuration() {
+            return duration;
+        }
+
+        public int getSegmentTime() {
+            return segmentTime;
+        }
+    }
+
+    /**
+     * Video split finished.
+     */
+    public static class SplitCompleteMessage extends BatchMessage {
+
+        private final List<File> parts;
+
+        public SplitCompleteMessage(String batchId, List<File> parts) {
+            super(batchId);
+            this.parts = parts;
         }
 
+        public List<File> getParts() {
+            return parts;
+        }
+    }
+
+    /**
+     * Video split failed.
+     */
+    public static class SplitFailedMessage extends BatchMessage {
+
+        private final String reason;
+
+        public SplitFailedMessage(String batchId, String reason) {
+            super(batchId);
+            this.reason = reason;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    /**
+     * Dispatch failed part again, scheduled by client after backoff.
+     */
+    public static class RetryPartMessage extends BatchMessage {
+
+        private final String partId;
+
+        public RetryPartMessage(String batchId, String partId) {
+            super(batchId);
+            this.partId = partId;
+        }
+
+        public String getPartId() {
+            return partId;
+        }
+    }
+
+    //Merge messages
+    /**
+     * Encoded part is received and can be merged.
+     */
+    public static class MergePartMessage {
+
+        private final File part;
+
+        /**
+         * Index of rendition command.
+         */
+        private final int rendition;
+
+        public MergePartMessage(File part) {
+            this(part, 0);
+        }
+
+        public MergePartMessage(File part, int rendition) {
+            this.part = part;
+            this.rendition = rendition;
+        }
+
+        public File getPart() {
+            return part;
+        }
+
+        public int getRendition() {
+            return rendition;
+        }
+    }
+
+    /**
+     * All parts are received, merge the rest.
+     */
+    public static class FinishMergeMessage {
+
+        private final int partCount;
+
+        /**
+         * Result file name of every rendition.
+         */
+        private final List<String> fileNames;
+
+        public FinishMergeMessage(int partCount, String fileName) {
+            this(partCount, Collections.singletonList(fileName));
+        }
+
+        public FinishMergeMessage(int partCount, List<String> fileNames) {
+            this.partCount = partCount;
+            this.fileNames = fileNames;
+        }
+
+        public int getPartCount() {
+            return partCount;
+        }
+
+        /**
+         * @return result file name of the first rendition
+         */
+        public String getFileName() {
+            return fileNames.get(0);
+        }
+
+        public List<String> getFileNames() {
+            return fileNames;
+        }
+    }
+
+    public static class MergeCompleteMessage extends BatchMessage {
+
+        /**
+         * Merged file of every rendition.
+         */
+        private final List<File> results;
+
+        public MergeCompleteMessage(String batchId, File result) {
+            this(batchId, Collections.singletonList(result));
+        }
+
+        public MergeCompleteMessage(String batchId, List<File> results) {
+            super(batchId);
+            this.results = results;
+        }
+
+        /**
+         * @return merged file of the first rendition
+         */
+        public File getResult() {
+            return results.get(0);
+        }
+
+        public List<File> getResults() {
+            return results;
+        }
+    }
+
+    public static class MergeFailedMessage extends BatchMessage {
+
+        private final String reason;
+
+        public MergeFailedMessage(String batchId, String reason) {
+            super(batchId);
+            this.reason = reason;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    //Chunked transfer messages
+    public static abstract class TransferMessage {
+
+        private final String transferId;
+
+        public TransferMessage(String transferId) {
+            this.transferId = transferId;
+        }
+
+        public String getTransferId() {
+            return transferId;
+        }
+    }
+
+    /**
+     * Sent by transfer actor to its parent when all chunks
+     * are sent and acknowledged or received and written.
+     */
+    public static class TransferCompleteMessage extends TransferMessage {
+
+        private final File file;
+
+        /**
+         * Transferred bytes.
+         */
+        private final long length;
+
+        /**
+         * Transfer time, from ready to the last chunk, ns.
+         */
+        private final long time;
+
+        public TransferCompleteMessage(String transferId, File file, long length, long time) {
+            super(transferId);
+            this.file = file;
+            this.length = length;
+            this.time = time;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * Sent by transfer actor to its parent when transfer failed.
+     */
+    public static class TransferFailedMessage extends TransferMessage {
+
+        private final String reason;
+
+        public TransferFailedMessage(String transferId, String reason) {
+            super(transferId);
+            this.reason = reason;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    /**
+     * Sent by encoder to itself when part encoding finished.
+     */
+    public static class PartEncodedMessage extends TransferMessage {
+
+        /**
+         * Encoded part of every rendition.
+         */
+        private final List<File> encoded;
+
+        /**
+         * References to encoded parts on shared storage, null
+         * items for parts, sent by chunks.
+         */
+        private final List<PartRef> refs;
+
+        /**
+         * Encoded part in memory, read from ffmpeg output, null if part is in file.
+         */
+        private final byte[] data;
+
+        public PartEncodedMessage(String transferId, byte[] data) {
+            super(transferId);
+            this.encoded = Collections.emptyList();
+            this.refs = Collections.emptyList();
+            this.data = data;
+        }
+
+        public PartEncodedMessage(String transferId, File encoded) {
+            this(transferId, encoded, null);
+        }
+
+        public PartEncodedMessage(String transferId, File encoded, PartRef ref) {
+            this(transferId, Collections.singletonList(encoded), Collections.singletonList(ref));
+        }
+
+        public PartEncodedMessage(String transferId, List<File> encoded, List<PartRef> refs) {
+            super(transferId);
+            this.encoded = encoded;
+            this.refs = refs;
+            this.data = null;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public List<File> getEncoded() {
+            return encoded;
+        }
+
+        public List<PartRef> getRefs() {
+            return refs;
+        }
+    }
+
+    /**
+     * Sent by encoder to itself when ffmpeg is started
+     * to read part from stdin.
+     */
+    public static class PipeStartedMessage extends TransferMessage {
+
+        private final OutputStream stdin;
+
+        public PipeStartedMessage(String transferId, OutputStream stdin) {
+            super(transferId);
+            this.stdin = stdin;
+        }
+
+        public OutputStream getStdin() {
+            return stdin;
+        }
+    }
+
+    /**
+     * Sent by encoder to itself when part encoding failed.
+     */
+    public static class PartEncodeFailedMessage extends TransferMessage {
+
+        private final String reason;
+
+        public PartEncodeFailedMessage(String transferId, String reason) {
+            super(transferId);
+            this.reason = reason;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    /**
+     * Sent by client to its local encoder. Part is encoded from
+     * split directory, it is not sent.
+     */
+    public static class EncodeLocalPartMessage extends TransferMessage {
+
+        private final String partId;
+        private final File part;
+
+        /**
+         * Encode command of every rendition.
+         */
+        private final List<EncodeCommand> commands;
+
+        public EncodeLocalPartMessage(String transferId, String partId, File part,
+                                      List<EncodeCommand> commands) {
+            super(transferId);
+            this.partId = partId;
+            this.part = part;
+            this.commands = commands;
+        }
+
+        public String getPartId() {
+            return partId;
+        }
+
+        public File getPart() {
+            return part;
+        }
+
+        public List<EncodeCommand> getCommands() {
+            return commands;
+        }
+    }
+
+    /**
+     * Sent by local encoder to client when part is encoded.
+     */
+    public static class LocalPartEncodedMessage extends TransferMessage {
+
+        private final String partId;
+
+        /**
+         * Encoded part of every rendition.
+         */
+        private final List<File> encoded;
+
+        /**
+         * Output format of every rendition.
+         */
+        private final List<String> formats;
+
+        public LocalPartEncodedMessage(String transferId, String partId, List<File> encoded,
+                                       List<String> formats) {
+            super(transferId);
+            this.partId = partId;
+            this.encoded = encoded;
+            this.formats = formats;
+        }
+
+        public String getPartId() {
+            return partId;
+        }
+
+        public List<File> getEncoded() {
+            return encoded;
+        }
+
+        public List<String> getFormats() {
+            return formats;
+        }
     }
 
     //Part track service messages
@@ -106,8 +706,53 @@ public interface LocalMessage {
      * Message for deleting part from track.
      */
     public static class UntrackPartMessage extends TrackPartMessage implements Serializable {
+
+        private final boolean encoded;
+
+        /**
+         * Untracked attempt, null for all attempts of the part.
+         */
+        private final String transferId;
+
+        /**
+         * Node, which encoded the part, may be null.
+         */
+        private final Address node;
+
         public UntrackPartMessage(String partId) {
+            this(partId, true);
+        }
+
+        public UntrackPartMessage(String partId, boolean encoded) {
+            this(partId, null, encoded);
+        }
+
+        public UntrackPartMessage(String partId, String transferId, boolean encoded) {
+            this(partId, transferId, encoded, null);
+        }
+
+        public UntrackPartMessage(String partId, String transferId, boolean encoded,
+                                  Address node) {
             super(partId);
+            this.transferId = transferId;
+            this.encoded = encoded;
+            this.node = node;
+        }
+
+        public Address getNode() {
+            return node;
+        }
+
+        public String getTransferId() {
+            return transferId;
+        }
+
+        /**
+         * @return true if part is encoded, its time is used
+         * for average time calculation
+         */
+        public boolean isEncoded() {
+            return encoded;
         }
     }
 
@@ -133,15 +778,61 @@ public interface LocalMessage {
 
         private final EncodeCommand command;
 
+        /**
+         * Tracked attempt, every attempt of the part has own deadline.
+         */
+        private final String transferId;
+
+        /**
+         * Source part size, bytes.
+         */
+        private final long length;
+
+        /**
+         * Encode command profile, parts with the same profile
+         * have comparable encoding rates.
+         */
+        private final String profile;
+
+        /**
+         * Encoder node, null if not known yet.
+         */
+        private final Address node;
+
         public PlaceOnTrackMessage(String partId,
                                    EncodeCommand command) {
+            this(partId, null, command, 0, "", null);
+        }
+
+        public PlaceOnTrackMessage(String partId, String transferId, EncodeCommand command,
+                                   long length, String profile, Address node) {
             super(partId);
+            this.transferId = transferId;
             this.command = command;
+            this.length = length;
+            this.profile = profile;
+            this.node = node;
         }
 
         public EncodeCommand getCommand() {
             return command;
         }
+
+        public String getTransferId() {
+            return transferId;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getProfile() {
+            return profile;
+        }
+
+        public Address getNode() {
+            return node;
+        }
     }
 
 
@@ -161,9 +852,21 @@ public interface LocalMessage {
 
         private final ClusterEvent.ClusterMetricsChanged metrics;
 
+        /**
+         * Stage latencies and counters of client node.
+         */
+        private final MetricsSummary summary;
+
         public ClusterStatusResponceMessage(ClusterEvent.CurrentClusterState clusterState, ClusterEvent.ClusterMetricsChanged metrics) {
+            this(clusterState, metrics, null);
+        }
+
+        public ClusterStatusResponceMessage(ClusterEvent.CurrentClusterState clusterState,
+                                            ClusterEvent.ClusterMetricsChanged metrics,
+                                            MetricsSummary summary) {
             this.clusterState = clusterState;
             this.metrics = metrics;
+            this.summary = summary;
         }
 
         public ClusterEvent.CurrentClusterState getClusterState() {
@@ -173,11 +876,93 @@ public interface LocalMessage {
         public ClusterEvent.ClusterMetricsChanged getMetrics() {
             return metrics;
         }
+
+        public MetricsSummary getSummary() {
+            return summary;
+        }
     }
 
     /**
-     * Encoding progress message
+     * Encoding progress of the job, sent to requester on part
+     * completion and periodically while parts are encoding.
      */
-    public class ProgressMessage implements Serializable{}
+    public static class ProgressMessage implements Serializable {
+
+        private final String batchId;
+
+        /**
+         * Encoded media time of the job, percent, -1 if video duration is not known.
+         */
+        private final double percent;
+
+        private final int completedParts;
+
+        private final int partCount;
+
+        /**
+         * Encoded frames of the job.
+         */
+        private final long frames;
+
+        /**
+         * Frame rate of running parts of the job across cluster.
+         */
+        private final double fps;
+
+        /**
+         * Estimated time to the end of encoding, ms, -1 if not known.
+         */
+        private final long eta;
+
+        /**
+         * Encoding speed of running parts, relative to playback, by encoder node.
+         */
+        private final Map<Address, Double> nodeSpeed;
+
+        public ProgressMessage(String batchId, double percent, int completedParts, int partCount,
+                               long frames, double fps, long eta,
+                               Map<Address, Double> nodeSpeed) {
+            this.batchId = batchId;
+            this.percent = percent;
+            this.completedParts = completedParts;
+            this.partCount = partCount;
+            this.frames = frames;
+            this.fps = fps;
+            this.eta = eta;
+            this.nodeSpeed = nodeSpeed;
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+
+        public double getPercent() {
+            return percent;
+        }
+
+        public int getCompletedParts() {
+            return completedParts;
+        }
+
+        public int getPartCount() {
+            return partCount;
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        public double getFps() {
+            return fps;
+        }
+
+        public long getEta() {
+            return eta;
+        }
+
+        public Map<Address, Double> getNodeSpeed() {
+            return nodeSpeed;
+        }
+    }
 
 }
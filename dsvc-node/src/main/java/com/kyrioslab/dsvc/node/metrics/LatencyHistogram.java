@@ -0,0 +1,155 @@
+package com.kyrioslab.dsvc.node.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with microsecond resolution and bounded
+ * relative error, in the manner of HdrHistogram: values below
+ * {@link #SUB_BUCKETS} us are counted exactly, every next power of two
+ * range is split into {@link #SUB_BUCKETS}/2 linear buckets, so error
+ * is below 1/64 of value. Counts are fixed array, recording is lock
+ * free and does not allocate.
+ * <p/>
+ * Recorded by actors and worker threads, read by JMX and
+ * metrics endpoint.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int SUB_BUCKETS = 128;
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    /**
+     * Largest tracked value, us (about 12 days), larger values are clamped.
+     */
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records time between given System.nanoTime() and now.
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public void recordNanos(long nanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordMillis(long millis) {
+        record(TimeUnit.MILLISECONDS.toMicros(millis));
+    }
+
+    /**
+     * @param micros value, us, negative is counted as 0
+     */
+    public void record(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long m;
+        while ((m = max.get()) < value && !max.compareAndSet(m, value)) {
+            //retry
+        }
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        //value >> shift is in [HALF, SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >> shift) - HALF);
+    }
+
+    /**
+     * @return the highest value, counted in bucket
+     */
+    private static long highest(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long sub = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * @param percentile percentile, 0..100
+     * @return value, us, the given percent of samples is not greater than,
+     * 0 if there are no samples
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : millis(total.get()) / n;
+    }
+
+    @Override
+    public double getP50() {
+        return millis(getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getP90() {
+        return millis(getValueAtPercentile(90));
+    }
+
+    @Override
+    public double getP99() {
+        return millis(getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getMax() {
+        return millis(max.get());
+    }
+
+    @Override
+    public double getTotal() {
+        return millis(total.get());
+    }
+}
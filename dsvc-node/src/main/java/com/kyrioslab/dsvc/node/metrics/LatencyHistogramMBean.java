@@ -0,0 +1,24 @@
+package com.kyrioslab.dsvc.node.metrics;
+
+/**
+ * JMX view of one stage latency histogram, times are in ms.
+ */
+public interface LatencyHistogramMBean {
+
+    long getCount();
+
+    double getMean();
+
+    double getP50();
+
+    double getP90();
+
+    double getP99();
+
+    double getMax();
+
+    /**
+     * @return total time of all samples
+     */
+    double getTotal();
+}
@@ -0,0 +1,55 @@
+package com.kyrioslab.dsvc.node.metrics;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+
+/**
+ * Metrics settings, read from <code>dsvc.metrics</code>
+ * section of the configuration.
+ */
+public class MetricsSettings {
+
+    public static final String CONFIG_PATH = "dsvc.metrics";
+
+    /**
+     * Register stage histograms and counters as MBeans.
+     */
+    private final boolean jmxEnabled;
+
+    /**
+     * Port of plain text metrics endpoint, 0 if disabled.
+     */
+    private final int httpPort;
+
+    /**
+     * Address, metrics endpoint is bound to.
+     */
+    private final String httpHost;
+
+    public MetricsSettings(Config config) {
+        Config c = config.getConfig(CONFIG_PATH);
+        this.jmxEnabled = c.getBoolean("jmx");
+        this.httpPort = c.getInt("http-port");
+        this.httpHost = c.getString("http-host");
+
+        if (httpPort < 0 || httpPort > 65535) {
+            throw new IllegalArgumentException("Metrics port must be in 0..65535");
+        }
+    }
+
+    public static MetricsSettings get(ActorSystem system) {
+        return new MetricsSettings(system.settings().config());
+    }
+
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    public int getHttpPort() {
+        return httpPort;
+    }
+
+    public String getHttpHost() {
+        return httpHost;
+    }
+}
@@ -0,0 +1,110 @@
+package com.kyrioslab.dsvc.node.metrics;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of node metrics: latency of every stage, bytes moved,
+ * retries and timeouts.
+ */
+public class MetricsSummary implements Serializable {
+
+    /**
+     * Latency by stage name, in pipeline order.
+     */
+    private final Map<String, StageSummary> stages;
+
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long retries;
+    private final long timeouts;
+
+    public MetricsSummary(Map<String, StageSummary> stages, long bytesSent,
+                          long bytesReceived, long retries, long timeouts) {
+        this.stages = Collections.unmodifiableMap(stages);
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.retries = retries;
+        this.timeouts = timeouts;
+    }
+
+    public Map<String, StageSummary> getStages() {
+        return stages;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSummary{stages=" + stages + ", bytesSent=" + bytesSent
+                + ", bytesReceived=" + bytesReceived + ", retries=" + retries
+                + ", timeouts=" + timeouts + "}";
+    }
+
+    /**
+     * Latency of one stage, ms.
+     */
+    public static class StageSummary implements Serializable {
+
+        private final long count;
+        private final double mean;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double max;
+
+        public StageSummary(LatencyHistogram histogram) {
+            this.count = histogram.getCount();
+            this.mean = histogram.getMean();
+            this.p50 = histogram.getP50();
+            this.p90 = histogram.getP90();
+            this.p99 = histogram.getP99();
+            this.max = histogram.getMax();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", mean=" + mean + ", p50=" + p50
+                    + ", p90=" + p90 + ", p99=" + p99 + ", max=" + max + "}";
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.kyrioslab.dsvc.node.metrics;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.event.LoggingAdapter;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms of pipeline stages and transfer counters of the
+ * node, one instance per actor system. Every node records stages it
+ * runs: client records split, transfers, result write and merge,
+ * encoder records transfers, queue wait and ffmpeg time.
+ * <p/>
+ * Metrics are exposed over JMX, by plain text endpoint if its port is
+ * set, and as {@link MetricsSummary} in cluster status.
+ */
+public class StageMetrics implements Extension, StageMetricsMBean {
+
+    public static final Provider PROVIDER = new Provider();
+
+    public static final String JMX_DOMAIN = "com.kyrioslab.dsvc";
+
+    /**
+     * Pipeline stages.
+     */
+    public enum Stage {
+
+        /**
+         * Split of source video, whole job.
+         */
+        SPLIT("split"),
+
+        /**
+         * Serialization and deserialization of cluster message.
+         */
+        SERIALIZE("serialize"),
+        DESERIALIZE("deserialize"),
+
+        /**
+         * Chunked transfer of part to encoder, and of result back to client.
+         */
+        TRANSFER_OUT("transfer-out"),
+        TRANSFER_BACK("transfer-back"),
+
+        /**
+         * Wait of received part for free encoder slot.
+         */
+        QUEUE("queue"),
+
+        /**
+         * Wall time of ffmpeg process.
+         */
+        ENCODE("encode"),
+
+        /**
+         * Save of received result to job directory.
+         */
+        RESULT_WRITE("result-write"),
+
+        /**
+         * Merge of the last parts, after all parts are encoded.
+         */
+        MERGE("merge"),
+
+        /**
+         * Part from dispatch to received result.
+         */
+        PART("part");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final LoggingAdapter log;
+
+    private final String systemName;
+
+    /**
+     * Registered MBeans, unregistered on system termination.
+     */
+    private final List<ObjectName> mbeans = new ArrayList<>();
+
+    /**
+     * Text endpoint, null if disabled.
+     */
+    private MetricsEndpoint endpoint;
+
+    public StageMetrics(ExtendedActorSystem system) {
+        this.log = system.log();
+        this.systemName = system.name();
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+
+        MetricsSettings settings = MetricsSettings.get(system);
+        if (settings.isJmxEnabled()) {
+            register();
+        }
+        if (settings.getHttpPort() > 0) {
+            try {
+                endpoint = new MetricsEndpoint(settings.getHttpHost(),
+                        settings.getHttpPort(), this);
+                log.info("Metrics endpoint started: http://{}{}", endpoint.getAddress(),
+                        MetricsEndpoint.PATH);
+            } catch (IOException e) {
+                log.warning("Cannot start metrics endpoint: {}", e.getMessage());
+            }
+        }
+        system.registerOnTermination(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    public static StageMetrics get(ActorSystem system) {
+        return PROVIDER.get(system);
+    }
+
+    public LatencyHistogram histogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Records stage, which started at given System.nanoTime().
+     */
+    public void record(Stage stage, long startNanos) {
+        histograms.get(stage).recordSince(startNanos);
+    }
+
+    public void recordNanos(Stage stage, long nanos) {
+        histograms.get(stage).recordNanos(nanos);
+    }
+
+    public void sent(long bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    public void received(long bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    public void retry() {
+        retries.incrementAndGet();
+    }
+
+    public void timeout() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * @return snapshot of stages, which have samples, and counters
+     */
+    public MetricsSummary summary() {
+        Map<String, MetricsSummary.StageSummary> stages = new LinkedHashMap<>();
+        for (Map.Entry<Stage, LatencyHistogram> e : histograms.entrySet()) {
+            if (e.getValue().getCount() > 0) {
+                stages.put(e.getKey().getLabel(), new MetricsSummary.StageSummary(e.getValue()));
+            }
+        }
+        return new MetricsSummary(stages, bytesSent.get(), bytesReceived.get(),
+                retries.get(), timeouts.get());
+    }
+
+    /**
+     * @return metrics in Prometheus text format, times in ms
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE dsvc_stage_ms summary\n");
+        for (Map.Entry<Stage, LatencyHistogram> e : histograms.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            String stage = "stage=\"" + e.getKey().getLabel() + "\"";
+            line(sb, "dsvc_stage_ms{" + stage + ",quantile=\"0.5\"}", h.getP50());
+            line(sb, "dsvc_stage_ms{" + stage + ",quantile=\"0.9\"}", h.getP90());
+            line(sb, "dsvc_stage_ms{" + stage + ",quantile=\"0.99\"}", h.getP99());
+            line(sb, "dsvc_stage_ms_sum{" + stage + "}", h.getTotal());
+            sb.append("dsvc_stage_ms_count{").append(stage).append("} ")
+                    .append(h.getCount()).append('\n');
+        }
+        sb.append("# TYPE dsvc_stage_max_ms gauge\n");
+        for (Map.Entry<Stage, LatencyHistogram> e : histograms.entrySet()) {
+            line(sb, "dsvc_stage_max_ms{stage=\"" + e.getKey().getLabel() + "\"}",
+                    e.getValue().getMax());
+        }
+        counter(sb, "dsvc_bytes_sent_total", bytesSent.get());
+        counter(sb, "dsvc_bytes_received_total", bytesReceived.get());
+        counter(sb, "dsvc_retries_total", retries.get());
+        counter(sb, "dsvc_timeouts_total", timeouts.get());
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, double value) {
+        sb.append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", value))
+                .append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, long value) {
+        sb.append("# TYPE ").append(name).append(" counter\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, new ObjectName(JMX_DOMAIN + ":type=StageMetrics,system="
+                    + systemName), this);
+            for (Map.Entry<Stage, LatencyHistogram> e : histograms.entrySet()) {
+                register(server, new ObjectName(JMX_DOMAIN + ":type=StageLatency,system="
+                        + systemName + ",stage=" + e.getKey().getLabel()), e.getValue());
+            }
+        } catch (JMException e) {
+            log.warning("Cannot register metrics MBeans: {}", e.getMessage());
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName name, Object mbean)
+            throws JMException {
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(mbean, name);
+        mbeans.add(name);
+    }
+
+    private void close() {
+        if (endpoint != null) {
+            endpoint.stop();
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : mbeans) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                log.warning("Cannot unregister MBean {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    @Override
+    public String getReport() {
+        return report();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        retries.set(0);
+        timeouts.set(0);
+    }
+
+    /**
+     * Creates metrics of actor system.
+     */
+    public static class Provider extends AbstractExtensionId<StageMetrics>
+            implements ExtensionIdProvider {
+
+        @Override
+        public Provider lookup() {
+            return PROVIDER;
+        }
+
+        @Override
+        public StageMetrics createExtension(ExtendedActorSystem system) {
+            return new StageMetrics(system);
+        }
+    }
+}
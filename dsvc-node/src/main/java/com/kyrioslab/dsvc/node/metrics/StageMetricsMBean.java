@@ -0,0 +1,38 @@
+package com.kyrioslab.dsvc.node.metrics;
+
+/**
+ * JMX view of node counters, latency of stages is
+ * exposed by {@link LatencyHistogramMBean} per stage.
+ */
+public interface StageMetricsMBean {
+
+    /**
+     * @return bytes of parts and results, sent by chunks
+     */
+    long getBytesSent();
+
+    /**
+     * @return bytes of parts and results, received by chunks
+     */
+    long getBytesReceived();
+
+    /**
+     * @return count of parts, sent again after failure
+     */
+    long getRetries();
+
+    /**
+     * @return count of timed out parts, transfers and encode processes
+     */
+    long getTimeouts();
+
+    /**
+     * @return all metrics in text format of metrics endpoint
+     */
+    String getReport();
+
+    /**
+     * Clears histograms and counters.
+     */
+    void reset();
+}
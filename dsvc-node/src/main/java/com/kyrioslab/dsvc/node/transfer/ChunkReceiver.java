@@ -0,0 +1,195 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.kyrioslab.dsvc.node.messages.ClusterMessage;
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.kyrioslab.dsvc.node.metrics.StageMetrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Receives file chunks from {@link ChunkSender} and writes
+ * them to the file or to the stream. Every chunk is acknowledged,
+ * so slow stream slows down the sender. Reports result to the
+ * parent actor, incomplete file is deleted when receiver stops,
+ * stream is closed when receiver stops.
+ */
+public class ChunkReceiver extends UntypedActor {
+
+    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    private final String transferId;
+
+    /**
+     * Target file, null if chunks are written to stream.
+     */
+    private final File file;
+
+    /**
+     * Target stream, null if chunks are written to file.
+     */
+    private final OutputStream out;
+
+    private final long length;
+    private final ActorRef source;
+    private final TransferSettings settings;
+
+    private final StageMetrics metrics = StageMetrics.get(getContext().system());
+
+    private WritableByteChannel channel;
+
+    /**
+     * Expected chunk number.
+     */
+    private int expectedSeq = 0;
+
+    private long written = 0;
+
+    private boolean complete = false;
+
+    /**
+     * Transfer start, System.nanoTime() of TransferReady.
+     */
+    private long startTime;
+
+    public ChunkReceiver(String transferId, File file, long length,
+                         ActorRef source, TransferSettings settings) {
+        this(transferId, file, null, length, source, settings);
+    }
+
+    public ChunkReceiver(String transferId, OutputStream out, long length,
+                         ActorRef source, TransferSettings settings) {
+        this(transferId, null, out, length, source, settings);
+    }
+
+    private ChunkReceiver(String transferId, File file, OutputStream out, long length,
+                          ActorRef source, TransferSettings settings) {
+        this.transferId = transferId;
+        this.file = file;
+        this.out = out;
+        this.length = length;
+        this.source = source;
+        this.settings = settings;
+    }
+
+    public static Props props(String transferId, File file, long length,
+                              ActorRef source, TransferSettings settings) {
+        return Props.create(ChunkReceiver.class, transferId, file, length, source, settings)
+                .withDispatcher(settings.getDispatcher());
+    }
+
+    /**
+     * Receiver, writing chunks to the stream. Writes block,
+     * while stream is not ready.
+     */
+    public static Props props(String transferId, OutputStream out, long length,
+                              ActorRef source, TransferSettings settings) {
+        return Props.create(ChunkReceiver.class, transferId, out, length, source, settings)
+                .withDispatcher(settings.getDispatcher());
+    }
+
+    @Override
+    public void preStart() {
+        if (out != null) {
+            channel = Channels.newChannel(out);
+            getContext().setReceiveTimeout(settings.getIdleTimeout());
+            startTime = System.nanoTime();
+            source.tell(new ClusterMessage.TransferReady(transferId), getSelf());
+            return;
+        }
+
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            fail("Cannot create directory: " + dir.getAbsolutePath());
+            return;
+        }
+        try {
+            channel = new FileOutputStream(file).getChannel();
+        } catch (IOException e) {
+            fail("IOException while opening file: " + e.getMessage());
+            return;
+        }
+        getContext().setReceiveTimeout(settings.getIdleTimeout());
+        startTime = System.nanoTime();
+        source.tell(new ClusterMessage.TransferReady(transferId), getSelf());
+    }
+
+    @Override
+    public void postStop() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+
+        //failed or stopped by parent
+        if (!complete && file != null && file.exists() && !file.delete()) {
+            log.warning("Cannot delete incomplete file: {}", file.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public void onReceive(Object message) {
+        if (message instanceof ClusterMessage.PartChunk) {
+            ClusterMessage.PartChunk chunk = (ClusterMessage.PartChunk) message;
+            if (chunk.getSeq() != expectedSeq) {
+                fail("Unexpected chunk " + chunk.getSeq() + ", expected " + expectedSeq);
+                return;
+            }
+            try {
+                ByteBuffer buffer = chunk.getBuffer();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                fail("IOException while writing chunk: " + e.getMessage());
+                return;
+            }
+            written += chunk.getLength();
+            metrics.received(chunk.getLength());
+            expectedSeq++;
+            getSender().tell(new ClusterMessage.PartChunkAck(transferId, chunk.getSeq()), getSelf());
+
+            if (chunk.isLast()) {
+                if (written != length) {
+                    fail("Received " + written + " bytes, expected " + length);
+                    return;
+                }
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    fail("IOException while closing target: " + e.getMessage());
+                    return;
+                }
+                complete = true;
+                log.debug("Transfer {} received, {} bytes", transferId, written);
+                getContext().parent().tell(
+                        new LocalMessage.TransferCompleteMessage(transferId, file, written,
+                                System.nanoTime() - startTime), getSelf());
+                getContext().stop(getSelf());
+            }
+        } else if (message instanceof ReceiveTimeout) {
+            metrics.timeout();
+            fail("Transfer timed out, received " + written + " of " + length + " bytes");
+        } else {
+            unhandled(message);
+        }
+    }
+
+    private void fail(String reason) {
+        log.warning("Transfer {} to {} failed: {}", transferId,
+                file != null ? file.getAbsolutePath() : "stream", reason);
+        getContext().parent().tell(
+                new LocalMessage.TransferFailedMessage(transferId, reason), getSelf());
+        getContext().stop(getSelf());
+    }
+}
@@ -0,0 +1,189 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.kyrioslab.dsvc.node.messages.ClusterMessage;
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.kyrioslab.dsvc.node.metrics.StageMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Sends file, or data in memory, by chunks to the actor, replied
+ * with {@link ClusterMessage.TransferReady}. Keeps at most window
+ * chunks unacknowledged, so only window chunks of file are in memory.
+ * Reports result to the parent actor.
+ */
+public class ChunkSender extends UntypedActor {
+
+    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    private final String transferId;
+
+    /**
+     * Source file, null if data is sent.
+     */
+    private final File file;
+
+    /**
+     * Source data, null if file is sent.
+     */
+    private final byte[] data;
+
+    private final TransferSettings settings;
+
+    private final StageMetrics metrics = StageMetrics.get(getContext().system());
+
+    private FileChannel channel;
+    private long length;
+    private int chunkCount;
+
+    /**
+     * Next chunk to send.
+     */
+    private int nextSeq = 0;
+
+    /**
+     * Last acknowledged chunk.
+     */
+    private int ackedSeq = -1;
+
+    /**
+     * Chunks receiver, known after TransferReady.
+     */
+    private ActorRef destination;
+
+    /**
+     * Transfer start, System.nanoTime() of TransferReady.
+     */
+    private long startTime;
+
+    public ChunkSender(String transferId, File file, TransferSettings settings) {
+        this(transferId, file, null, settings);
+    }
+
+    public ChunkSender(String transferId, byte[] data, TransferSettings settings) {
+        this(transferId, null, data, settings);
+    }
+
+    private ChunkSender(String transferId, File file, byte[] data, TransferSettings settings) {
+        this.transferId = transferId;
+        this.file = file;
+        this.data = data;
+        this.settings = settings;
+    }
+
+    public static Props props(String transferId, File file, TransferSettings settings) {
+        return Props.create(ChunkSender.class, transferId, file, settings)
+                .withDispatcher(settings.getDispatcher());
+    }
+
+    public static Props props(String transferId, byte[] data, TransferSettings settings) {
+        return Props.create(ChunkSender.class, transferId, data, settings)
+                .withDispatcher(settings.getDispatcher());
+    }
+
+    @Override
+    public void preStart() {
+        if (data != null) {
+            length = data.length;
+        } else {
+            try {
+                channel = new RandomAccessFile(file, "r").getChannel();
+                length = channel.size();
+            } catch (IOException e) {
+                fail("IOException while opening file: " + e.getMessage());
+                return;
+            }
+        }
+        chunkCount = Math.max(1, (int) ((length + settings.getChunkSize() - 1)
+                / settings.getChunkSize()));
+        getContext().setReceiveTimeout(settings.getIdleTimeout());
+    }
+
+    @Override
+    public void postStop() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void onReceive(Object message) {
+        if (message instanceof ClusterMessage.TransferReady) {
+            if (destination == null) {
+                destination = getSender();
+                startTime = System.nanoTime();
+                sendWindow();
+            }
+        } else if (message instanceof ClusterMessage.PartChunkAck) {
+            int seq = ((ClusterMessage.PartChunkAck) message).getSeq();
+            if (seq > ackedSeq) {
+                ackedSeq = seq;
+            }
+            if (ackedSeq == chunkCount - 1) {
+                log.debug("Transfer {} complete, {} bytes", transferId, length);
+                getContext().parent().tell(
+                        new LocalMessage.TransferCompleteMessage(transferId, file, length,
+                                System.nanoTime() - startTime), getSelf());
+                getContext().stop(getSelf());
+            } else {
+                sendWindow();
+            }
+        } else if (message instanceof ReceiveTimeout) {
+            metrics.timeout();
+            fail("Transfer timed out, acknowledged " + (ackedSeq + 1) + " of " + chunkCount);
+        } else {
+            unhandled(message);
+        }
+    }
+
+    private void sendWindow() {
+        while (nextSeq < chunkCount && nextSeq - ackedSeq <= settings.getWindow()) {
+            byte[] data;
+            try {
+                data = readChunk(nextSeq);
+            } catch (IOException e) {
+                fail("IOException while reading chunk: " + e.getMessage());
+                return;
+            }
+            destination.tell(new ClusterMessage.PartChunk(transferId, nextSeq, data,
+                    nextSeq == chunkCount - 1), getSelf());
+            metrics.sent(data.length);
+            nextSeq++;
+        }
+    }
+
+    private byte[] readChunk(int seq) throws IOException {
+        long position = (long) seq * settings.getChunkSize();
+        if (data != null) {
+            return Arrays.copyOfRange(data, (int) position,
+                    (int) Math.min(position + settings.getChunkSize(), length));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(
+                (int) Math.min(settings.getChunkSize(), length - position));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file: " + file.getAbsolutePath());
+            }
+        }
+        return buffer.array();
+    }
+
+    private void fail(String reason) {
+        log.warning("Transfer {} of {} failed: {}", transferId,
+                file != null ? file.getAbsolutePath() : "data", reason);
+        getContext().parent().tell(
+                new LocalMessage.TransferFailedMessage(transferId, reason), getSelf());
+        getContext().stop(getSelf());
+    }
+}
@@ -0,0 +1,35 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * No shared storage: every file is transferred by chunks.
+ */
+public class ChunkedStorage implements PartStorage {
+
+    private final File tmpDir;
+
+    public ChunkedStorage(File tmpDir) {
+        this.tmpDir = tmpDir;
+    }
+
+    @Override
+    public PartRef export(File file) {
+        return null;
+    }
+
+    @Override
+    public File resolve(PartRef ref) throws IOException {
+        throw new IOException("Shared storage is not configured, cannot resolve " + ref);
+    }
+
+    @Override
+    public void discard(PartRef ref) {
+    }
+
+    @Override
+    public File getOutputDir(String name) {
+        return tmpDir;
+    }
+}
@@ -0,0 +1,38 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import java.io.Serializable;
+
+/**
+ * Reference to file on shared storage: path relative to storage
+ * root, so nodes may mount storage at different places, length
+ * and CRC32 checksum of file content.
+ */
+public class PartRef implements Serializable {
+
+    private final String path;
+    private final long length;
+    private final long checksum;
+
+    public PartRef(String path, long length, long checksum) {
+        this.path = path;
+        this.length = length;
+        this.checksum = checksum;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return "PartRef{" + path + ", " + length + " bytes}";
+    }
+}
@@ -0,0 +1,36 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * How part files get to other nodes: bytes are shipped by chunks
+ * or nodes pass references to files on shared storage.
+ */
+public interface PartStorage {
+
+    /**
+     * @param file local file
+     * @return reference to the file for other nodes, or null
+     * if file must be transferred by chunks
+     */
+    PartRef export(File file) throws IOException;
+
+    /**
+     * @param ref reference from other node
+     * @return local file, content is verified
+     * @throws IOException if file is missing or damaged
+     */
+    File resolve(PartRef ref) throws IOException;
+
+    /**
+     * Deletes referenced file, which is not needed.
+     */
+    void discard(PartRef ref);
+
+    /**
+     * @param name file name
+     * @return local directory for files, written for other nodes
+     */
+    File getOutputDir(String name) throws IOException;
+}
@@ -0,0 +1,96 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Storage, mounted on all nodes (NFS or local directory).
+ * Files under storage root are passed by reference, other
+ * files are transferred by chunks.
+ */
+public class SharedStorage implements PartStorage {
+
+    /**
+     * Size of file region, mapped at once for checksum.
+     */
+    private static final long MAP_SIZE = 64L * 1024 * 1024;
+
+    private final File root;
+
+    private final boolean verify;
+
+    public SharedStorage(File root, boolean verify) {
+        this.root = root.getAbsoluteFile();
+        this.verify = verify;
+    }
+
+    @Override
+    public PartRef export(File file) throws IOException {
+        String rootPath = root.getCanonicalPath() + File.separator;
+        String path = file.getCanonicalPath();
+        if (!path.startsWith(rootPath)) {
+            return null;
+        }
+        return new PartRef(path.substring(rootPath.length()), file.length(),
+                verify ? checksum(file) : 0);
+    }
+
+    @Override
+    public File resolve(PartRef ref) throws IOException {
+        File file = new File(root, ref.getPath());
+        if (!file.isFile()) {
+            throw new IOException("Shared file not found: " + file.getAbsolutePath());
+        }
+        if (file.length() != ref.getLength()) {
+            throw new IOException("Shared file " + file.getAbsolutePath() + " has length "
+                    + file.length() + ", expected " + ref.getLength());
+        }
+        if (verify && checksum(file) != ref.getChecksum()) {
+            throw new IOException("Shared file checksum mismatch: " + file.getAbsolutePath());
+        }
+        return file;
+    }
+
+    @Override
+    public void discard(PartRef ref) {
+        File file = new File(root, ref.getPath());
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Override
+    public File getOutputDir(String name) throws IOException {
+        File dir = new File(root, name);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create shared directory " + dir.getAbsolutePath());
+        }
+        return dir;
+    }
+
+    /**
+     * CRC32 of file content, file is read by mapped regions.
+     */
+    public static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            byte[] buf = new byte[64 * 1024];
+            for (long pos = 0; pos < size; pos += MAP_SIZE) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                        pos, Math.min(MAP_SIZE, size - pos));
+                while (region.hasRemaining()) {
+                    int n = Math.min(buf.length, region.remaining());
+                    region.get(buf, 0, n);
+                    crc.update(buf, 0, n);
+                }
+            }
+        }
+        return crc.getValue();
+    }
+}
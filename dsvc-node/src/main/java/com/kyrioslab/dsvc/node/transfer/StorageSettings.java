@@ -0,0 +1,68 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+
+import java.io.File;
+
+/**
+ * Part storage settings, read from <code>dsvc.storage</code>
+ * section of the configuration.
+ */
+public class StorageSettings {
+
+    public static final String CONFIG_PATH = "dsvc.storage";
+
+    /**
+     * Pass references to files on shared storage.
+     */
+    private final boolean shared;
+
+    /**
+     * Root of shared storage on this node.
+     */
+    private final String sharedRoot;
+
+    /**
+     * Verify checksum of shared files.
+     */
+    private final boolean verify;
+
+    public StorageSettings(Config config) {
+        Config c = config.getConfig(CONFIG_PATH);
+        switch (c.getString("mode")) {
+            case "shared":
+                this.shared = true;
+                break;
+            case "transfer":
+                this.shared = false;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage mode: " + c.getString("mode"));
+        }
+        this.sharedRoot = c.getString("shared-root");
+        this.verify = c.getBoolean("verify-checksum");
+
+        if (shared && sharedRoot.isEmpty()) {
+            throw new IllegalArgumentException("Shared storage root is not set");
+        }
+    }
+
+    public static StorageSettings get(ActorSystem system) {
+        return new StorageSettings(system.settings().config());
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @param tmpDir local temporary dir for chunked transfer
+     * @return storage for configured mode
+     */
+    public PartStorage createStorage(String tmpDir) {
+        return shared
+                ? new SharedStorage(new File(sharedRoot), verify)
+                : new ChunkedStorage(new File(tmpDir));
+    }
+}
@@ -0,0 +1,69 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of chunked part transfer, read from <code>dsvc.transfer</code>
+ * section of the configuration.
+ */
+public class TransferSettings {
+
+    public static final String CONFIG_PATH = "dsvc.transfer";
+
+    /**
+     * Size of one chunk in bytes, must fit into remote frame size.
+     */
+    private final int chunkSize;
+
+    /**
+     * Count of chunks, sent without acknowledgement.
+     */
+    private final int window;
+
+    /**
+     * Transfer fails when nothing received during this period.
+     */
+    private final FiniteDuration idleTimeout;
+
+    /**
+     * Dispatcher for transfer actors, they are doing file I/O.
+     */
+    private final String dispatcher;
+
+    public TransferSettings(Config config) {
+        Config c = config.getConfig(CONFIG_PATH);
+        this.chunkSize = c.getInt("chunk-size");
+        this.window = c.getInt("window");
+        this.idleTimeout = FiniteDuration.create(
+                c.getDuration("idle-timeout", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        this.dispatcher = c.getString("dispatcher");
+
+        if (chunkSize <= 0 || window <= 0) {
+            throw new IllegalArgumentException("Chunk size and window must be positive");
+        }
+    }
+
+    public static TransferSettings get(ActorSystem system) {
+        return new TransferSettings(system.settings().config());
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public FiniteDuration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public String getDispatcher() {
+        return dispatcher;
+    }
+}
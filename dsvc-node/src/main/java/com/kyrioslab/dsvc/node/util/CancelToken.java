@@ -0,0 +1,44 @@
+package com.kyrioslab.dsvc.node.util;
+
+/**
+ * Cancels processes of one task, run by {@link ProcessRunner}. Running
+ * process is killed at once, process of cancelled task is not started,
+ * so its slot is freed for other work.
+ */
+public class CancelToken {
+
+    private Process process;
+    private boolean cancelled = false;
+
+    /**
+     * Kills running process of the task and prevents next ones.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return false if task is cancelled, then process is killed
+     */
+    synchronized boolean attach(Process p) {
+        if (cancelled) {
+            p.destroy();
+            return false;
+        }
+        process = p;
+        return true;
+    }
+
+    synchronized void detach(Process p) {
+        if (process == p) {
+            process = null;
+        }
+    }
+}
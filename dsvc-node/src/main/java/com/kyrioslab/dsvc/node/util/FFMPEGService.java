@@ -2,19 +2,20 @@ package com.kyrioslab.dsvc.node.util;
 
 import com.kyrioslab.dsvc.node.MergeProcessException;
 import com.kyrioslab.dsvc.node.SplitProcessException;
-import com.kyrioslab.jffmpegw.command.Command;
 import com.kyrioslab.jffmpegw.command.MergeCommand;
 import com.kyrioslab.jffmpegw.command.SplitCommand;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by Ivan Kirilyuk on 28.12.14.
@@ -34,9 +35,15 @@ public class FFMPEGService {
     public static final String RECEIVE_DIR_PREFIX = "res-";
 
     /**
-     * File name that contains list of parts to merge.
+     * Prefix for directory containing intermediate merge results.
      */
-    public static final String LIST_FILE_NAME = "list.txt";
+    public static final String MERGE_DIR_PREFIX = "mrg-";
+
+    /**
+     * Suffix of segment list file, written by segment muxer
+     * while splitting.
+     */
+    public static final String SEGMENT_LIST_SUFFIX = ".segments";
 
     /**
      * Template for part names, used in split command.
@@ -58,10 +65,29 @@ public class FFMPEGService {
      */
     private String ffmpeg;
 
-    public FFMPEGService(String ffmpeg, int segmentTime, String tmpDir) {
+    /**
+     * Runs ffmpeg processes.
+     */
+    private final ProcessRunner processRunner;
+
+    public FFMPEGService(String ffmpeg, int segmentTime, String tmpDir,
+                         ProcessRunner processRunner) {
         this.ffmpeg = ffmpeg;
         this.segmentTime = segmentTime;
         this.tmpDir = tmpDir;
+        this.processRunner = processRunner;
+    }
+
+    public String getTmpDir() {
+        return tmpDir;
+    }
+
+    public String getFfmpeg() {
+        return ffmpeg;
+    }
+
+    public ProcessRunner getProcessRunner() {
+        return processRunner;
     }
 
     /**
@@ -74,28 +100,80 @@ public class FFMPEGService {
      */
     public List<File> splitVideo(String format, String srcPath, String batchUUID,
                                  String duration) throws IOException, SplitProcessException, InterruptedException {
-        SplitCommand command = new SplitCommand(ffmpeg, srcPath, segmentTime, 0, duration);
+        return splitVideo(format, srcPath, batchUUID, duration, null);
+    }
 
-        //add output format to spit command
-        command.addAttribute(SPLIT_OUTPUT_FORMAT + format);
+    /**
+     * Splits source video file into parts. Creates output directory
+     * for parts and directory for encoded results. If listener is set,
+     * segment muxer writes list of finished segments, which is followed
+     * while ffmpeg is running, and listener is notified about each
+     * segment as soon as it is written.
+     *
+     * @param srcPath  absolute video path
+     * @param listener finished segments listener, may be null
+     * @return list of splitted parts
+     * @throws java.io.IOException
+     */
+    public List<File> splitVideo(String format, String srcPath, String batchUUID,
+                                 String duration, SegmentListener listener)
+            throws IOException, SplitProcessException, InterruptedException {
+        return splitVideo(format, srcPath, batchUUID, duration, segmentTime, listener);
+    }
+
+    /**
+     * Splits source video file into parts of given duration.
+     *
+     * @param segmentTime part duration, seconds
+     * @see #splitVideo(String, String, String, String, SegmentListener)
+     */
+    public List<File> splitVideo(String format, String srcPath, String batchUUID,
+                                 String duration, int segmentTime, SegmentListener listener)
+            throws IOException, SplitProcessException, InterruptedException {
+        SplitCommand command = new SplitCommand(ffmpeg, srcPath, segmentTime, 0, duration);
 
         File outputDir = Paths.get(tmpDir, batchUUID).toFile();
         File receiveDir = getReceiveDir(batchUUID);
+        File segmentList = getSegmentListFile(batchUUID);
+
+        if (listener != null) {
+            command.addAttribute("-segment_list");
+            command.addAttribute(segmentList.getAbsolutePath());
+            command.addAttribute("-segment_list_type");
+            command.addAttribute("flat");
+        }
+
+        //add output format to spit command
+        command.addAttribute(SPLIT_OUTPUT_FORMAT + format);
 
         boolean createdOutput = outputDir.mkdir();
-        boolean createdReceiving = receiveDir.mkdir();
+
+        //receive directory of resumed job keeps parts, received before restart
+        boolean createdReceiving = receiveDir.mkdir() || receiveDir.isDirectory();
 
         if (!(createdOutput && createdReceiving)) {
             throw new IOException("Cannot create service directories");
         }
 
         try {
-            Process p = startProcess(command, outputDir);
-            if (p.waitFor() != 0) {
-                throw new SplitProcessException(IOUtils.toString(p.getErrorStream()));
+            SegmentFollower follower = listener == null ? null
+                    : new SegmentFollower(segmentList, outputDir, listener);
+            ProcessResult result = processRunner.run(command.getCommand(), outputDir,
+                    processRunner.getTimeout(), follower);
+
+            //the rest of the list, written before exit
+            if (follower != null) {
+                follower.poll();
             }
-        } catch (IOException e) {
+            if (!result.isSuccess()) {
+                throw new SplitProcessException(result.getOutput());
+            }
+        } catch (IOException | TimeoutException e) {
             throw new SplitProcessException("Exception while split process. " + e.getMessage());
+        } finally {
+            if (segmentList.exists() && !segmentList.delete()) {
+                segmentList.deleteOnExit();
+            }
         }
 
         File[] parts = outputDir.listFiles();
@@ -104,66 +182,187 @@ public class FFMPEGService {
     }
 
     /**
-     * Merges encoded parts into resulting video.
-     *
-     * @param batchUUID batch uuid
-     * @param fileName  name of resulting video file
-     * @return resulting video file
+     * Reads segment list while split process is running and notifies
+     * listener about every complete line.
      */
-    public File merge(String batchUUID, String fileName) throws IllegalStateException, IOException, MergeProcessException, InterruptedException {
+    private static class SegmentFollower implements ProcessWatcher {
+
+        private final File segmentList;
+        private final File outputDir;
+        private final SegmentListener listener;
 
-        File resDir = getReceiveDir(batchUUID);
-        File[] encodedList = resDir.listFiles();
-        if (encodedList == null) {
-            throw new IllegalStateException("No files to merge in directory: "
-                    + resDir.getAbsolutePath());
+        /**
+         * Offset of the first not read line.
+         */
+        private long offset = 0;
+
+        private SegmentFollower(File segmentList, File outputDir, SegmentListener listener) {
+            this.segmentList = segmentList;
+            this.outputDir = outputDir;
+            this.listener = listener;
         }
 
-        //sort parts to merge them in right order
-        Arrays.sort(encodedList, new VideoFileComaprator());
+        @Override
+        public void poll() throws IOException {
+            if (!segmentList.exists()) {
+                return;
+            }
+            try (RandomAccessFile list = new RandomAccessFile(segmentList, "r")) {
+                if (list.length() <= offset) {
+                    return;
+                }
+                byte[] tail = new byte[(int) (list.length() - offset)];
+                list.seek(offset);
+                list.readFully(tail);
+
+                int lineStart = 0;
+                for (int i = 0; i < tail.length; i++) {
+                    if (tail[i] == '\n') {
+                        String entry = new String(tail, lineStart, i - lineStart,
+                                StandardCharsets.UTF_8).trim();
+                        if (!entry.isEmpty()) {
+                            listener.onSegment(resolveSegment(entry));
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+                offset += lineStart;
+            }
+        }
 
-        //form list of video parts for ffmpeg
-        File listFile = Paths.get(resDir.getAbsolutePath(), LIST_FILE_NAME).toFile();
-        if (!listFile.createNewFile()) {
-            throw new IOException("Cannot create file for parts list");
+        private File resolveSegment(String entry) {
+            File segment = new File(entry);
+            return segment.isAbsolute() ? segment : new File(outputDir, entry);
         }
-        try (FileWriter fw = new FileWriter(listFile)) {
-            for (File e : encodedList) {
-                fw.write("file '" + e.getAbsolutePath() + System.lineSeparator());
+    }
+
+    /**
+     * Gets video duration: duration limit of the request if set,
+     * otherwise duration of the file, reported by ffprobe.
+     *
+     * @param srcPath  video path
+     * @param duration requested duration, seconds or [HH:]MM:SS[.ms], may be null
+     * @return duration in seconds, or -1 if not known
+     */
+    public double getDuration(String srcPath, String duration) throws InterruptedException {
+        double requested = parseDuration(duration);
+        if (requested > 0) {
+            return requested;
+        }
+        List<String> command = Arrays.asList(getFfprobe(), "-v", "error",
+                "-show_entries", "format=duration", "-of", "default=nw=1:nk=1", srcPath);
+        try {
+            ProcessResult result = processRunner.run(command, new File(tmpDir));
+            return result.isSuccess() ? parseDuration(result.getOutput().trim()) : -1;
+        } catch (IOException | TimeoutException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return seconds, or -1 if duration can not be parsed
+     */
+    public static double parseDuration(String duration) {
+        if (duration == null || duration.isEmpty()) {
+            return -1;
+        }
+        try {
+            double seconds = 0;
+            for (String field : duration.split(":")) {
+                seconds = seconds * 60 + Double.parseDouble(field);
             }
-            fw.flush();
-        } catch (IOException e) {
-            throw new IOException("Exception while writing list of files for merge", e);
+            return seconds;
+        } catch (NumberFormatException e) {
+            return -1;
         }
+    }
 
-        //merge parts
-        MergeCommand command = new MergeCommand(ffmpeg, listFile.getName(), fileName);
+    /**
+     * ffprobe is expected next to ffmpeg.
+     */
+    private String getFfprobe() {
+        int name = ffmpeg.lastIndexOf("ffmpeg");
+        return name < 0 ? "ffprobe"
+                : ffmpeg.substring(0, name) + "ffprobe" + ffmpeg.substring(name + "ffmpeg".length());
+    }
+
+    public int getSegmentTime() {
+        return segmentTime;
+    }
+
+    /**
+     * Concatenates video files in given order.
+     *
+     * @param parts  ordered video files
+     * @param output resulting video file
+     * @return resulting video file
+     */
+    public File concat(List<File> parts, File output) throws IOException, MergeProcessException, InterruptedException {
+        File workDir = output.getParentFile();
+        File listFile = File.createTempFile("list-", ".txt", workDir);
         try {
-            Process p = startProcess(command, resDir);
-            if (p.waitFor() != 0) {
-                throw new MergeProcessException(IOUtils.toString(p.getErrorStream()));
+            writePartsList(listFile, parts);
+            MergeCommand command = new MergeCommand(ffmpeg, listFile.getAbsolutePath(),
+                    output.getAbsolutePath());
+            ProcessResult result = processRunner.run(command.getCommand(), workDir);
+            if (!result.isSuccess()) {
+                throw new MergeProcessException(result.getOutput());
             }
+        } catch (IOException | TimeoutException e) {
+            throw new MergeProcessException("Exception while concat process " + e.getMessage());
+        } finally {
+            if (!listFile.delete()) {
+                listFile.deleteOnExit();
+            }
+        }
+        return output;
+    }
 
-            //merge success, remove tmp files
-            File srcDir = getSourceDir(batchUUID);
-            if (srcDir.exists()) {
+    /**
+     * Removes source parts and intermediate merge results of the batch.
+     */
+    public void cleanup(String batchUUID) throws IOException {
+        for (File dir : new File[]{getSourceDir(batchUUID), getMergeDir(batchUUID)}) {
 
-                //just ensure we are in tmp dir
-                if (srcDir.getParentFile().getPath().equals(tmpDir)) {
-                    FileUtils.deleteDirectory(srcDir);
-                }
+            //just ensure we are in tmp dir
+            if (dir.exists() && dir.getParentFile().getPath().equals(tmpDir)) {
+                FileUtils.deleteDirectory(dir);
             }
-        } catch (IOException e) {
-            throw new MergeProcessException("Exception while merge process " + e.getMessage());
         }
+    }
 
-        return Paths.get(resDir.getAbsolutePath(), fileName).toFile();
+    private void writePartsList(File listFile, List<File> parts) throws IOException {
+        try (FileWriter fw = new FileWriter(listFile)) {
+            for (File e : parts) {
+                fw.write("file '" + e.getAbsolutePath() + "'" + System.lineSeparator());
+            }
+            fw.flush();
+        } catch (IOException e) {
+            throw new IOException("Exception while writing list of files for merge", e);
+        }
     }
 
     public File getReceiveDir(String batchUUID) {
         return Paths.get(tmpDir, RECEIVE_DIR_PREFIX + batchUUID).toFile();
     }
 
+    /**
+     * @return directory for encoded parts of the rendition, receive
+     * directory itself for the first rendition
+     */
+    public File getRenditionDir(String batchUUID, int rendition) {
+        File receiveDir = getReceiveDir(batchUUID);
+        return rendition == 0 ? receiveDir : new File(receiveDir, "r" + rendition);
+    }
+
+    public File getSegmentListFile(String batchUUID) {
+        return Paths.get(tmpDir, batchUUID + SEGMENT_LIST_SUFFIX).toFile();
+    }
+
+    public File getMergeDir(String batchUUID) {
+        return Paths.get(tmpDir, MERGE_DIR_PREFIX + batchUUID).toFile();
+    }
+
     public File getSourceDir(String batchUUID) {
         return Paths.get(tmpDir, batchUUID).toFile();
     }
@@ -172,6 +371,13 @@ public class FFMPEGService {
         return part.getParentFile().getName() + DELIMETER_ID + part.getName();
     }
 
+    /**
+     * @return part number, parsed from part file name
+     */
+    public static int partIndex(File part) {
+        return Integer.valueOf(part.getName().substring(0, part.getName().indexOf(".")));
+    }
+
     public static String batchIdFromPartId(String partId) {
         return partId.substring(0, partId.indexOf(DELIMETER_ID));
     }
@@ -184,8 +390,4 @@ public class FFMPEGService {
     public File getPartFile(String partId) {
         return Paths.get(tmpDir, batchIdFromPartId(partId), partId).toFile();
     }
-
-    private Process startProcess(Command command, File directory) throws IOException {
-        return new ProcessBuilder(command.getCommand()).directory(directory).start();
-    }
 }
@@ -0,0 +1,121 @@
+package com.kyrioslab.dsvc.node.util;
+
+import akka.actor.Address;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Moving averages of samples, kept per encoder node and command
+ * profile, and per profile across nodes. Node, which has not enough
+ * samples yet, gets average of the profile.
+ */
+public class KeyedEwma {
+
+    private final double alpha;
+    private final int minSamples;
+    private final int window;
+    private final double percentile;
+
+    private final Map<String, Average> averages = new HashMap<>();
+
+    /**
+     * @param alpha      weight of the new sample in moving average
+     * @param minSamples samples of node, needed to use its own average
+     */
+    public KeyedEwma(double alpha, int minSamples) {
+        this(alpha, minSamples, 0, 0);
+    }
+
+    /**
+     * @param window     count of recent samples, percentile is taken of
+     * @param percentile percentile of recent samples, 0..1
+     */
+    public KeyedEwma(double alpha, int minSamples, int window, double percentile) {
+        this.alpha = alpha;
+        this.minSamples = minSamples;
+        this.window = window;
+        this.percentile = percentile;
+    }
+
+    /**
+     * @param node encoder node, may be null, then sample
+     *             is added to the profile only
+     */
+    public void add(Address node, String profile, double sample) {
+        average(key(null, profile)).add(sample);
+        if (node != null) {
+            average(key(node, profile)).add(sample);
+        }
+    }
+
+    /**
+     * @param node encoder node, may be null
+     * @return average of the node, or of the profile, if node has
+     * less than min samples, null if profile has no samples
+     */
+    public Average get(Address node, String profile) {
+        Average a = node == null ? null : averages.get(key(node, profile));
+        if (a == null || a.count < minSamples) {
+            a = averages.get(key(null, profile));
+        }
+        return a;
+    }
+
+    private Average average(String key) {
+        Average a = averages.get(key);
+        if (a == null) {
+            a = new Average();
+            averages.put(key, a);
+        }
+        return a;
+    }
+
+    private static String key(Address node, String profile) {
+        return (node == null ? "*" : node.toString()) + "|" + profile;
+    }
+
+    /**
+     * Moving average and percentile of recent samples.
+     */
+    public class Average {
+
+        private final double[] recent = new double[window];
+        private int next = 0;
+        private int count = 0;
+        private double ewma;
+        private double top;
+
+        private void add(double sample) {
+            ewma = count == 0 ? sample : alpha * sample + (1 - alpha) * ewma;
+            count++;
+            if (recent.length == 0) {
+                return;
+            }
+            recent[next] = sample;
+            next = (next + 1) % recent.length;
+
+            int size = Math.min(count, recent.length);
+            double[] sorted = Arrays.copyOf(recent, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * size) - 1;
+            top = sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+
+        public double getEwma() {
+            return ewma;
+        }
+
+        /**
+         * @return percentile of recent samples, 0 if window is not set
+         */
+        public double getPercentile() {
+            return top;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -2,40 +2,73 @@ package com.kyrioslab.dsvc.node.util;
 
 import com.kyrioslab.dsvc.node.messages.LocalMessage;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by Ivan Kirilyuk on 08.01.15.
  *
+ * Tracked part: start time and deadline, both on monotonic clock.
  */
-public class PartTime {
-
-    public static final int TIME_INCREMENT = 1;
+public class PartTime implements Comparable<PartTime> {
 
     private final String partId;
     private final LocalMessage.PlaceOnTrackMessage savedMsg;
-    private long time = 0;
+    private final long startNanos;
+    private long deadlineNanos;
 
-    public PartTime(String partId, LocalMessage.PlaceOnTrackMessage savedMsg) {
+    /**
+     * False when part is untracked or time is reset, entry in
+     * deadline queue is skipped then.
+     */
+    private boolean active = true;
+
+    public PartTime(String partId, LocalMessage.PlaceOnTrackMessage savedMsg,
+                    long startNanos, long deadlineNanos) {
         this.partId = partId;
         this.savedMsg = savedMsg;
+        this.startNanos = startNanos;
+        this.deadlineNanos = deadlineNanos;
     }
 
-    public void inc() {
-        time += TIME_INCREMENT;
+    public String getPartId() {
+        return partId;
     }
 
-    public void reset() {
-        this.time = 0;
+    /**
+     * @return time since part is placed on track, ms
+     */
+    public long getTime(long nowNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos);
     }
 
-    public String getPartId() {
-        return partId;
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    public void setDeadlineNanos(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public boolean isActive() {
+        return active;
     }
 
-    public long getTime() {
-        return time;
+    public void deactivate() {
+        this.active = false;
     }
 
     public LocalMessage.PlaceOnTrackMessage getSavedMsg() {
         return savedMsg;
     }
+
+    @Override
+    public int compareTo(PartTime o) {
+
+        //nano time may overflow, compare difference
+        return Long.signum(deadlineNanos - o.deadlineNanos);
+    }
 }
@@ -1,44 +1,58 @@
 package com.kyrioslab.dsvc.node.util;
 
 import akka.actor.ActorRef;
+import akka.actor.Address;
 import akka.actor.Cancellable;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import com.kyrioslab.dsvc.node.messages.ClusterMessage;
 import com.kyrioslab.dsvc.node.messages.LocalMessage;
-import org.apache.commons.collections.buffer.CircularFifoBuffer;
+import com.kyrioslab.dsvc.node.metrics.StageMetrics;
 import scala.concurrent.duration.FiniteDuration;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Ivan Kirilyuk on 08.01.15.
  * Service for tracking video parts.
+ * <p/>
+ * Part attempts are indexed by transfer id and ordered by deadline in
+ * a heap, single timer is scheduled for the earliest deadline. Every
+ * attempt has own deadline, so backup attempt is not failed by the
+ * deadline of the attempt it backs up. Untracked and reset attempts
+ * are only marked inactive and skipped when they reach the heap top,
+ * so every operation is O(log n) at most.
+ * <p/>
+ * Deadline is part start plus timeout, estimated at placement for
+ * encoder node, command profile and part size. When estimate grows
+ * later, expired part is given the rest of the new timeout.
  */
 public class PartTrackService extends UntypedActor {
 
     private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
 
-    public static final Double VAR_MULTIPLIER = 3.0;
-    public static final int PART_BUFFER_SIZE = 100;
-    public static final Double DEFAULT_AVG_TIME = 300.0; // 5 min
     /**
-     * List for traking how long parts are on encoding.
+     * Tracked part attempts by transfer id.
      */
-    private Queue<PartTime> partList = new ConcurrentLinkedQueue<>();
+    private final Map<String, PartTime> parts = new HashMap<>();
 
     /**
-     * Success part time for avg time calculation.
+     * Tracked parts by deadline, may contain inactive entries.
      */
-    private CircularFifoBuffer successPartTime = new CircularFifoBuffer(PART_BUFFER_SIZE);
+    private final PriorityQueue<PartTime> deadlines = new PriorityQueue<>();
 
     /**
-     * Parts average encoding time.
+     * Estimates part timeouts from encoded parts times.
      */
-    private double avgTime = DEFAULT_AVG_TIME;
+    private final TimeoutEstimator estimator =
+            new TimeoutEstimator(TrackSettings.get(getContext().system()));
 
     /**
      * Client actor reference.
@@ -46,124 +60,190 @@ public class PartTrackService extends UntypedActor {
     private final ActorRef client;
 
     /**
-     * Generates tick messages
+     * Fires at the earliest deadline.
      */
-    private Cancellable clock;
+    private Cancellable timer;
+
+    /**
+     * Deadline, timer is scheduled for.
+     */
+    private long timerDeadline;
 
     public PartTrackService(ActorRef client) {
         this.client = client;
     }
 
     @Override
-    public void preStart() {
-        startClock();
+    public void postStop() {
+        cancelTimer();
     }
 
     @Override
     public void onReceive(Object message) throws Exception {
         if (message instanceof LocalMessage.TickMessage) {
-            for (PartTime pt : partList) {
-                pt.inc();
-
-                //if part is timed out, send failed message
-                if (pt.getTime() >= avgTime * VAR_MULTIPLIER) {
-                    client.tell(new ClusterMessage.EncodePartFailed(
-                                    "Part timed out: " + pt.getTime(),
-                                    pt.getPartId(),
-                                    pt.getSavedMsg().getCommand()
-                            ),
-                            getSelf());
-                    partList.remove(pt);
-                }
-            }
-            if (partList.size() == 0) {
-                stopClock();
-            }
+            timer = null;
+            expire(System.nanoTime());
+            armTimer();
         } else if (message instanceof LocalMessage.PlaceOnTrackMessage) {
             LocalMessage.PlaceOnTrackMessage msg =
                     (LocalMessage.PlaceOnTrackMessage)message;
             log.info("Registered part {}", msg.getPartId());
-            partList.add(new PartTime(msg.getPartId(), msg));
-
-            //starts clock if not started yet
-            startClock();
+            place(msg);
+            armTimer();
         } else if (message instanceof LocalMessage.ResetPartTimeMessage) {
             final String partId = ((LocalMessage.ResetPartTimeMessage) message).getPartId();
             if (resetPartTime(partId)) {
                 log.info("Time reset done on part {}", partId);
+                armTimer();
             } else {
                 log.warning("Time reset queried for non registered part {}", partId);
             }
         } else if (message instanceof LocalMessage.UntrackPartMessage) {
-            LocalMessage.TrackPartMessage msg =
-                    ((LocalMessage.TrackPartMessage) message);
+            LocalMessage.UntrackPartMessage msg =
+                    ((LocalMessage.UntrackPartMessage) message);
 
             final String partId = msg.getPartId();
-            untrackPart(partId);
+            untrackPart(partId, msg.getTransferId(), msg.isEncoded(), msg.getNode());
+            armTimer();
         } else {
             unhandled(message);
         }
     }
 
-    private boolean resetPartTime(String partId) {
-        for (PartTime pt : partList) {
-            if (pt.getPartId().equals(partId)) {
-                pt.reset();
-                return true;
-            }
+    private void place(LocalMessage.PlaceOnTrackMessage msg) {
+        long now = System.nanoTime();
+        PartTime pt = new PartTime(msg.getPartId(), msg, now, now + timeoutNanos(msg));
+        PartTime old = parts.put(key(msg), pt);
+        if (old != null) {
+            old.deactivate();
         }
-        return false;
+        deadlines.add(pt);
     }
 
-    private void recalculateAvg() {
-        long comTime = 0;
-        for (Object time : successPartTime) {
-            comTime += (Long) time;
+    /**
+     * Fails parts, which deadline is passed.
+     */
+    private void expire(long now) {
+        PartTime pt;
+        while ((pt = deadlines.peek()) != null && pt.getDeadlineNanos() - now <= 0) {
+            deadlines.poll();
+            if (!pt.isActive()) {
+                continue;
+            }
+
+            //timeout grew since part was placed
+            long deadline = pt.getStartNanos() + timeoutNanos(pt.getSavedMsg());
+            if (deadline - now > 0) {
+                pt.setDeadlineNanos(deadline);
+                deadlines.add(pt);
+                continue;
+            }
+
+            parts.remove(key(pt.getSavedMsg()));
+            pt.deactivate();
+            StageMetrics.get(getContext().system()).timeout();
+            client.tell(new ClusterMessage.EncodePartFailed(
+                            "Part timed out: " + pt.getTime(now) + "ms",
+                            pt.getPartId(),
+                            pt.getSavedMsg().getCommand(),
+                            pt.getSavedMsg().getTransferId()
+                    ),
+                    getSelf());
         }
-        if (comTime != 0 && successPartTime.size() != 0) {
-            avgTime = comTime / (double) successPartTime.size();
-            log.info("Average part encoding time {}s", avgTime);
+    }
+
+    private boolean resetPartTime(String partId) {
+        boolean reset = false;
+        for (PartTime pt : new ArrayList<>(parts.values())) {
+            if (pt.getPartId().equals(partId)) {
+                place(pt.getSavedMsg());
+                reset = true;
+            }
         }
+        return reset;
     }
 
-    private void untrackPart(String partId) {
-        if (removePart(partId)) {
-            log.info("Part {} removed from track", partId);
-            recalculateAvg();
+    /**
+     * Removes given attempt of the part, or all its attempts
+     * if transfer id is null. Time of encoded attempt is sample
+     * of the node, which encoded it.
+     */
+    private void untrackPart(String partId, String transferId, boolean encoded,
+                             Address node) {
+        List<PartTime> removed = new ArrayList<>();
+        if (transferId != null) {
+            PartTime pt = parts.remove(transferId);
+            if (pt != null) {
+                removed.add(pt);
+            }
         } else {
+            Iterator<PartTime> it = parts.values().iterator();
+            while (it.hasNext()) {
+                PartTime pt = it.next();
+                if (pt.getPartId().equals(partId)) {
+                    it.remove();
+                    removed.add(pt);
+                }
+            }
+        }
+        if (removed.isEmpty()) {
             log.info("Part not registered {}", partId);
+            return;
         }
-    }
 
-    private boolean removePart(String partId) {
-        for (PartTime pt : partList) {
-            if (pt.getPartId().equals(partId)) {
-                successPartTime.add(pt.getTime());
-                return partList.remove(pt);
+        log.info("Part {} removed from track", partId);
+        for (PartTime pt : removed) {
+            pt.deactivate();
+            if (encoded) {
+                LocalMessage.PlaceOnTrackMessage placed = pt.getSavedMsg();
+                estimator.addSample(node != null ? node : placed.getNode(),
+                        placed.getProfile(), placed.getLength(),
+                        pt.getTime(System.nanoTime()));
             }
         }
-        return false;
     }
 
-    private void startClock() {
-        if (clock == null || clock.isCancelled()) {
-            clock = getContext().system().scheduler().schedule(
-                    FiniteDuration.apply(1, TimeUnit.SECONDS),
-                    FiniteDuration.apply(1, TimeUnit.SECONDS),
-                    new Runnable() {
-                        @Override
-                        public void run() {
-                            getSelf().tell(new LocalMessage.TickMessage(), null);
-                        }
-                    },
-                    getContext().dispatcher());
+    /**
+     * @return key of tracked attempt, part id if attempt is not known
+     */
+    private static String key(LocalMessage.PlaceOnTrackMessage msg) {
+        return msg.getTransferId() != null ? msg.getTransferId() : msg.getPartId();
+    }
+
+    private long timeoutNanos(LocalMessage.PlaceOnTrackMessage msg) {
+        return TimeUnit.MILLISECONDS.toNanos(estimator.getTimeout(msg.getNode(),
+                msg.getProfile(), msg.getLength()));
+    }
+
+    /**
+     * Schedules timer for the earliest active deadline, if it is not
+     * scheduled yet. Inactive entries on top of the heap are dropped.
+     */
+    private void armTimer() {
+        while (!deadlines.isEmpty() && !deadlines.peek().isActive()) {
+            deadlines.poll();
+        }
+        if (deadlines.isEmpty()) {
+            cancelTimer();
+            return;
+        }
+        long deadline = deadlines.peek().getDeadlineNanos();
+        if (timer != null && timerDeadline == deadline) {
+            return;
         }
+        cancelTimer();
+        timerDeadline = deadline;
+        long delay = Math.max(0, deadline - System.nanoTime());
+        timer = getContext().system().scheduler().scheduleOnce(
+                FiniteDuration.apply(delay, TimeUnit.NANOSECONDS),
+                getSelf(), new LocalMessage.TickMessage(),
+                getContext().dispatcher(), getSelf());
     }
 
-    private void stopClock() {
-        if (!clock.isCancelled()) {
-            clock.cancel();
-            avgTime = DEFAULT_AVG_TIME;
+    private void cancelTimer() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
         }
     }
 }
@@ -0,0 +1,21 @@
+package com.kyrioslab.dsvc.node.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Feeds process stdin and consumes its stdout.
+ */
+public interface PipeHandler {
+
+    /**
+     * Called when process is started. Process input ends, when stdin is closed.
+     */
+    void started(OutputStream stdin);
+
+    /**
+     * Reads process stdout to the end, called on runner thread.
+     */
+    void output(InputStream stdout) throws IOException;
+}
@@ -0,0 +1,28 @@
+package com.kyrioslab.dsvc.node.util;
+
+/**
+ * Exit code and the last part of output of finished process.
+ */
+public class ProcessResult {
+
+    private final int exitCode;
+
+    private final String output;
+
+    public ProcessResult(int exitCode, String output) {
+        this.exitCode = exitCode;
+        this.output = output;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public boolean isSuccess() {
+        return exitCode == 0;
+    }
+}
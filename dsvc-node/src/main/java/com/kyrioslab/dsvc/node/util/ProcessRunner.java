@@ -0,0 +1,355 @@
+package com.kyrioslab.dsvc.node.util;
+
+import akka.dispatch.ExecutionContexts;
+import com.typesafe.config.Config;
+import scala.concurrent.ExecutionContextExecutorService;
+import scala.concurrent.Future;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static akka.dispatch.Futures.future;
+
+/**
+ * Runs external processes (ffmpeg) out of actor dispatchers.
+ * Count of processes running at once is limited, process output is
+ * drained continuously, so process never blocks on full pipe, and
+ * only its tail is kept for error messages. Process is killed on
+ * timeout or when its task is cancelled by {@link CancelToken}.
+ * Process may be run with piped stdin and stdout, then data flows
+ * through {@link PipeHandler}. Settings are read from
+ * <code>dsvc.process</code> section of the configuration.
+ */
+public class ProcessRunner {
+
+    public static final String CONFIG_PATH = "dsvc.process";
+
+    /**
+     * How often process watcher is called, ms.
+     */
+    private static final long POLL_INTERVAL = 200;
+
+    /**
+     * Max count of processes, running at once.
+     */
+    private final int maxConcurrent;
+
+    /**
+     * Default process timeout, ms. 0 disables timeout.
+     */
+    private final long timeout;
+
+    /**
+     * Count of the last output bytes, kept for error message.
+     */
+    private final int outputTail;
+
+    private final Semaphore permits;
+
+    /**
+     * Runs tasks, which wait for processes.
+     */
+    private final ExecutionContextExecutorService executionContext;
+
+    /**
+     * Reads process output.
+     */
+    private final ExecutorService drainers;
+
+    private final Set<Process> running =
+            Collections.newSetFromMap(new ConcurrentHashMap<Process, Boolean>());
+
+    public ProcessRunner(Config config) {
+        Config c = config.getConfig(CONFIG_PATH);
+        int configured = c.getInt("max-concurrent");
+        this.maxConcurrent = configured > 0
+                ? configured : Runtime.getRuntime().availableProcessors();
+        this.timeout = c.getDuration("timeout", TimeUnit.MILLISECONDS);
+        this.outputTail = c.getBytes("output-tail").intValue();
+
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.executionContext = ExecutionContexts.fromExecutorService(
+                Executors.newFixedThreadPool(maxConcurrent, daemonThreads("dsvc-process-")));
+        this.drainers = Executors.newCachedThreadPool(daemonThreads("dsvc-process-output-"));
+    }
+
+    /**
+     * Runs task, which starts processes, on runner threads.
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return future(task, executionContext);
+    }
+
+    public ProcessResult run(List<String> command, File directory)
+            throws IOException, InterruptedException, TimeoutException {
+        return run(command, directory, timeout, null);
+    }
+
+    /**
+     * Starts process and waits for it. Waits for free process slot first.
+     *
+     * @param command   process command
+     * @param directory working directory
+     * @param timeoutMs process is killed after timeout, 0 disables timeout
+     * @param watcher   called periodically while process is running, may be null
+     * @return exit code and output tail
+     * @throws TimeoutException if process was killed on timeout
+     */
+    public ProcessResult run(List<String> command, File directory, long timeoutMs,
+                             ProcessWatcher watcher)
+            throws IOException, InterruptedException, TimeoutException {
+        return run(command, directory, timeoutMs, watcher, null);
+    }
+
+    /**
+     * Starts process and waits for it. Waits for free process slot first.
+     *
+     * @param command   process command
+     * @param directory working directory
+     * @param timeoutMs process is killed after timeout, 0 disables timeout
+     * @param watcher   called periodically while process is running, may be null
+     * @param token     kills process when task is cancelled, may be null
+     * @return exit code and output tail
+     * @throws TimeoutException      if process was killed on timeout
+     * @throws CancellationException if task was cancelled
+     */
+    public ProcessResult run(List<String> command, File directory, long timeoutMs,
+                             ProcessWatcher watcher, CancelToken token)
+            throws IOException, InterruptedException, TimeoutException {
+        permits.acquire();
+        try {
+            Process p = start(new ProcessBuilder(command).directory(directory)
+                    .redirectErrorStream(true), token);
+            boolean finished = false;
+            try {
+                java.util.concurrent.Future<String> output =
+                        drainers.submit(new OutputDrainer(p.getInputStream(), outputTail));
+                String tail = await(output, timeoutMs, watcher, command);
+                int exitCode = p.waitFor();
+                finished = true;
+                checkCancelled(token);
+                return new ProcessResult(exitCode, tail);
+            } finally {
+                stopped(p, token, finished);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Starts process with piped stdin and stdout and waits for it.
+     * Waits for free process slot first. Only stderr tail is kept.
+     *
+     * @param command   process command
+     * @param directory working directory
+     * @param timeoutMs process is killed after timeout, 0 disables timeout
+     * @param watcher   called periodically while process is running, may be null
+     * @param handler   gets stdin when process is started, reads stdout
+     * @return exit code and stderr tail
+     * @throws TimeoutException if process was killed on timeout
+     */
+    public ProcessResult pipe(List<String> command, File directory, long timeoutMs,
+                              ProcessWatcher watcher, PipeHandler handler)
+            throws IOException, InterruptedException, TimeoutException {
+        return pipe(command, directory, timeoutMs, watcher, handler, null);
+    }
+
+    /**
+     * Starts process with piped stdin and stdout and waits for it.
+     * Waits for free process slot first. Only stderr tail is kept.
+     *
+     * @param token kills process when task is cancelled, may be null
+     * @return exit code and stderr tail
+     * @throws TimeoutException      if process was killed on timeout
+     * @throws CancellationException if task was cancelled
+     */
+    public ProcessResult pipe(List<String> command, File directory, long timeoutMs,
+                              ProcessWatcher watcher, final PipeHandler handler,
+                              CancelToken token)
+            throws IOException, InterruptedException, TimeoutException {
+        permits.acquire();
+        try {
+            final Process p = start(new ProcessBuilder(command).directory(directory), token);
+            boolean finished = false;
+            try {
+                java.util.concurrent.Future<String> errors =
+                        drainers.submit(new OutputDrainer(p.getErrorStream(), outputTail));
+                java.util.concurrent.Future<Void> output = drainers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        try (InputStream stdout = p.getInputStream()) {
+                            handler.output(stdout);
+                        }
+                        return null;
+                    }
+                });
+                handler.started(p.getOutputStream());
+                await(output, timeoutMs, watcher, command);
+                String tail = await(errors, timeoutMs, null, command);
+                int exitCode = p.waitFor();
+                finished = true;
+                checkCancelled(token);
+                return new ProcessResult(exitCode, tail);
+            } finally {
+                stopped(p, token, finished);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Starts process, unless its task is cancelled.
+     */
+    private Process start(ProcessBuilder builder, CancelToken token) throws IOException {
+        checkCancelled(token);
+        Process p = builder.start();
+        running.add(p);
+        if (token != null && !token.attach(p)) {
+            running.remove(p);
+            throw new CancellationException("Process cancelled: " + builder.command());
+        }
+        return p;
+    }
+
+    private void stopped(Process p, CancelToken token, boolean finished) {
+        running.remove(p);
+        if (token != null) {
+            token.detach(p);
+        }
+        if (!finished) {
+            p.destroy();
+        }
+    }
+
+    private static void checkCancelled(CancelToken token) {
+        if (token != null && token.isCancelled()) {
+            throw new CancellationException("Process cancelled");
+        }
+    }
+
+    /**
+     * Waits for the end of process output, it is closed when process exits.
+     */
+    private <T> T await(java.util.concurrent.Future<T> output, long timeoutMs,
+                        ProcessWatcher watcher, List<String> command)
+            throws IOException, InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            long wait = POLL_INTERVAL;
+            if (timeoutMs > 0) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    output.cancel(true);
+                    throw new TimeoutException("Process killed after " + timeoutMs
+                            + "ms: " + command);
+                }
+                wait = Math.min(wait, left);
+            }
+            try {
+                return output.get(wait, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (watcher != null) {
+                    watcher.poll();
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Cannot read process output", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Kills running processes and stops runner threads.
+     */
+    public void shutdown() {
+        executionContext.shutdownNow();
+        drainers.shutdownNow();
+        for (Process p : running) {
+            p.destroy();
+        }
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return count of processes, running now
+     */
+    public int getRunningCount() {
+        return running.size();
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Reads stream to the end, keeps the last bytes.
+     */
+    private static class OutputDrainer implements Callable<String> {
+
+        private final InputStream in;
+        private final byte[] tail;
+        private int size = 0;
+        private int pos = 0;
+
+        private OutputDrainer(InputStream in, int tailSize) {
+            this.in = in;
+            this.tail = new byte[Math.max(tailSize, 1)];
+        }
+
+        @Override
+        public String call() throws IOException {
+            byte[] buf = new byte[8192];
+            try (InputStream is = in) {
+                int n;
+                while ((n = is.read(buf)) != -1) {
+                    for (int i = 0; i < n; i++) {
+                        tail[pos] = buf[i];
+                        pos = (pos + 1) % tail.length;
+                    }
+                    size = Math.min(size + n, tail.length);
+                }
+            }
+
+            //ring buffer to string in order
+            byte[] out = new byte[size];
+            int start = (pos - size + tail.length) % tail.length;
+            for (int i = 0; i < size; i++) {
+                out[i] = tail[(start + i) % tail.length];
+            }
+            return new String(out, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.kyrioslab.dsvc.node.util;
+
+import java.io.IOException;
+
+/**
+ * Called periodically while process is running.
+ */
+public interface ProcessWatcher {
+
+    void poll() throws IOException;
+}
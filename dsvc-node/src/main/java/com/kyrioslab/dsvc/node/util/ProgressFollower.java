@@ -0,0 +1,130 @@
+package com.kyrioslab.dsvc.node.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads ffmpeg <code>-progress</code> file while process is running.
+ * ffmpeg writes blocks of key=value lines, every block ends with
+ * <code>progress</code> key. Listener is notified about blocks not
+ * more often than interval, the last block is always reported.
+ */
+public class ProgressFollower implements ProcessWatcher {
+
+    private final File progressFile;
+    private final long interval;
+    private final ProgressListener listener;
+
+    /**
+     * Offset of the first not read line.
+     */
+    private long offset = 0;
+
+    /**
+     * Values of current block.
+     */
+    private long frame = 0;
+    private double fps = 0;
+    private double speed = 0;
+    private long outTime = 0;
+
+    /**
+     * Time of the last notification, nanos.
+     */
+    private long lastReport;
+
+    private boolean ended = false;
+
+    /**
+     * @param progressFile file, ffmpeg writes progress to
+     * @param interval     min interval between notifications, ms
+     * @param listener     progress listener
+     */
+    public ProgressFollower(File progressFile, long interval, ProgressListener listener) {
+        this.progressFile = progressFile;
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.listener = listener;
+        this.lastReport = System.nanoTime() - this.interval;
+    }
+
+    @Override
+    public void poll() throws IOException {
+        if (ended || !progressFile.exists()) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(progressFile, "r")) {
+            if (file.length() <= offset) {
+                return;
+            }
+            byte[] tail = new byte[(int) (file.length() - offset)];
+            file.seek(offset);
+            file.readFully(tail);
+
+            int lineStart = 0;
+            for (int i = 0; i < tail.length; i++) {
+                if (tail[i] == '\n') {
+                    line(new String(tail, lineStart, i - lineStart,
+                            StandardCharsets.UTF_8).trim());
+                    lineStart = i + 1;
+                }
+            }
+            offset += lineStart;
+        }
+    }
+
+    private void line(String line) {
+        int eq = line.indexOf('=');
+        if (eq <= 0) {
+            return;
+        }
+        String key = line.substring(0, eq);
+        String value = line.substring(eq + 1).trim();
+        switch (key) {
+            case "frame":
+                frame = parseLong(value, frame);
+                break;
+            case "fps":
+                fps = parseDouble(value, fps);
+                break;
+            case "speed":
+                speed = parseDouble(value.endsWith("x")
+                        ? value.substring(0, value.length() - 1) : value, speed);
+                break;
+
+            //both are microseconds
+            case "out_time_us":
+            case "out_time_ms":
+                outTime = parseLong(value, outTime * 1000) / 1000;
+                break;
+            case "progress":
+                ended = "end".equals(value);
+                long now = System.nanoTime();
+                if (ended || now - lastReport >= interval) {
+                    lastReport = now;
+                    listener.onProgress(frame, fps, speed, outTime, ended);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static long parseLong(String value, long previous) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return previous;
+        }
+    }
+
+    private static double parseDouble(String value, double previous) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return previous;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.kyrioslab.dsvc.node.util;
+
+/**
+ * Notified by {@link ProgressFollower} about encoding progress.
+ */
+public interface ProgressListener {
+
+    /**
+     * Called from process thread.
+     *
+     * @param frame   count of encoded frames
+     * @param fps     encoding frame rate
+     * @param speed   encoding speed, relative to playback
+     * @param outTime encoded media time, ms
+     * @param end     process finished output
+     */
+    void onProgress(long frame, double fps, double speed, long outTime, boolean end);
+}
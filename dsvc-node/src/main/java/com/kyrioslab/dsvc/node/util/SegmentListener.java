@@ -0,0 +1,17 @@
+package com.kyrioslab.dsvc.node.util;
+
+import java.io.File;
+
+/**
+ * Notified by {@link FFMPEGService} about every finished
+ * segment while split is still in progress.
+ */
+public interface SegmentListener {
+
+    /**
+     * Called from split thread when segment file is completely written.
+     *
+     * @param segment finished segment file
+     */
+    void onSegment(File segment);
+}
@@ -0,0 +1,56 @@
+package com.kyrioslab.dsvc.node.util;
+
+import akka.actor.Address;
+
+/**
+ * Estimates part timeout from encoding rates (ms per MB of source part)
+ * of completed parts. Rates are kept per encoder node and command
+ * profile, and per profile for parts with unknown node. Timeout is
+ * max of moving average and percentile of recent rates, multiplied by
+ * part size and factor. State is kept while client is running.
+ */
+public class TimeoutEstimator {
+
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    private final TrackSettings settings;
+
+    private final KeyedEwma rates;
+
+    public TimeoutEstimator(TrackSettings settings) {
+        this.settings = settings;
+        this.rates = new KeyedEwma(settings.getEwmaAlpha(), settings.getMinSamples(),
+                settings.getWindow(), settings.getPercentile());
+    }
+
+    /**
+     * Adds encoding time of completed part.
+     *
+     * @param node    encoder node, may be null
+     * @param profile command profile
+     * @param length  source part size, bytes
+     * @param millis  part encoding time
+     */
+    public void addSample(Address node, String profile, long length, long millis) {
+        if (length <= 0) {
+            return;
+        }
+        rates.add(node, profile, millis / (length / BYTES_PER_MB));
+    }
+
+    /**
+     * @param node    encoder node, may be null
+     * @param profile command profile
+     * @param length  source part size, bytes
+     * @return part timeout, ms
+     */
+    public long getTimeout(Address node, String profile, long length) {
+        KeyedEwma.Average r = rates.get(node, profile);
+        if (r == null || r.getCount() < settings.getMinSamples()) {
+            return settings.getDefaultTimeout();
+        }
+        double rate = Math.max(r.getEwma(), r.getPercentile());
+        long timeout = (long) (rate * (length / BYTES_PER_MB) * settings.getFactor());
+        return Math.min(settings.getMaxTimeout(), Math.max(settings.getMinTimeout(), timeout));
+    }
+}
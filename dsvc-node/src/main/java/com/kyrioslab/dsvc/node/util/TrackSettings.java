@@ -0,0 +1,103 @@
+package com.kyrioslab.dsvc.node.util;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Part tracker settings, read from <code>dsvc.tracker</code>
+ * section of the configuration.
+ */
+public class TrackSettings {
+
+    public static final String CONFIG_PATH = "dsvc.tracker";
+
+    /**
+     * Timeout, when there are no samples, ms.
+     */
+    private final long defaultTimeout;
+
+    /**
+     * Timeout bounds, ms.
+     */
+    private final long minTimeout;
+    private final long maxTimeout;
+
+    /**
+     * Estimated part time is multiplied by this factor.
+     */
+    private final double factor;
+
+    /**
+     * Weight of the new sample in moving average.
+     */
+    private final double ewmaAlpha;
+
+    /**
+     * Percentile of recent samples, used for timeout.
+     */
+    private final double percentile;
+
+    /**
+     * Count of recent samples kept for percentile.
+     */
+    private final int window;
+
+    /**
+     * Samples needed to use estimate of node and profile.
+     */
+    private final int minSamples;
+
+    public TrackSettings(Config config) {
+        Config c = config.getConfig(CONFIG_PATH);
+        this.defaultTimeout = c.getDuration("default-timeout", TimeUnit.MILLISECONDS);
+        this.minTimeout = c.getDuration("min-timeout", TimeUnit.MILLISECONDS);
+        this.maxTimeout = c.getDuration("max-timeout", TimeUnit.MILLISECONDS);
+        this.factor = c.getDouble("factor");
+        this.ewmaAlpha = c.getDouble("ewma-alpha");
+        this.percentile = c.getDouble("percentile");
+        this.window = c.getInt("window");
+        this.minSamples = c.getInt("min-samples");
+
+        if (ewmaAlpha <= 0 || ewmaAlpha > 1 || percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("ewma-alpha and percentile must be in (0, 1]");
+        }
+    }
+
+    public static TrackSettings get(ActorSystem system) {
+        return new TrackSettings(system.settings().config());
+    }
+
+    public long getDefaultTimeout() {
+        return defaultTimeout;
+    }
+
+    public long getMinTimeout() {
+        return minTimeout;
+    }
+
+    public long getMaxTimeout() {
+        return maxTimeout;
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    public double getEwmaAlpha() {
+        return ewmaAlpha;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+}
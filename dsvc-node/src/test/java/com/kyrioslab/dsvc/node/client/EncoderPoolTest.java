@@ -0,0 +1,124 @@
+package com.kyrioslab.dsvc.node.client;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Slot credit of encoders in {@link EncoderPool}.
+ */
+public class EncoderPoolTest {
+
+    private static final Set<Address> NONE = Collections.emptySet();
+
+    private ActorSystem system;
+    private ActorRef e1;
+    private ActorRef e2;
+    private EncoderPool pool;
+
+    @Before
+    public void setUp() {
+        system = ActorSystem.create("EncoderPoolTest");
+        e1 = system.actorOf(Props.create(Idle.class), "e1");
+        e2 = system.actorOf(Props.create(Idle.class), "e2");
+        pool = new EncoderPool();
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+    }
+
+    @Test
+    public void sentPartsTakeCredit() {
+        assertTrue(pool.update(e1, "a", 2, 0));
+        assertSame(e1, pool.acquire(NONE));
+        assertSame(e1, pool.acquire(NONE));
+        assertNull(pool.acquire(NONE));
+        assertEquals(0, pool.getFreeSlots());
+    }
+
+    @Test
+    public void reportCountsReceivedParts() {
+        pool.update(e1, "a", 2, 0);
+        pool.acquire(NONE);
+        pool.acquire(NONE);
+
+        //encoder received one part, the other one is on the way
+        assertFalse(pool.update(e1, "a", 1, 1));
+        assertEquals(0, pool.getFreeSlots(e1));
+
+        //both parts are encoded
+        pool.update(e1, "a", 2, 2);
+        assertEquals(2, pool.getFreeSlots(e1));
+    }
+
+    @Test
+    public void newEpochResetsCredit() {
+        pool.update(e1, "a", 2, 0);
+        pool.acquire(NONE);
+        pool.acquire(NONE);
+
+        //restarted encoder does not know parts, sent before
+        assertFalse(pool.update(e1, "b", 2, 0));
+        assertEquals(2, pool.getFreeSlots(e1));
+    }
+
+    @Test
+    public void mostFreeSlotsFirst() {
+        pool.update(e1, "a", 1, 0);
+        pool.update(e2, "a", 3, 0);
+        assertSame(e2, pool.acquire(NONE));
+        assertSame(e2, pool.acquire(NONE));
+        assertEquals(2, pool.getFreeSlots());
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void excludedNode() {
+        pool.update(e1, "a", 1, 0);
+        assertNull(pool.acquire(Collections.singleton(e1.path().address())));
+        assertEquals(1, pool.getFreeSlots());
+    }
+
+    @Test
+    public void acquireGivenEncoder() {
+        pool.update(e1, "a", 1, 0);
+        pool.update(e2, "a", 1, 0);
+        assertTrue(pool.acquire(e1));
+        assertFalse(pool.acquire(e1));
+        assertEquals(1, pool.getFreeSlots(e2));
+    }
+
+    @Test
+    public void removedEncoder() {
+        pool.update(e1, "a", 2, 0);
+        pool.remove(e1);
+        assertFalse(pool.acquire(e1));
+        assertEquals(0, pool.getFreeSlots(e1));
+        assertEquals(0, pool.size());
+        assertTrue(pool.update(e1, "a", 2, 0));
+    }
+
+    public static class Idle extends UntypedActor {
+
+        @Override
+        public void onReceive(Object message) {
+            unhandled(message);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.kyrioslab.dsvc.node.client;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Recovery of {@link JobJournal} after restart, with whole, torn and
+ * damaged journal tail.
+ */
+public class JobJournalTest {
+
+    private File dir;
+    private JobJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("journal").toFile();
+        journal = new JobJournal(dir, 1000, false);
+        assertTrue(journal.recover().isEmpty());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journal.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void replay() throws Exception {
+        startJob("b1");
+        journal.append(JobJournal.partComplete("b1", "p0"));
+        journal.append(JobJournal.partComplete("b1", "p1"));
+        startJob("b2");
+        journal.append(JobJournal.jobFinished("b2"));
+
+        List<JobJournal.JobRecord> jobs = restart();
+        assertEquals(1, jobs.size());
+        JobJournal.JobRecord job = jobs.get(0);
+        assertEquals("b1", job.getBatchId());
+        assertEquals("/user/requester", job.getRequesterPath());
+        assertEquals(10, job.getSegmentTime());
+        assertEquals(120.0, job.getDuration(), 0);
+        assertTrue(job.isSplitComplete());
+        assertEquals(3, job.getPartCount());
+        assertEquals(new HashSet<>(Arrays.asList("p0", "p1")), job.getCompletedParts());
+    }
+
+    @Test
+    public void tornTailIsDropped() throws Exception {
+        startJob("b1");
+        journal.append(JobJournal.partComplete("b1", "p0"));
+        journal.append(JobJournal.partComplete("b1", "p1"));
+        journal.close();
+
+        //process died while the last entry was written
+        truncate(3);
+        assertEquals(new HashSet<>(Arrays.asList("p0")),
+                restart().get(0).getCompletedParts());
+
+        //journal is appended after recovery
+        journal.append(JobJournal.partComplete("b1", "p2"));
+        assertEquals(new HashSet<>(Arrays.asList("p0", "p2")),
+                restart().get(0).getCompletedParts());
+    }
+
+    @Test
+    public void tornHeaderIsDropped() throws Exception {
+        startJob("b1");
+        journal.append(JobJournal.partComplete("b1", "p0"));
+        journal.close();
+
+        //length and part of crc of the next entry
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            file.seek(file.length());
+            file.writeInt(100);
+            file.writeShort(0);
+        }
+        assertEquals(new HashSet<>(Arrays.asList("p0")),
+                restart().get(0).getCompletedParts());
+    }
+
+    @Test
+    public void damagedTailIsDropped() throws Exception {
+        startJob("b1");
+        journal.append(JobJournal.partComplete("b1", "p0"));
+        journal.append(JobJournal.partComplete("b1", "p1"));
+        journal.close();
+
+        //the last byte of the last entry does not match its crc
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int b = file.read();
+            file.seek(file.length() - 1);
+            file.write(b ^ 0xff);
+        }
+        assertEquals(new HashSet<>(Arrays.asList("p0")),
+                restart().get(0).getCompletedParts());
+    }
+
+    @Test
+    public void badLengthIsDropped() throws Exception {
+        startJob("b1");
+        journal.close();
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            file.seek(file.length());
+            file.writeInt(-1);
+            file.writeLong(0);
+        }
+        List<JobJournal.JobRecord> jobs = restart();
+        assertEquals(1, jobs.size());
+        assertTrue(jobs.get(0).getCompletedParts().isEmpty());
+    }
+
+    @Test
+    public void replayAfterSnapshot() throws Exception {
+        journal.close();
+        journal = new JobJournal(dir, 2, false);
+        journal.recover();
+        startJob("b1");
+        for (int i = 0; i < 5; i++) {
+            journal.append(JobJournal.partComplete("b1", "p" + i));
+        }
+        journal.append(JobJournal.jobFinished("b1"));
+        startJob("b2");
+
+        List<JobJournal.JobRecord> jobs = restart();
+        assertEquals(1, jobs.size());
+        assertEquals("b2", jobs.get(0).getBatchId());
+        assertEquals(3, jobs.get(0).getPartCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void appendBeforeRecover() throws Exception {
+        journal.close();
+        journal = new JobJournal(dir, 1000, false);
+        journal.append(JobJournal.partComplete("b1", "p0"));
+    }
+
+    private void startJob(String batchId) throws Exception {
+        journal.append(JobJournal.jobStarted(batchId, "/user/requester", null));
+        journal.append(JobJournal.splitStarted(batchId, 10, 120.0));
+        journal.append(JobJournal.splitComplete(batchId, 3));
+    }
+
+    /**
+     * Reopens journal in the same directory.
+     */
+    private List<JobJournal.JobRecord> restart() throws Exception {
+        journal.close();
+        journal = new JobJournal(dir, 1000, false);
+        Collection<JobJournal.JobRecord> jobs = journal.recover();
+        return new ArrayList<>(jobs);
+    }
+
+    private File journalFile() {
+        return new File(dir, JobJournal.JOURNAL_FILE);
+    }
+
+    private void truncate(int bytes) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            file.setLength(file.length() - bytes);
+        }
+    }
+}
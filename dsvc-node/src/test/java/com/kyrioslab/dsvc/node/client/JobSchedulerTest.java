@@ -0,0 +1,153 @@
+package com.kyrioslab.dsvc.node.client;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Dispatch order of {@link JobScheduler}: priority, then the earliest
+ * deadline, then weighted fair share of running attempts.
+ */
+public class JobSchedulerTest {
+
+    @Test
+    public void priorityGoesFirst() {
+        EncodeJob low = job("low", 0, 1.0, 1000);
+        EncodeJob high = job("high", 1, 1.0, -1);
+        run(high, 5);
+        assertEquals(Arrays.asList(high, low), JobScheduler.sort(Arrays.asList(low, high)));
+    }
+
+    @Test
+    public void earliestDeadlineGoesFirst() {
+        EncodeJob none = job("none", 0, 1.0, -1);
+        EncodeJob late = job("late", 0, 1.0, 2000);
+        EncodeJob early = job("early", 0, 1.0, 1000);
+        run(early, 5);
+        assertEquals(Arrays.asList(early, late, none),
+                JobScheduler.sort(Arrays.asList(none, late, early)));
+    }
+
+    @Test
+    public void leastShareGoesFirst() {
+        EncodeJob busy = job("busy", 0, 1.0, -1);
+        EncodeJob idle = job("idle", 0, 1.0, -1);
+        EncodeJob heavy = job("heavy", 0, 4.0, -1);
+        run(busy, 2);
+        run(idle, 1);
+        run(heavy, 3);
+        assertEquals(Arrays.asList(heavy, idle, busy),
+                JobScheduler.sort(Arrays.asList(busy, idle, heavy)));
+    }
+
+    @Test
+    public void equalJobsStayInSubmissionOrder() {
+        EncodeJob first = job("first", 0, 1.0, -1);
+        EncodeJob second = job("second", 0, 2.0, -1);
+        EncodeJob third = job("third", 0, 1.0, -1);
+        run(first, 1);
+        run(second, 2);
+        run(third, 1);
+
+        JobScheduler scheduler = new JobScheduler(false);
+        scheduler.add(first, part("f0"));
+        scheduler.add(second, part("s0"));
+        scheduler.add(third, part("t0"));
+        assertEquals(Arrays.asList(first, second, third), scheduler.getJobs());
+    }
+
+    @Test
+    public void jobsWithQueuedParts() {
+        EncodeJob j1 = job("j1", 0, 1.0, -1);
+        EncodeJob j2 = job("j2", 1, 1.0, -1);
+        JobScheduler scheduler = new JobScheduler(false);
+        assertTrue(scheduler.isEmpty());
+        scheduler.add(j1, part("a0"));
+        scheduler.add(j1, part("a1"));
+        scheduler.add(j2, part("b0"));
+        assertEquals(3, scheduler.size());
+        assertEquals(Arrays.asList(j2, j1), scheduler.getJobs());
+
+        Iterator<EncodePart> parts = scheduler.parts(j2);
+        assertEquals("b0", parts.next().getPartId());
+        parts.remove();
+        assertEquals(2, scheduler.size());
+        assertEquals(Collections.singletonList(j1), scheduler.getJobs());
+        assertFalse(scheduler.parts(j2).hasNext());
+
+        scheduler.remove(j1);
+        assertTrue(scheduler.isEmpty());
+        assertTrue(scheduler.getJobs().isEmpty());
+    }
+
+    @Test
+    public void partsInSplitOrder() {
+        EncodeJob job = job("j", 0, 1.0, -1);
+        JobScheduler scheduler = new JobScheduler(false);
+        for (String partId : Arrays.asList("p0", "p1", "p2")) {
+            scheduler.add(job, part(partId));
+        }
+        assertEquals(Arrays.asList("p0", "p1", "p2"), partIds(scheduler, job));
+    }
+
+    @Test
+    public void largestPartsFirst() throws Exception {
+        EncodeJob job = job("j", 0, 1.0, -1);
+        JobScheduler scheduler = new JobScheduler(true);
+        List<File> files = new ArrayList<>();
+        try {
+            int[] sizes = {10, 30, 20, 30};
+            for (int i = 0; i < sizes.length; i++) {
+                File file = File.createTempFile("part", ".mp4");
+                files.add(file);
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(sizes[i]);
+                }
+                scheduler.add(job, new EncodePart("p" + i, file));
+            }
+
+            //equal parts stay in split order
+            assertEquals(Arrays.asList("p1", "p3", "p2", "p0"), partIds(scheduler, job));
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static EncodeJob job(String batchId, int priority, double weight, long deadline) {
+        return new EncodeJob(batchId, null, null, priority, weight, deadline);
+    }
+
+    private static EncodePart part(String partId) {
+        return new EncodePart(partId, new File(partId));
+    }
+
+    /**
+     * Starts given count of attempts of the job.
+     */
+    private static void run(EncodeJob job, int attempts) {
+        for (int i = 0; i < attempts; i++) {
+            job.dispatched(part(job.getBatchId() + i), job.getBatchId() + "-t" + i);
+        }
+    }
+
+    private static List<String> partIds(JobScheduler scheduler, EncodeJob job) {
+        List<String> ids = new ArrayList<>();
+        Iterator<EncodePart> parts = scheduler.parts(job);
+        while (parts.hasNext()) {
+            ids.add(parts.next().getPartId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,90 @@
+package com.kyrioslab.dsvc.node.client;
+
+import akka.actor.Address;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Node speeds, learned by {@link NodeThroughput}, and choice of node for the next part.
+ */
+public class NodeThroughputTest {
+
+    private static final String PROFILE = "ffmpeg -i in -b:v 1M out.mp4";
+
+    private final Address node1 = new Address("akka.tcp", "EncodeSystem", "host1", 2552);
+    private final Address node2 = new Address("akka.tcp", "EncodeSystem", "host2", 2552);
+
+    private final List<Address> nodes = Arrays.asList(node1, node2);
+
+    @Test
+    public void defaultSpeedWithoutSamples() {
+        NodeThroughput throughput = new NodeThroughput(1.0, 2);
+        assertEquals(1.0, throughput.getSpeed(node1, PROFILE), 0);
+    }
+
+    @Test
+    public void profileSpeedBelowMinSamples() {
+        NodeThroughput throughput = new NodeThroughput(1.0, 2);
+        throughput.addSample(node2, PROFILE, 1000, 1000);
+        throughput.addSample(node1, PROFILE, 4000, 1000);
+        throughput.addSample(node1, PROFILE, 4000, 1000);
+
+        //node2 has one sample, speed of the profile is used
+        assertEquals(4.0, throughput.getSpeed(node2, PROFILE), 0);
+        assertEquals(4.0, throughput.getSpeed(node1, PROFILE), 0);
+
+        throughput.addSample(node2, PROFILE, 1000, 1000);
+        throughput.addSample(node1, PROFILE, 4000, 1000);
+        assertEquals(1.0, throughput.getSpeed(node2, PROFILE), 0);
+    }
+
+    @Test
+    public void fasterNodeIsSelected() {
+        NodeThroughput throughput = new NodeThroughput(1.0, 1);
+        throughput.addSample(node1, PROFILE, 1000, 1000);
+        throughput.addSample(node2, PROFILE, 3000, 1000);
+        assertEquals(node2, throughput.select(nodes, Collections.<Address>emptySet(), PROFILE,
+                Collections.<Address, Integer>emptyMap(), 1));
+
+        //two rounds on node2 are still faster
+        assertEquals(node2, throughput.select(nodes, Collections.<Address>emptySet(), PROFILE,
+                inFlight(0, 1), 1));
+        assertEquals(node1, throughput.select(nodes, Collections.<Address>emptySet(), PROFILE,
+                inFlight(0, 3), 1));
+    }
+
+    @Test
+    public void lessLoadedNodeWinsTie() {
+        NodeThroughput throughput = new NodeThroughput(1.0, 1);
+        assertEquals(node2, throughput.select(nodes, Collections.<Address>emptySet(), PROFILE,
+                inFlight(1, 0), 2));
+        assertEquals(node1, throughput.select(nodes, Collections.<Address>emptySet(), PROFILE,
+                inFlight(0, 1), 2));
+    }
+
+    @Test
+    public void excludedNodesAreSkipped() {
+        NodeThroughput throughput = new NodeThroughput(1.0, 1);
+        throughput.addSample(node2, PROFILE, 3000, 1000);
+        assertEquals(node1, throughput.select(nodes, new HashSet<>(Arrays.asList(node2)),
+                PROFILE, Collections.<Address, Integer>emptyMap(), 1));
+        assertNull(throughput.select(nodes, new HashSet<>(nodes), PROFILE,
+                Collections.<Address, Integer>emptyMap(), 1));
+    }
+
+    private Map<Address, Integer> inFlight(int n1, int n2) {
+        Map<Address, Integer> inFlight = new HashMap<>();
+        inFlight.put(node1, n1);
+        inFlight.put(node2, n2);
+        return inFlight;
+    }
+}
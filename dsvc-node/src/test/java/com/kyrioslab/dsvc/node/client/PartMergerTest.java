@@ -0,0 +1,73 @@
+package com.kyrioslab.dsvc.node.client;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Merged output, found by {@link PartMerger} in merge directory of resumed job.
+ */
+public class PartMergerTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("merge").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void outputOfRendition() throws Exception {
+        create("r0-2.ts", "r1-6.ts");
+        assertEquals("r0-2.ts", PartMerger.findOutput(dir, 0, "ts").getName());
+        assertEquals("r1-6.ts", PartMerger.findOutput(dir, 1, "ts").getName());
+    }
+
+    @Test
+    public void latestOutputIsFound() throws Exception {
+        create("r0-2.ts", "r0-10.ts", "r0-6.ts");
+        assertEquals("r0-10.ts", PartMerger.findOutput(dir, 0, "ts").getName());
+    }
+
+    @Test
+    public void otherFilesAreSkipped() throws Exception {
+        create("r0-3.mp4", "tmp-r0-5.ts", "r0-0-2.ts", "part-4.ts");
+        assertNull(PartMerger.findOutput(dir, 0, "ts"));
+    }
+
+    @Test
+    public void noOutput() {
+        assertNull(PartMerger.findOutput(dir, 0, "ts"));
+        assertNull(PartMerger.findOutput(new File(dir, "missing"), 0, "ts"));
+    }
+
+    @Test
+    public void lastPart() {
+        assertEquals(0, PartMerger.lastPart(new File(dir, "r0-0.ts")));
+        assertEquals(17, PartMerger.lastPart(new File(dir, "r2-17.ts")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lastPartOfOtherFile() {
+        PartMerger.lastPart(new File(dir, "part-17.ts"));
+    }
+
+    private void create(String... names) throws Exception {
+        for (String name : names) {
+            assertTrue(new File(dir, name).createNewFile());
+        }
+    }
+}
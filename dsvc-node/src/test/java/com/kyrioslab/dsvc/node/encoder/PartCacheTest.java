@@ -0,0 +1,112 @@
+package com.kyrioslab.dsvc.node.encoder;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Keys and eviction of {@link PartCache}.
+ */
+public class PartCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("cache").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void pathsDoNotChangeKey() throws Exception {
+        File src1 = file("a/part_1.mp4", new byte[]{1, 2, 3});
+        File src2 = file("b/other.mp4", new byte[]{1, 2, 3});
+
+        assertEquals(PartCache.key(src1, command(src1, "r-1.mp4", "1M"), "r-1.mp4"),
+                PartCache.key(src2, command(src2, "r-other.mp4", "1M"), "r-other.mp4"));
+    }
+
+    @Test
+    public void contentAndArgumentsChangeKey() throws Exception {
+        File src1 = file("a/part_1.mp4", new byte[]{1, 2, 3});
+        File src2 = file("b/part_1.mp4", new byte[]{1, 2, 4});
+        String key = PartCache.key(src1, command(src1, "r-1.mp4", "1M"), "r-1.mp4");
+
+        assertNotEquals(key, PartCache.key(src2, command(src2, "r-1.mp4", "1M"), "r-1.mp4"));
+        assertNotEquals(key, PartCache.key(src1, command(src1, "r-1.mp4", "2M"), "r-1.mp4"));
+    }
+
+    @Test
+    public void cachedResultIsReturned() throws Exception {
+        PartCache cache = new PartCache(new File(dir, "cache"), 100);
+        cache.put("k", file("r-1.mp4", new byte[]{1, 2, 3}));
+
+        File target = new File(dir, "target.mp4");
+        assertTrue(cache.get("k", target));
+        assertArrayEquals(new byte[]{1, 2, 3}, FileUtils.readFileToByteArray(target));
+        assertFalse(cache.get("missing", target));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedBySize() throws Exception {
+        PartCache cache = new PartCache(new File(dir, "cache"), 10);
+        cache.put("a", file("a.mp4", new byte[4]));
+        cache.put("b", file("b.mp4", new byte[4]));
+
+        //a is used after b, so b is the eldest
+        assertTrue(cache.get("a", new File(dir, "a-out.mp4")));
+        cache.put("c", file("c.mp4", new byte[4]));
+
+        assertEquals(8, cache.getSize());
+        assertFalse(cache.get("b", new File(dir, "b-out.mp4")));
+        assertTrue(cache.get("a", new File(dir, "a-out2.mp4")));
+        assertTrue(cache.get("c", new File(dir, "c-out.mp4")));
+    }
+
+    @Test
+    public void resultLargerThanCacheIsNotStored() throws Exception {
+        PartCache cache = new PartCache(new File(dir, "cache"), 3);
+        cache.put("a", file("a.mp4", new byte[4]));
+
+        assertEquals(0, cache.getSize());
+        assertFalse(cache.get("a", new File(dir, "a-out.mp4")));
+    }
+
+    @Test
+    public void entriesAreRestored() throws Exception {
+        new PartCache(new File(dir, "cache"), 100).put("a", file("a.mp4", new byte[4]));
+
+        PartCache restored = new PartCache(new File(dir, "cache"), 100);
+        assertEquals(4, restored.getSize());
+        assertTrue(restored.get("a", new File(dir, "a-out.mp4")));
+    }
+
+    private File file(String name, byte[] data) throws Exception {
+        File f = new File(dir, name);
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), data);
+        return f;
+    }
+
+    private static List<String> command(File src, String resultName, String bitrate) {
+        return Arrays.asList("ffmpeg", "-i", src.getAbsolutePath(), "-b:v", bitrate, resultName);
+    }
+}
@@ -0,0 +1,262 @@
+package com.kyrioslab.dsvc.node.messages;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import com.kyrioslab.dsvc.node.transfer.PartRef;
+import com.kyrioslab.jffmpegw.attributes.parser.StreamInfo;
+import com.kyrioslab.jffmpegw.command.EncodeCommand;
+import com.kyrioslab.jffmpegw.command.EncodeCommandBuilder;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trip of every message type by {@link ClusterMessageSerializer}.
+ */
+public class ClusterMessageSerializerTest {
+
+    private ActorSystem system;
+
+    private ClusterMessageSerializer serializer;
+
+    @Before
+    public void setUp() {
+        Config config = ConfigFactory.parseString(
+                "akka.actor.provider = \"akka.actor.LocalActorRefProvider\"\n"
+                        + "akka.loglevel = OFF\n"
+                        + "akka.stdout-loglevel = OFF\n"
+                        + "dsvc.metrics.jmx = off\n"
+                        + "dsvc.metrics.http-port = 0")
+                .withFallback(ConfigFactory.load("encode_system"));
+        system = ActorSystem.create("ClusterMessageSerializerTest", config);
+        serializer = new ClusterMessageSerializer((ExtendedActorSystem) system);
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+    }
+
+    @Test
+    public void encodePart() throws Exception {
+        List<EncodeCommand> commands = Arrays.asList(command("mp4", 2000000),
+                command("ts", 1000000));
+        ClusterMessage.EncodeVideoPartMessage m = roundTrip(
+                new ClusterMessage.EncodeVideoPartMessage("t1", "b1#0.mp4", 1234L, commands,
+                        new PartRef("/shared/b1/0.mp4", 1234L, 42L)));
+        assertEquals("t1", m.getTransferId());
+        assertEquals("b1#0.mp4", m.getPartId());
+        assertEquals(1234L, m.getLength());
+        assertEquals(2, m.getCommands().size());
+        for (int i = 0; i < commands.size(); i++) {
+            assertEquals(commands.get(i).getCommand(), m.getCommands().get(i).getCommand());
+        }
+        assertEquals("/shared/b1/0.mp4", m.getRef().getPath());
+        assertEquals(1234L, m.getRef().getLength());
+        assertEquals(42L, m.getRef().getChecksum());
+    }
+
+    @Test
+    public void encodePartWithoutRef() throws Exception {
+        ClusterMessage.EncodeVideoPartMessage m = roundTrip(
+                new ClusterMessage.EncodeVideoPartMessage("t1", "b1#0.mp4", 0L,
+                        command("mp4", 2000000)));
+        assertNull(m.getRef());
+        assertEquals(1, m.getCommands().size());
+        assertEquals("mp4", m.getCommand().getOutputFormat());
+    }
+
+    @Test
+    public void encodeResult() {
+        ClusterMessage.EncodeResultPartMessage m = roundTrip(
+                new ClusterMessage.EncodeResultPartMessage("r1", "t1", "b1#0.mp4", 99L, "ts",
+                        new PartRef("/shared/r1.ts", 99L, 7L), 3));
+        assertEquals("r1", m.getTransferId());
+        assertEquals("t1", m.getPartTransferId());
+        assertEquals("b1#0.mp4", m.getPartId());
+        assertEquals(99L, m.getLength());
+        assertEquals("ts", m.getFormat());
+        assertEquals("/shared/r1.ts", m.getRef().getPath());
+        assertEquals(3, m.getRendition());
+    }
+
+    @Test
+    public void encodeResultWithoutRef() {
+        ClusterMessage.EncodeResultPartMessage m = roundTrip(
+                new ClusterMessage.EncodeResultPartMessage("r1", "t1", "b1#0.mp4", 99L, "mp4"));
+        assertNull(m.getRef());
+        assertEquals(0, m.getRendition());
+    }
+
+    @Test
+    public void transferReady() {
+        assertEquals("t1", roundTrip(new ClusterMessage.TransferReady("t1")).getTransferId());
+    }
+
+    @Test
+    public void chunk() {
+        byte[] data = {1, 2, 3, 4, 5, 6, 7, 8};
+        ClusterMessage.PartChunk m = roundTrip(
+                new ClusterMessage.PartChunk("t1", 5, data, 2, 4, true));
+        assertEquals("t1", m.getTransferId());
+        assertEquals(5, m.getSeq());
+        assertTrue(m.isLast());
+        assertEquals(4, m.getLength());
+        byte[] received = new byte[m.getLength()];
+        m.getBuffer().get(received);
+        assertArrayEquals(new byte[]{3, 4, 5, 6}, received);
+    }
+
+    @Test
+    public void emptyChunk() {
+        ClusterMessage.PartChunk m = roundTrip(
+                new ClusterMessage.PartChunk("t1", 0, new byte[0], false));
+        assertFalse(m.isLast());
+        assertEquals(0, m.getLength());
+    }
+
+    @Test
+    public void chunkAck() {
+        ClusterMessage.PartChunkAck m = roundTrip(new ClusterMessage.PartChunkAck("t1", 17));
+        assertEquals("t1", m.getTransferId());
+        assertEquals(17, m.getSeq());
+    }
+
+    @Test
+    public void workRequest() {
+        ClusterMessage.WorkRequest m = roundTrip(new ClusterMessage.WorkRequest("e1", 3, 12));
+        assertEquals("e1", m.getEpoch());
+        assertEquals(3, m.getFree());
+        assertEquals(12, m.getReceived());
+    }
+
+    @Test
+    public void cancelPart() {
+        assertEquals("t1", roundTrip(new ClusterMessage.CancelPartMessage("t1")).getTransferId());
+    }
+
+    @Test
+    public void partFailed() throws Exception {
+        EncodeCommand command = command("mp4", 2000000);
+        ClusterMessage.EncodePartFailed m = roundTrip(
+                new ClusterMessage.EncodePartFailed("exit 1", "b1#0.mp4", command, "t1"));
+        assertEquals("exit 1", m.getReason());
+        assertEquals("b1#0.mp4", m.getPartId());
+        assertEquals(command.getCommand(), m.getCommand().getCommand());
+        assertEquals("t1", m.getTransferId());
+    }
+
+    @Test
+    public void partFailedWithoutCommand() {
+        ClusterMessage.EncodePartFailed m = roundTrip(
+                new ClusterMessage.EncodePartFailed(null, "b1#0.mp4", null));
+        assertNull(m.getReason());
+        assertNull(m.getCommand());
+        assertNull(m.getTransferId());
+    }
+
+    @Test
+    public void partProgress() {
+        ClusterMessage.PartProgress m = roundTrip(
+                new ClusterMessage.PartProgress("t1", "b1#0.mp4", 250L, 24.5, 1.5, 10000L));
+        assertEquals("t1", m.getTransferId());
+        assertEquals("b1#0.mp4", m.getPartId());
+        assertEquals(250L, m.getFrame());
+        assertEquals(24.5, m.getFps(), 0);
+        assertEquals(1.5, m.getSpeed(), 0);
+        assertEquals(10000L, m.getOutTime());
+    }
+
+    @Test
+    public void trailingFieldsAreIgnored() {
+        byte[] bytes = serializer.toBinary(new ClusterMessage.PartChunkAck("t1", 17));
+        ByteBuffer newer = ByteBuffer.allocate(bytes.length + 8);
+        newer.put(bytes).putLong(-1L);
+        newer.put(0, (byte) (ClusterMessageSerializer.VERSION + 1));
+        ClusterMessage.PartChunkAck m =
+                (ClusterMessage.PartChunkAck) serializer.fromBinary(newer.array());
+        assertEquals("t1", m.getTransferId());
+        assertEquals(17, m.getSeq());
+    }
+
+    @Test
+    public void version1PartHasOneRendition() throws Exception {
+        byte[] bytes = serializer.toBinary(new ClusterMessage.EncodeVideoPartMessage("t1",
+                "b1#0.mp4", 0L, command("mp4", 2000000)));
+
+        //version 1 frame has no count of other rendition commands
+        byte[] older = Arrays.copyOf(bytes, bytes.length - 4);
+        older[0] = 1;
+        ClusterMessage.EncodeVideoPartMessage m =
+                (ClusterMessage.EncodeVideoPartMessage) serializer.fromBinary(older);
+        assertEquals(1, m.getCommands().size());
+        assertEquals("mp4", m.getCommand().getOutputFormat());
+    }
+
+    @Test
+    public void version1ResultIsFirstRendition() {
+        byte[] bytes = serializer.toBinary(new ClusterMessage.EncodeResultPartMessage("r1",
+                "t1", "b1#0.mp4", 99L, "ts", null, 2));
+
+        //version 1 frame has no rendition index
+        byte[] older = Arrays.copyOf(bytes, bytes.length - 4);
+        older[0] = 1;
+        ClusterMessage.EncodeResultPartMessage m =
+                (ClusterMessage.EncodeResultPartMessage) serializer.fromBinary(older);
+        assertEquals("b1#0.mp4", m.getPartId());
+        assertEquals(0, m.getRendition());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oldVersionIsRejected() {
+        byte[] bytes = serializer.toBinary(new ClusterMessage.TransferReady("t1"));
+        bytes[0] = 0;
+        serializer.fromBinary(bytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedFrameIsRejected() {
+        byte[] bytes = serializer.toBinary(new ClusterMessage.WorkRequest("e1", 3, 12));
+        serializer.fromBinary(Arrays.copyOf(bytes, bytes.length - 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedChunkIsRejected() {
+        byte[] bytes = serializer.toBinary(
+                new ClusterMessage.PartChunk("t1", 0, new byte[16], false));
+        serializer.fromBinary(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(T message) {
+        return (T) serializer.fromBinary(serializer.toBinary(message));
+    }
+
+    private static EncodeCommand command(String format, int bitRate) throws Exception {
+        StreamInfo vs = new StreamInfo();
+        vs.setIndex(0);
+        vs.setCodecName("mpeg4");
+        vs.setCodecType("video");
+        vs.setWidth("1280");
+        vs.setHeight("720");
+        vs.setAvgFrameRate("25");
+        vs.setBitRate(String.valueOf(bitRate));
+
+        EncodeCommand command = new EncodeCommandBuilder("ffmpeg",
+                Arrays.asList(vs)).build();
+        command.setFormats(format, format);
+        return command;
+    }
+}
@@ -0,0 +1,45 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+
+/**
+ * Parent of transfer actor under test. Reports of the child go to the
+ * probe, other messages are forwarded to the child, child is stopped
+ * by {@link #STOP_CHILD}.
+ */
+public class ChildOf extends UntypedActor {
+
+    public static final String STOP_CHILD = "stop-child";
+
+    private final Props child;
+    private final ActorRef probe;
+
+    private ActorRef ref;
+
+    public ChildOf(Props child, ActorRef probe) {
+        this.child = child;
+        this.probe = probe;
+    }
+
+    public static Props props(Props child, ActorRef probe) {
+        return Props.create(ChildOf.class, child, probe);
+    }
+
+    @Override
+    public void preStart() {
+        ref = getContext().actorOf(child, "child");
+    }
+
+    @Override
+    public void onReceive(Object message) {
+        if (STOP_CHILD.equals(message)) {
+            getContext().stop(ref);
+        } else if (getSender().equals(ref)) {
+            probe.forward(message, getContext());
+        } else {
+            ref.forward(message, getContext());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.JavaTestKit;
+import com.kyrioslab.dsvc.node.messages.ClusterMessage;
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.typesafe.config.ConfigFactory;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Receiving of file by {@link ChunkReceiver}: acknowledgements, empty
+ * file, failures and removal of incomplete file, also when receiver
+ * is stopped by parent.
+ */
+public class ChunkReceiverTest {
+
+    private static ActorSystem system;
+    private static TransferSettings settings;
+
+    private File dir;
+
+    @BeforeClass
+    public static void setUpSystem() {
+        system = ActorSystem.create("ChunkReceiverTest");
+        settings = new TransferSettings(ConfigFactory.parseString(
+                "dsvc.transfer {\n"
+                        + "  chunk-size = 4\n"
+                        + "  window = 2\n"
+                        + "  idle-timeout = 500ms\n"
+                        + "  dispatcher = \"akka.actor.default-dispatcher\"\n"
+                        + "}"));
+    }
+
+    @AfterClass
+    public static void tearDownSystem() {
+        JavaTestKit.shutdownActorSystem(system);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("receiver").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void chunksAreWrittenAndAcknowledged() throws Exception {
+        File file = new File(dir, "part.mp4");
+        JavaTestKit parent = new JavaTestKit(system);
+        JavaTestKit source = new JavaTestKit(system);
+        ActorRef receiver = start("t1", file, 6, parent, source);
+
+        source.expectMsgClass(ClusterMessage.TransferReady.class);
+        receiver.tell(new ClusterMessage.PartChunk("t1", 0, new byte[]{1, 2, 3, 4}, false),
+                source.getRef());
+        assertEquals(0, source.expectMsgClass(ClusterMessage.PartChunkAck.class).getSeq());
+        receiver.tell(new ClusterMessage.PartChunk("t1", 1, new byte[]{5, 6}, true),
+                source.getRef());
+        assertEquals(1, source.expectMsgClass(ClusterMessage.PartChunkAck.class).getSeq());
+
+        LocalMessage.TransferCompleteMessage complete =
+                parent.expectMsgClass(LocalMessage.TransferCompleteMessage.class);
+        assertEquals(file, complete.getFile());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, FileUtils.readFileToByteArray(file));
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        File file = new File(dir, "empty.mp4");
+        JavaTestKit parent = new JavaTestKit(system);
+        JavaTestKit source = new JavaTestKit(system);
+        ActorRef receiver = start("t2", file, 0, parent, source);
+
+        source.expectMsgClass(ClusterMessage.TransferReady.class);
+        receiver.tell(new ClusterMessage.PartChunk("t2", 0, new byte[0], true), source.getRef());
+        source.expectMsgClass(ClusterMessage.PartChunkAck.class);
+        parent.expectMsgClass(LocalMessage.TransferCompleteMessage.class);
+        assertTrue(file.exists());
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void outOfOrderChunkFails() throws Exception {
+        File file = new File(dir, "part.mp4");
+        JavaTestKit parent = new JavaTestKit(system);
+        JavaTestKit source = new JavaTestKit(system);
+        ActorRef receiver = start("t3", file, 8, parent, source);
+
+        source.expectMsgClass(ClusterMessage.TransferReady.class);
+        receiver.tell(new ClusterMessage.PartChunk("t3", 1, new byte[]{1, 2, 3, 4}, true),
+                source.getRef());
+        LocalMessage.TransferFailedMessage failed =
+                parent.expectMsgClass(LocalMessage.TransferFailedMessage.class);
+        assertEquals("t3", failed.getTransferId());
+        source.expectNoMsg(source.duration("100 millis"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void shortFileFails() throws Exception {
+        File file = new File(dir, "part.mp4");
+        JavaTestKit parent = new JavaTestKit(system);
+        JavaTestKit source = new JavaTestKit(system);
+        ActorRef receiver = start("t4", file, 8, parent, source);
+
+        source.expectMsgClass(ClusterMessage.TransferReady.class);
+        receiver.tell(new ClusterMessage.PartChunk("t4", 0, new byte[]{1, 2, 3, 4}, true),
+                source.getRef());
+        parent.expectMsgClass(LocalMessage.TransferFailedMessage.class);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void idleTransferFails() throws Exception {
+        File file = new File(dir, "part.mp4");
+        JavaTestKit parent = new JavaTestKit(system);
+        JavaTestKit source = new JavaTestKit(system);
+        ActorRef receiver = start("t5", file, 8, parent, source);
+
+        source.expectMsgClass(ClusterMessage.TransferReady.class);
+        receiver.tell(new ClusterMessage.PartChunk("t5", 0, new byte[]{1, 2, 3, 4}, false),
+                source.getRef());
+        source.expectMsgClass(ClusterMessage.PartChunkAck.class);
+        parent.expectMsgClass(parent.duration("2 seconds"),
+                LocalMessage.TransferFailedMessage.class);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void stoppedReceiverDeletesFile() throws Exception {
+        File file = new File(dir, "part.mp4");
+        JavaTestKit parent = new JavaTestKit(system);
+        JavaTestKit source = new JavaTestKit(system);
+        ActorRef receiver = start("t6", file, 8, parent, source);
+
+        source.expectMsgClass(ClusterMessage.TransferReady.class);
+        receiver.tell(new ClusterMessage.PartChunk("t6", 0, new byte[]{1, 2, 3, 4}, false),
+                source.getRef());
+        source.expectMsgClass(ClusterMessage.PartChunkAck.class);
+        ActorRef child = source.getLastSender();
+        assertTrue(file.exists());
+
+        //cancelled by parent in the middle of transfer
+        parent.watch(child);
+        receiver.tell(ChildOf.STOP_CHILD, parent.getRef());
+        parent.expectTerminated(child);
+        assertFalse(file.exists());
+    }
+
+    private ActorRef start(String transferId, File file, long length, JavaTestKit parent,
+                           JavaTestKit source) {
+        return system.actorOf(ChildOf.props(
+                ChunkReceiver.props(transferId, file, length, source.getRef(), settings),
+                parent.getRef()));
+    }
+}
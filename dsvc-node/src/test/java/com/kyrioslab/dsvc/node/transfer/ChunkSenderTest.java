@@ -0,0 +1,145 @@
+package com.kyrioslab.dsvc.node.transfer;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.JavaTestKit;
+import com.kyrioslab.dsvc.node.messages.ClusterMessage;
+import com.kyrioslab.dsvc.node.messages.LocalMessage;
+import com.typesafe.config.ConfigFactory;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sending of file by {@link ChunkSender}: window of unacknowledged
+ * chunks, empty file and failures.
+ */
+public class ChunkSenderTest {
+
+    private static ActorSystem system;
+    private static TransferSettings settings;
+
+    private File dir;
+
+    @BeforeClass
+    public static void setUpSystem() {
+        system = ActorSystem.create("ChunkSenderTest");
+        settings = new TransferSettings(ConfigFactory.parseString(
+                "dsvc.transfer {\n"
+                        + "  chunk-size = 4\n"
+                        + "  window = 2\n"
+                        + "  idle-timeout = 500ms\n"
+                        + "  dispatcher = \"akka.actor.default-dispatcher\"\n"
+                        + "}"));
+    }
+
+    @AfterClass
+    public static void tearDownSystem() {
+        JavaTestKit.shutdownActorSystem(system);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("sender").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void windowStallsUntilAck() throws Exception {
+        File file = file("part.mp4", new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        JavaTestKit parent = new JavaTestKit(system);
+        JavaTestKit receiver = new JavaTestKit(system);
+        ActorRef sender = start("t1", file, parent);
+
+        sender.tell(new ClusterMessage.TransferReady("t1"), receiver.getRef());
+        ClusterMessage.PartChunk c0 = receiver.expectMsgClass(ClusterMessage.PartChunk.class);
+        ClusterMessage.PartChunk c1 = receiver.expectMsgClass(ClusterMessage.PartChunk.class);
+        assertEquals(0, c0.getSeq());
+        assertArrayEquals(new byte[]{0, 1, 2, 3}, c0.getData());
+        assertEquals(1, c1.getSeq());
+        assertFalse(c1.isLast());
+
+        //window is full
+        receiver.expectNoMsg(receiver.duration("100 millis"));
+
+        sender.tell(new ClusterMessage.PartChunkAck("t1", 0), receiver.getRef());
+        ClusterMessage.PartChunk c2 = receiver.expectMsgClass(ClusterMessage.PartChunk.class);
+        assertEquals(2, c2.getSeq());
+        assertTrue(c2.isLast());
+        assertArrayEquals(new byte[]{8, 9}, c2.getData());
+        parent.expectNoMsg(parent.duration("100 millis"));
+
+        sender.tell(new ClusterMessage.PartChunkAck("t1", 1), receiver.getRef());
+        sender.tell(new ClusterMessage.PartChunkAck("t1", 2), receiver.getRef());
+        LocalMessage.TransferCompleteMessage complete =
+                parent.expectMsgClass(LocalMessage.TransferCompleteMessage.class);
+        assertEquals("t1", complete.getTransferId());
+        receiver.expectNoMsg(receiver.duration("100 millis"));
+    }
+
+    @Test
+    public void emptyFileIsOneChunk() throws Exception {
+        File file = file("empty.mp4", new byte[0]);
+        JavaTestKit parent = new JavaTestKit(system);
+        JavaTestKit receiver = new JavaTestKit(system);
+        ActorRef sender = start("t2", file, parent);
+
+        sender.tell(new ClusterMessage.TransferReady("t2"), receiver.getRef());
+        ClusterMessage.PartChunk chunk = receiver.expectMsgClass(ClusterMessage.PartChunk.class);
+        assertEquals(0, chunk.getSeq());
+        assertTrue(chunk.isLast());
+        assertEquals(0, chunk.getData().length);
+
+        sender.tell(new ClusterMessage.PartChunkAck("t2", 0), receiver.getRef());
+        parent.expectMsgClass(LocalMessage.TransferCompleteMessage.class);
+    }
+
+    @Test
+    public void idleTransferFails() throws Exception {
+        File file = file("part.mp4", new byte[]{0, 1, 2, 3, 4, 5});
+        JavaTestKit parent = new JavaTestKit(system);
+        JavaTestKit receiver = new JavaTestKit(system);
+        ActorRef sender = start("t3", file, parent);
+
+        //receiver is gone after the first window
+        sender.tell(new ClusterMessage.TransferReady("t3"), receiver.getRef());
+        receiver.expectMsgClass(ClusterMessage.PartChunk.class);
+        receiver.expectMsgClass(ClusterMessage.PartChunk.class);
+        LocalMessage.TransferFailedMessage failed = parent.expectMsgClass(
+                parent.duration("2 seconds"), LocalMessage.TransferFailedMessage.class);
+        assertEquals("t3", failed.getTransferId());
+    }
+
+    @Test
+    public void missingFileFails() {
+        JavaTestKit parent = new JavaTestKit(system);
+        start("t4", new File(dir, "missing.mp4"), parent);
+        parent.expectMsgClass(LocalMessage.TransferFailedMessage.class);
+    }
+
+    private ActorRef start(String transferId, File file, JavaTestKit parent) {
+        return system.actorOf(ChildOf.props(
+                ChunkSender.props(transferId, file, settings), parent.getRef()));
+    }
+
+    private File file(String name, byte[] data) throws Exception {
+        File file = new File(dir, name);
+        FileUtils.writeByteArrayToFile(file, data);
+        return file;
+    }
+}
@@ -0,0 +1,129 @@
+package com.kyrioslab.dsvc.node.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parsing of ffmpeg <code>-progress</code> blocks by {@link ProgressFollower}.
+ */
+public class ProgressFollowerTest {
+
+    private File file;
+
+    private final List<Progress> reports = new ArrayList<>();
+
+    private final ProgressListener listener = new ProgressListener() {
+        @Override
+        public void onProgress(long frame, double fps, double speed, long outTime, boolean end) {
+            reports.add(new Progress(frame, fps, speed, outTime, end));
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("progress", ".txt").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void partialLastBlockIsReadLater() throws Exception {
+        ProgressFollower follower = new ProgressFollower(file, 0, listener);
+        append("frame=10\nfps=2");
+        follower.poll();
+        assertTrue(reports.isEmpty());
+
+        //line is finished by the next write
+        append("5.5\nprogress=continue\n");
+        follower.poll();
+        assertEquals(1, reports.size());
+        assertEquals(10, reports.get(0).frame);
+        assertEquals(25.5, reports.get(0).fps, 0);
+        assertFalse(reports.get(0).end);
+    }
+
+    @Test
+    public void outTimeInMicroseconds() throws Exception {
+        ProgressFollower follower = new ProgressFollower(file, 0, listener);
+        append("out_time_us=1500000\nprogress=continue\n");
+        follower.poll();
+
+        //out_time_ms is in microseconds too
+        append("out_time_ms=2000000\nprogress=continue\n");
+        follower.poll();
+        assertEquals(2, reports.size());
+        assertEquals(1500, reports.get(0).outTime);
+        assertEquals(2000, reports.get(1).outTime);
+    }
+
+    @Test
+    public void unknownSpeedKeepsLastSpeed() throws Exception {
+        ProgressFollower follower = new ProgressFollower(file, 0, listener);
+        append("speed=1.5x\nprogress=continue\n");
+        append("speed=N/A\nprogress=continue\n");
+        follower.poll();
+        assertEquals(2, reports.size());
+        assertEquals(1.5, reports.get(0).speed, 0);
+        assertEquals(1.5, reports.get(1).speed, 0);
+    }
+
+    @Test
+    public void endIsAlwaysReported() throws Exception {
+        ProgressFollower follower = new ProgressFollower(file, 3600000, listener);
+        append("frame=1\nprogress=continue\n");
+        append("frame=2\nprogress=continue\n");
+        append("frame=3\nprogress=end\n");
+        follower.poll();
+
+        //second block is within interval
+        assertEquals(2, reports.size());
+        assertEquals(1, reports.get(0).frame);
+        assertEquals(3, reports.get(1).frame);
+        assertTrue(reports.get(1).end);
+
+        //nothing is read after the end
+        append("frame=4\nprogress=continue\n");
+        follower.poll();
+        assertEquals(2, reports.size());
+    }
+
+    private void append(String text) throws IOException {
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static class Progress {
+
+        private final long frame;
+        private final double fps;
+        private final double speed;
+        private final long outTime;
+        private final boolean end;
+
+        private Progress(long frame, double fps, double speed, long outTime, boolean end) {
+            this.frame = frame;
+            this.fps = fps;
+            this.speed = speed;
+            this.outTime = outTime;
+            this.end = end;
+        }
+    }
+}
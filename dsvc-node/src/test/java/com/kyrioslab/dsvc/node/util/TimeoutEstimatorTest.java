@@ -0,0 +1,132 @@
+package com.kyrioslab.dsvc.node.util;
+
+import akka.actor.Address;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Part timeouts, estimated by {@link TimeoutEstimator} from rates of completed parts.
+ */
+public class TimeoutEstimatorTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private static final String PROFILE = "ffmpeg -i in -b:v 1M out.mp4";
+
+    private final Address node1 = new Address("akka.tcp", "EncodeSystem", "host1", 2552);
+    private final Address node2 = new Address("akka.tcp", "EncodeSystem", "host2", 2552);
+
+    @Test
+    public void defaultUntilEnoughSamples() {
+        TimeoutEstimator estimator = estimator(1.0, 0.5, 4);
+        estimator.addSample(node1, PROFILE, MB, 100);
+        estimator.addSample(node1, PROFILE, MB, 100);
+        assertEquals(300000, estimator.getTimeout(node1, PROFILE, MB));
+        estimator.addSample(node1, PROFILE, MB, 100);
+        assertEquals(100, estimator.getTimeout(node1, PROFILE, MB));
+    }
+
+    @Test
+    public void timeoutGrowsWithPartSize() {
+        TimeoutEstimator estimator = estimator(1.0, 0.5, 4);
+        for (int i = 0; i < 3; i++) {
+            estimator.addSample(node1, PROFILE, 2 * MB, 200);
+        }
+        assertEquals(100, estimator.getTimeout(node1, PROFILE, MB));
+        assertEquals(1000, estimator.getTimeout(node1, PROFILE, 10 * MB));
+    }
+
+    @Test
+    public void percentileOverAverage() {
+        //average follows the last rate only
+        TimeoutEstimator estimator = estimator(1.0, 0.5, 4);
+        estimator.addSample(node1, PROFILE, MB, 400);
+        estimator.addSample(node1, PROFILE, MB, 300);
+        estimator.addSample(node1, PROFILE, MB, 200);
+        estimator.addSample(node1, PROFILE, MB, 100);
+        assertEquals(200, estimator.getTimeout(node1, PROFILE, MB));
+    }
+
+    @Test
+    public void averageOverPercentile() {
+        TimeoutEstimator estimator = estimator(1.0, 0.5, 4);
+        estimator.addSample(node1, PROFILE, MB, 100);
+        estimator.addSample(node1, PROFILE, MB, 200);
+        estimator.addSample(node1, PROFILE, MB, 300);
+        estimator.addSample(node1, PROFILE, MB, 400);
+        assertEquals(400, estimator.getTimeout(node1, PROFILE, MB));
+    }
+
+    @Test
+    public void windowDropsOldRates() {
+        TimeoutEstimator estimator = estimator(1.0, 1.0, 4);
+        estimator.addSample(node1, PROFILE, MB, 10000);
+        for (int i = 0; i < 4; i++) {
+            estimator.addSample(node1, PROFILE, MB, 100);
+        }
+        assertEquals(100, estimator.getTimeout(node1, PROFILE, MB));
+    }
+
+    @Test
+    public void ratesOfNode() {
+        TimeoutEstimator estimator = estimator(1.0, 1.0, 10);
+        for (int i = 0; i < 3; i++) {
+            estimator.addSample(node1, PROFILE, MB, 100);
+            estimator.addSample(node2, PROFILE, MB, 1000);
+        }
+        assertEquals(100, estimator.getTimeout(node1, PROFILE, MB));
+        assertEquals(1000, estimator.getTimeout(node2, PROFILE, MB));
+
+        //unknown node uses rates of all nodes
+        assertEquals(1000, estimator.getTimeout(null, PROFILE, MB));
+        assertEquals(1000, estimator.getTimeout(
+                new Address("akka.tcp", "EncodeSystem", "host3", 2552), PROFILE, MB));
+    }
+
+    @Test
+    public void ratesOfProfile() {
+        TimeoutEstimator estimator = estimator(1.0, 1.0, 10);
+        for (int i = 0; i < 3; i++) {
+            estimator.addSample(node1, PROFILE, MB, 100);
+        }
+        assertEquals(300000, estimator.getTimeout(node1, "other", MB));
+    }
+
+    @Test
+    public void emptyPartIsSkipped() {
+        TimeoutEstimator estimator = estimator(1.0, 1.0, 10);
+        for (int i = 0; i < 3; i++) {
+            estimator.addSample(node1, PROFILE, 0, 100);
+        }
+        assertEquals(300000, estimator.getTimeout(node1, PROFILE, MB));
+    }
+
+    @Test
+    public void timeoutIsClamped() {
+        TimeoutEstimator estimator = estimator(1.0, 1.0, 10);
+        for (int i = 0; i < 3; i++) {
+            estimator.addSample(node1, PROFILE, MB, 100);
+        }
+        assertEquals(10, estimator.getTimeout(node1, PROFILE, 1));
+        assertEquals(3600000, estimator.getTimeout(node1, PROFILE, 100000 * MB));
+    }
+
+    /**
+     * Estimator with factor 1, min timeout 10ms and 3 samples needed.
+     */
+    private static TimeoutEstimator estimator(double ewmaAlpha, double percentile, int window) {
+        return new TimeoutEstimator(new TrackSettings(ConfigFactory.parseString(
+                "dsvc.tracker {\n"
+                        + "  default-timeout = 300s\n"
+                        + "  min-timeout = 10ms\n"
+                        + "  max-timeout = 1h\n"
+                        + "  factor = 1.0\n"
+                        + "  ewma-alpha = " + ewmaAlpha + "\n"
+                        + "  percentile = " + percentile + "\n"
+                        + "  window = " + window + "\n"
+                        + "  min-samples = 3\n"
+                        + "}")));
+    }
+}